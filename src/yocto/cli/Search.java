@@ -1,13 +1,17 @@
 package yocto.cli;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
 
 import yocto.searching.Hit;
+import yocto.searching.QueryCache;
+import yocto.searching.QueryExecutor;
 import yocto.searching.Searcher;
+import yocto.storage.PostingsCache;
+import yocto.storage.StoreCache;
 
 /**
  * A simple testing CLI for testing the searching infrastructure.
@@ -28,6 +32,62 @@ public class Search {
     private static final String strAppName =
             "Yocto Search Engine v." + VERSION + " (Search Module)";
 
+    /* The number of hits shown per query. */
+    private static final int NUM_HITS = 10;
+
+    /*
+     * The maximum number of terms a prefix is expanded to. Can be set with
+     * the {@code yocto.maxExpansions} system property.
+     */
+    private static final int MAX_EXPANSIONS = Integer.getInteger(
+            "yocto.maxExpansions", QueryExecutor.DEFAULT_MAX_EXPANSIONS);
+
+    /*
+     * The maximum number of postings of the terms a prefix is expanded to, in
+     * all. Can be set with the {@code yocto.maxExpansionPostings} system
+     * property.
+     */
+    private static final long MAX_EXPANSION_POSTINGS = Long.getLong(
+            "yocto.maxExpansionPostings", QueryExecutor.DEFAULT_MAX_EXPANSION_POSTINGS);
+
+    /*
+     * The maximum number of queries whose results are cached. Can be set with
+     * the {@code yocto.queryCacheEntries} system property.
+     */
+    private static final int QUERY_CACHE_ENTRIES = Integer.getInteger(
+            "yocto.queryCacheEntries", QueryCache.DEFAULT_MAX_ENTRIES);
+
+    /*
+     * The amount of memory, in megabytes, the cached results may take. Can be
+     * set with the {@code yocto.queryCacheMB} system property.
+     */
+    private static final double QUERY_CACHE_MB = Double.parseDouble(
+            System.getProperty("yocto.queryCacheMB",
+                    String.valueOf(QueryCache.DEFAULT_MAX_BYTES / 1024 / 1024)));
+
+    /*
+     * The amount of memory, in megabytes, the decoded postings lists may take.
+     * Can be set with the {@code yocto.postingsCacheMB} system property.
+     */
+    private static final double POSTINGS_CACHE_MB = Double.parseDouble(
+            System.getProperty("yocto.postingsCacheMB",
+                    String.valueOf(PostingsCache.DEFAULT_MAX_BYTES / 1024 / 1024)));
+
+    /*
+     * Whether the decoded postings lists are kept off the heap. Can be set
+     * with the {@code yocto.postingsCacheOffHeap} system property.
+     */
+    private static final boolean POSTINGS_CACHE_OFF_HEAP =
+            Boolean.getBoolean("yocto.postingsCacheOffHeap");
+
+    /*
+     * The amount of memory, in megabytes, off the heap, the cached labels may
+     * take. Can be set with the {@code yocto.storeCacheMB} system property.
+     */
+    private static final double STORE_CACHE_MB = Double.parseDouble(
+            System.getProperty("yocto.storeCacheMB",
+                    String.valueOf(StoreCache.DEFAULT_MAX_BYTES / 1024 / 1024)));
+
     /* The application header. */
     private static final String strAppHeader = strAppName
             + "\nA tiny, yet functional, search engine."
@@ -50,7 +110,12 @@ public class Search {
         System.out.print("Initializing... ");
         Searcher s;
         try {
-            s = new Searcher(args[0]);
+            s = new Searcher(args[0], MAX_EXPANSIONS, MAX_EXPANSION_POSTINGS,
+                    new QueryCache(QUERY_CACHE_ENTRIES, (long) (QUERY_CACHE_MB * 1024 * 1024)),
+                    new PostingsCache((long) (POSTINGS_CACHE_MB * 1024 * 1024),
+                            PostingsCache.DEFAULT_MIN_DOCS, POSTINGS_CACHE_OFF_HEAP),
+                    new StoreCache((long) (STORE_CACHE_MB * 1024 * 1024),
+                            StoreCache.DEFAULT_SLOT_SIZE));
             System.out.println("Done");
             System.out.println("");
 
@@ -72,17 +137,27 @@ public class Search {
                     }
                     else {
                         long startTime = System.nanoTime();
-                        List<Hit> hits = s.searchQuery(query);
+                        List<Hit> hits = s.search(query, NUM_HITS).page(0, NUM_HITS);
+                        // The ranked page skips documents, so the matches
+                        // are only counted when that is cheap; otherwise a
+                        // full page only tells there are at least as many.
+                        int total = s.count(query);
+                        if (total < 0 && hits.size() < NUM_HITS)
+                            total = hits.size();
                         long elapsedTime = System.nanoTime() - startTime;
                         System.out.println("Results for \"" + query + "\" "
-                                +"(" + hits.size()
+                                +"(" + (total < 0 ? "at least " + hits.size() : total)
                                 + " documents in " + TimeUnit.MILLISECONDS.convert(elapsedTime,
                                         TimeUnit.NANOSECONDS) + "ms)");
+                        if (total < 0 || total > hits.size())
+                            System.out.println("  Top " + hits.size() + ":");
 
                         if (hits.size() > 0) {
                             Iterator<Hit> iter = hits.iterator();
                             while(iter.hasNext()) {
-                                System.out.println("  " + iter.next().getResource());
+                                Hit hit = iter.next();
+                                System.out.println("  " + hit.getResource()
+                                        + " (" + String.format("%.3f", hit.getScore()) + ")");
                             }
                         }
                         else {
@@ -95,7 +170,8 @@ public class Search {
             }
 
             scanner.close();
-        } catch (FileNotFoundException e) {
+            s.close();
+        } catch (IOException e) {
             System.out.println("Failed! Aborting...");
             System.out.println("");
             e.printStackTrace();
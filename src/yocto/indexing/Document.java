@@ -2,6 +2,8 @@ package yocto.indexing;
 
 import java.lang.reflect.Field;
 
+import yocto.storage.StoreRecord;
+
 /**
  * An abstraction of an indexable document.
  *
@@ -21,17 +23,35 @@ public class Document {
     /* The document's author. */
     private final String author;
 
+    /* The time of the document's revision, in milliseconds since the epoch. */
+    private final long timestamp;
+
     /**
-     * Constructor.
+     * Constructor, for a document without a timestamp.
      *
      * @param id
      *     The document id;
      */
     public Document(long id, String label, String content, String author) {
+        this(id, label, content, author, StoreRecord.NO_TIMESTAMP);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param id
+     *     The document id;
+     * @param timestamp
+     *     The time of the revision, in milliseconds since the epoch, or
+     *     {@link StoreRecord#NO_TIMESTAMP}.
+     */
+    public Document(long id, String label, String content, String author, long timestamp) {
         this.id = id;
         this.label = label;
         this.content = content;
         this.author = author;
+        this.timestamp = timestamp;
     }
 
 
@@ -79,6 +99,18 @@ public class Document {
     }
 
 
+    /**
+     * Gets the time of the document's revision.
+     *
+     * @return
+     *     The time, in milliseconds since the epoch, or
+     *     {@link StoreRecord#NO_TIMESTAMP}.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
     /**
      * Peek inside the {@code WikiPage} object to see its contents in a
      * human readable format.
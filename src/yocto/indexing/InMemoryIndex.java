@@ -0,0 +1,213 @@
+package yocto.indexing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * The in-memory index of a batch of documents.
+ *
+ * It is the data structure that will hold an in-memory instance of the
+ * inverted index for the sorting/grouping phase of the indexing process. It
+ * consumes the tokens of a document directly from the analyzer's buffer
+ * (see {@link TokenSink}), so only terms that are new to the batch's
+ * dictionary are ever turned into {@code String} objects. The terms are put
+ * into lexicographic order once, when the batch is flushed.
+ *
+ * The length of every document, in tokens, is kept along, for the
+ * {@link yocto.storage.DiskManager} to write as the document's norm.
+ *
+ * Not thread-safe; every analyzer worker owns its own instance.
+ *
+ * @author billy
+ */
+public class InMemoryIndex implements TokenSink {
+
+    /* The dictionary of the batch. */
+    private final TermHash terms;
+
+    /*
+     * The postings of each term, by term id. Since documents come in
+     * increasing id order, postings are simply appended.
+     */
+    private final ArrayList<PostingsList> postings;
+
+    /* The id of the document currently being inverted. */
+    private long docId;
+
+    /* The estimated size of the postings lists, in bytes. */
+    private long postingsBytes;
+
+    /* The ids of the documents of the batch, in the order they came in. */
+    private long[] docIds;
+
+    /* The lengths of the documents of the batch, in tokens. */
+    private int[] docLengths;
+
+    /* The number of documents of the batch. */
+    private int numDocs;
+
+
+    /**
+     * Constructor.
+     */
+    public InMemoryIndex() {
+        this.terms = new TermHash();
+        this.postings = new ArrayList<PostingsList>();
+        this.docIds = new long[16];
+        this.docLengths = new int[16];
+    }
+
+
+    /**
+     * Sets the document the following tokens belong to.
+     *
+     * @param docId
+     *     The document id.
+     */
+    public void startDocument(long docId) {
+        this.docId = docId;
+
+        if (numDocs == docIds.length) {
+            docIds = Arrays.copyOf(docIds, numDocs << 1);
+            docLengths = Arrays.copyOf(docLengths, numDocs << 1);
+        }
+        docIds[numDocs] = docId;
+        docLengths[numDocs] = 0;
+        numDocs++;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.indexing.TokenSink#token(char[], int, int)
+     */
+    @Override
+    public void token(char[] buffer, int offset, int length) {
+        if (numDocs > 0)
+            docLengths[numDocs - 1]++;
+        posting(buffer, offset, length);
+    }
+
+
+    /**
+     * Adds a whole term for the current document, such as the name of its
+     * author, not counted in the length of the document as its words are.
+     *
+     * @param term
+     *     The term.
+     */
+    public void addTerm(String term) {
+        char[] chars = term.toCharArray();
+        posting(chars, 0, chars.length);
+    }
+
+
+    /*
+     * Adds an occurrence of a term in the current document to its postings.
+     */
+    private void posting(char[] buffer, int offset, int length) {
+        int id = terms.add(buffer, offset, length);
+        if (id >= 0) {
+            // A term new to the dictionary; prepare its postings.
+            PostingsList termPostings = new PostingsList();
+            termPostings.add(docId);
+            postings.add(termPostings);
+            postingsBytes += termPostings.ramBytesUsed() + RamUsage.NUM_BYTES_OBJECT_REF;
+        }
+        else {
+            // Repeated occurrences within a document add up to its frequency.
+            PostingsList termPostings = postings.get(-id - 1);
+            long before = termPostings.ramBytesUsed();
+            termPostings.add(docId);
+            postingsBytes += termPostings.ramBytesUsed() - before;
+        }
+    }
+
+
+    /**
+     * Checks whether the index holds no terms.
+     *
+     * @return
+     *     {@code true} if empty.
+     */
+    public boolean isEmpty() {
+        return terms.size() == 0;
+    }
+
+
+    /**
+     * Estimates the heap footprint of the index.
+     *
+     * Kept up to date as tokens are added, so it is cheap enough to be
+     * checked after every document.
+     *
+     * @return
+     *     The estimated size in bytes.
+     */
+    public long ramBytesUsed() {
+        return terms.ramBytesUsed() + postingsBytes + docIds.length * 12L;
+    }
+
+
+    /**
+     * Gets a view of the index sorted by term, as expected by the
+     * {@link yocto.storage.DiskManager}.
+     *
+     * @return
+     *     The sorted index.
+     */
+    public TreeMap<String, PostingsList> toSortedMap() {
+        TreeMap<String, PostingsList> index = new TreeMap<String, PostingsList>();
+
+        for (int id = 0; id < terms.size(); id++) {
+            index.put(terms.getTerm(id), postings.get(id));
+        }
+
+        return index;
+    }
+
+
+    /**
+     * Gets the ids of the documents of the batch, in the order they came in.
+     *
+     * @return
+     *     The document ids; only the first {@link #getNumDocs()} are valid.
+     */
+    public long[] getDocIds() {
+        return docIds;
+    }
+
+
+    /**
+     * Gets the lengths, in tokens, of the documents of the batch.
+     *
+     * @return
+     *     The document lengths, in the order of {@link #getDocIds()}.
+     */
+    public int[] getDocLengths() {
+        return docLengths;
+    }
+
+
+    /**
+     * Gets the number of documents of the batch.
+     *
+     * @return
+     *     The number of documents.
+     */
+    public int getNumDocs() {
+        return numDocs;
+    }
+
+
+    /**
+     * Removes all terms, postings and documents.
+     */
+    public void clear() {
+        terms.clear();
+        postings.clear();
+        postingsBytes = 0;
+        numDocs = 0;
+    }
+
+}
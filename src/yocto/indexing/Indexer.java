@@ -1,95 +1,200 @@
 package yocto.indexing;
 
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import yocto.indexing.parsing.wikipedia.WikiMarkupNormalizer;
 import yocto.indexing.parsing.wikipedia.WikiPageAnalyzer;
 import yocto.storage.DiskManager;
+import yocto.storage.StoreRecord;
 
 /**
  * An indexer for large semi-structured datasets.
  *
+ * Documents added to the indexer are handed over to a pool of analyzer
+ * workers. Each worker normalizes, tokenizes and inverts the documents it
+ * picks up into its own, private in-memory index and flushes it to disk as an
+ * independent segment whenever its share of the RAM buffer is full. The
+ * segments are then merged in the background by the {@link DiskManager}.
+ *
+ * Buffers are double-buffered: a full in-memory index (or stored fields
+ * buffer) is handed over to a background flusher while its owner goes on
+ * filling a second one, so inverting documents and writing segments overlap.
+ * Should the flusher fall behind, the owner blocks before swapping buffers
+ * again.
+ *
+ * The RAM buffer is shared evenly among both buffers of every worker and of
+ * the stored fields, so that, whatever the size of the documents, segments
+ * come out of roughly the same size and the buffers never hold more than
+ * the given budget.
+ *
  * @author billy
  */
 public class Indexer {
 
+    /* Marker document asking the workers to flush their partial batches. */
+    private static final Document COMMIT = new Document(-1, "", "", "");
+
+    /* Marker document asking the workers to flush and terminate. */
+    private static final Document POISON = new Document(-1, "", "", "");
+
+    /* The number of queued documents per worker before addDocument blocks. */
+    private static final int QUEUE_SIZE_PER_WORKER = 256;
+
+    /* How often, in milliseconds, a blocked caller checks for a failure. */
+    private static final long FAILURE_CHECK_MILLIS = 100;
+
     /*
-     * The in-memory index.
-     *
-     * It is the data structure that will hold an in-memory instance of the
-     * inverted index for the sorting/grouping phase of the indexing process.
-     *
-     * The terms should be kept in lexicographic order so we use a tree that
-     * that implements a dictionary-based interface.
-     *
-     * It is also a good idea to keep the postings lists in increasing document
-     * id order. In the special case that we process a stream of documents that
-     * are coming in increasing id order a simple linked-list structure would
-     * suffice. For the general case, here, we use a tree-based data structure
-     * holding the postings (which we have made comparable on the document id
-     * field).
-     *
-     * TODO If steps that access it are to be threaded, I need to make sure the
-     * that it is thread-safe ({@code TreeMap<K, V> for example is not
-     * synchronized by default). Better some concurrent collection.
+     * The estimated size of a stored fields entry, excluding the fields
+     * themselves: the linked map entry, its table slot, the boxed document id
+     * and the record.
      */
-    private final TreeMap<String, TreeSet<Posting>> index;
+    private static final int STORE_ENTRY_RAM_BYTES = RamUsage.NUM_BYTES_OBJECT_HEADER
+            + 5 * RamUsage.NUM_BYTES_OBJECT_REF + 8
+            + RamUsage.NUM_BYTES_OBJECT_REF
+            + RamUsage.NUM_BYTES_OBJECT_HEADER + 8
+            + RamUsage.NUM_BYTES_OBJECT_HEADER + 3 * RamUsage.NUM_BYTES_OBJECT_REF + 8;
+
+    /* The number of characters of the content stored as a snippet. */
+    private static final int SNIPPET_LENGTH = 256;
 
     /*
      * The in-memory stored fields.
      *
-     * A data structure that maps document ids with a stored string field (in the
-     * future maybe a collection of stored fields). The map is linked so that we
-     * can preserve the insertion  sequence since we are manipulating documents in
-     * an ascending order of document id number.
+     * A data structure that maps document ids with their stored fields. The map
+     * is linked so that we can preserve the insertion  sequence since we are
+     * manipulating documents in an ascending order of document id number.
+     *
+     * Only filled by the thread adding documents, and only one buffer is
+     * flushed at a time, so that the store file is always appended in
+     * ascending document id order.
      */
-    private final LinkedHashMap<Long, String> store;
+    private LinkedHashMap<Long, StoreRecord> store;
+
+    /* The stored fields buffer being flushed, or free to be filled next. */
+    private LinkedHashMap<Long, StoreRecord> storeSpare;
+
+    /* Held while the spare stored fields buffer is being flushed. */
+    private final Semaphore storeSpareFree;
+
+    /* The estimated size of the in-memory stored fields, in bytes. */
+    private long storeBytes;
 
     /*
      * Handles the persistence functions
      */
     private final DiskManager dm;
 
-    /* The queue of the documents to be indexed. */
-    private final Queue<Document> documents;
-
     /*
-     * Defines the number of documents each inversion will handle.
+     * The queue of the documents to be indexed.
      *
-     * TODO Revisit this batch size approach. Might be better the batch size
-     * to be dynamically chosen with respect to the available memory.
+     * Bounded so that a fast parser cannot run arbitrarily ahead of the
+     * analyzer workers.
+     */
+    private final BlockingQueue<Document> documents;
+
+    /*
+     * The share of the RAM buffer, in bytes, each in-memory index (and the
+     * stored fields) may use before being flushed.
      */
-    private final int batchSize;
+    private final long ramBytesPerBuffer;
+
+    /* The number of analyzer workers. */
+    private final int numWorkers;
+
+    /* The thread manager for the analyzer workers. */
+    private final ExecutorService analyzers;
+
+    /*
+     * The thread manager for the background flushes. One thread per buffer
+     * owner, since each owner has at most one flush in flight.
+     */
+    private final ExecutorService flushers;
+
+    /* The futures of the running analyzer workers. */
+    private final List<Future<?>> workers;
+
+    /*
+     * The barrier the analyzer workers and the committing thread meet at
+     * once all partial batches have been flushed.
+     */
+    private final CyclicBarrier commitBarrier;
 
     /* The number of ingested batches. */
     private final AtomicInteger batchNum;
 
+    /*
+     * The first error a worker or a flusher died of, rethrown to the caller
+     * of addDocument, commit and close, or null.
+     */
+    private volatile Throwable failure;
+
 
     /**
      * Constructor.
      *
      * @param dm
      *     The disk manager associated with this indexer.
-     * @param batchSize
-     *     The threshold in the number of documents added to the indexer that
-     *     triggers the actual indexing. Should be carefully chosen taking into
-     *     account the memory available to the indexer (JVM + actual physical).
+     * @param ramBufferMB
+     *     The amount of memory, in megabytes, the indexer may buffer documents
+     *     in before flushing them to disk. Should be carefully chosen taking
+     *     into account the memory available to the indexer (JVM + actual
+     *     physical).
+     * @param numWorkers
+     *     The number of analyzer workers inverting documents in parallel.
      */
-    public Indexer(DiskManager dm, int batchSize) {
-        this.index = new TreeMap<String, TreeSet<Posting>>();
-        this.store = new LinkedHashMap<Long, String>();
+    public Indexer(DiskManager dm, double ramBufferMB, int numWorkers) {
+        if (numWorkers < 1)
+            throw new IllegalArgumentException("Number of workers must be positive.");
+        if (ramBufferMB <= 0)
+            throw new IllegalArgumentException("RAM buffer size must be positive.");
+
+        this.store = new LinkedHashMap<Long, StoreRecord>();
+        this.storeSpare = new LinkedHashMap<Long, StoreRecord>();
+        this.storeSpareFree = new Semaphore(1);
         this.dm = dm;
-        this.documents = new LinkedList<Document>();
-        this.batchSize = batchSize;
+        this.documents = new ArrayBlockingQueue<Document>(QUEUE_SIZE_PER_WORKER * numWorkers);
+        this.ramBytesPerBuffer = (long) (ramBufferMB * 1024 * 1024) / (2 * (numWorkers + 1));
+        this.numWorkers = numWorkers;
+        this.analyzers = Executors.newFixedThreadPool(numWorkers);
+        this.flushers = Executors.newFixedThreadPool(numWorkers + 1);
+        this.workers = new LinkedList<Future<?>>();
+        this.commitBarrier = new CyclicBarrier(numWorkers + 1);
         this.batchNum = new AtomicInteger();
+
+        for (int i = 0; i < numWorkers; i++) {
+            workers.add(analyzers.submit(new InversionWorker()));
+        }
+    }
+
+
+    /**
+     * Constructor for a single analyzer worker.
+     *
+     * @param dm
+     *     The disk manager associated with this indexer.
+     * @param ramBufferMB
+     *     The amount of memory, in megabytes, the indexer may buffer documents
+     *     in before flushing them to disk.
+     */
+    public Indexer(DiskManager dm, double ramBufferMB) {
+        this(dm, ramBufferMB, 1);
     }
 
 
@@ -98,23 +203,35 @@ public class Indexer {
      *
      * This does not mean it is indexed or flushed to disk yet. The indexer
      * will decide according to a policy when the indexing procedure per se
-     * will take place.
+     * will take place. Blocks if the analyzer workers have fallen behind.
+     * Rethrows the error an analyzer worker failed on, if any.
      *
      * @param doc
      *     The document to be indexed.
      */
     public void addDocument(Document doc) {
-        documents.offer(doc);
-
-        if (documents.size() >= batchSize) {
-            forceCommit();
+        checkFailure();
+
+        // -- Keep the stored fields.
+        String label = doc.getLabel().trim();
+        String author = doc.getAuthor().trim();
+        String snippet = snippet(doc.getContent());
+        store.put(doc.getId(), new StoreRecord(label, author, doc.getTimestamp(), snippet));
+        storeBytes += STORE_ENTRY_RAM_BYTES + RamUsage.sizeOfString(label.length())
+                + RamUsage.sizeOfString(author.length()) + RamUsage.sizeOfString(snippet.length());
+        if (storeBytes >= ramBytesPerBuffer) {
+            flushStore();
         }
+
+        // -- Hand the document over for inversion.
+        enqueue(doc);
     }
 
 
     /**
      * Force the indexing procedure to index and flush to disk the currently
-     * queued documents.
+     * queued documents. Rethrows the error an analyzer worker failed on, if
+     * any.
      */
     public void forceCommit() {
         commit();
@@ -125,130 +242,235 @@ public class Indexer {
      * Closes the indexer.
      *
      * This commits any documents remaining in the queue and makes sure the
-     * final, merged index is properly written to disk.
+     * final, merged index is properly written to disk. Should a worker have
+     * failed, the others are stopped, the segments flushed so far are merged
+     * and the failure is rethrown.
      */
     public void close() {
-        commit();
+        try {
+            for (int i = 0; i < numWorkers; i++) {
+                enqueue(POISON);
+            }
+
+            for (Future<?> worker : workers) {
+                awaitWorker(worker);
+            }
+        }
+        finally {
+            analyzers.shutdownNow();
+
+            flushStore();
+            awaitStoreFlush();
+            flushers.shutdown();
+            try {
+                flushers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ie) {
+                ie.printStackTrace();
+                Thread.currentThread().interrupt();
+            }
+
+            dm.close();
+        }
 
-        dm.close();
+        checkFailure();
     }
 
 
     /**
-     * Proxy method for inversion process.
+     * Asks every analyzer worker to flush its partial batch and waits until
+     * all of them are done.
      */
     protected void commit() {
-        invertSPIMI();
+        checkFailure();
+
+        for (int i = 0; i < numWorkers; i++) {
+            enqueue(COMMIT);
+        }
+
+        try {
+            commitBarrier.await();
+        }
+        catch (InterruptedException | BrokenBarrierException e) {
+            // A worker failed and broke the barrier.
+            checkFailure();
+            e.printStackTrace();
+        }
+        checkFailure();
+
+        flushStore();
+        awaitStoreFlush();
     }
 
 
     /*
-     * Attempts to flush the in-memory structures to persistence storage.
+     * Cuts the beginning of a document's content off, to be stored as its
+     * snippet, short of splitting a surrogate pair.
      */
-    private void flush(TreeMap<String, TreeSet<Posting>> index,
-            LinkedHashMap<Long, String> store) {
-        dm.writeIndexSegment(index);
-        index.clear();
-        dm.appendStore(store);
-        store.clear();
+    private static String snippet(String content) {
+        String snippet = content.trim();
+        if (snippet.length() <= SNIPPET_LENGTH)
+            return snippet;
+
+        int end = SNIPPET_LENGTH;
+        if (Character.isHighSurrogate(snippet.charAt(end - 1)))
+            end--;
+
+        return snippet.substring(0, end);
     }
 
 
     /*
-     * The indexing process.
-     *
-     * Implements a variation of the Single-Pass In-Mamory Indexing (SPIMI)
-     * algorithm.
-     *
-     * TODO Could be a good idea to leverage the composite design pattern for
-     * a plugable analyzer object.
+     * Hands the in-memory stored fields over to a flusher, to be appended to
+     * the store file, and swaps in the spare buffer. Blocks while the spare
+     * buffer is still being flushed.
      */
-    protected void invertSPIMI() {
+    private void flushStore() {
+        if (store.isEmpty())
+            return;
+
+        storeSpareFree.acquireUninterruptibly();
+
+        final LinkedHashMap<Long, StoreRecord> full = store;
+        store = storeSpare;
+        storeSpare = full;
+        storeBytes = 0;
+
+        flushers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dm.appendStore(full);
+                    full.clear();
+                }
+                catch (Throwable t) {
+                    fail(t);
+                }
+                finally {
+                    storeSpareFree.release();
+                }
+            }
+        });
+    }
 
-        // Stats
-        int batchId = batchNum.incrementAndGet();
-        long startTime = System.nanoTime();
-        long numDocsIndexed = 0;
-        long numTokensProcessed = 0;
 
-        Document doc;
-        HashSet<String> docTerms;
+    /*
+     * Waits until the stored fields handed over to the flusher are written.
+     */
+    private void awaitStoreFlush() {
+        storeSpareFree.acquireUninterruptibly();
+        storeSpareFree.release();
+    }
 
-        // Iterate through all available documents.
-        while ( (doc = documents.poll()) != null ) {
 
-            // -- Keep the stored fields.
+    /*
+     * Puts a document in the queue, waiting for space if necessary, unless a
+     * worker failed, in which case the queue may never drain.
+     */
+    private void enqueue(Document doc) {
+        try {
+            while (!documents.offer(doc, FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+        catch (InterruptedException ie) {
+            ie.printStackTrace();
+            // Preserve interrupt status
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            store.put(doc.getId(), doc.getLabel().trim());
 
-            // -- Invert document.
+    /*
+     * Waits until an analyzer worker terminates, or until a worker has
+     * failed, in which case the others may be left waiting for documents
+     * that were drained.
+     */
+    private void awaitWorker(Future<?> worker) {
+        while (true) {
+            try {
+                worker.get(FAILURE_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+            catch (TimeoutException te) {
+                if (failure != null)
+                    return;
+            }
+            catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
 
-            docTerms = WikiPageAnalyzer.tokenizePageRevisionText(
-                    WikiPageAnalyzer.normalizePlainPageRevisionText(doc.getContent()),
-                    WikiPageAnalyzer.getStopwords());
 
+    /*
+     * Records the error a worker or a flusher died of, drops the queued
+     * documents, and breaks the commit barrier for good, so that neither a
+     * commit waiting at it nor any to come waits for the dead worker.
+     */
+    private void fail(Throwable t) {
+        synchronized (this) {
+            if (failure == null)
+                failure = t;
+        }
+        documents.clear();
 
-            TreeSet<Posting> termPostings;
+        try {
+            // Timing out breaks the barrier for all its parties until reset.
+            commitBarrier.await(0, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+            // Broken, as intended.
+        }
+    }
 
-            // Iterate through all terms of the current document...
-            for (String term : docTerms) {
-                //... try to get the postings for the term in the inverted index...
 
-                termPostings = index.get(term);
-                if (termPostings == null) {
-                    // ...no term appears in the inverted index
+    /*
+     * Rethrows the error a worker or a flusher died of, if any.
+     */
+    private void checkFailure() {
+        Throwable t = failure;
+        if (t == null)
+            return;
+
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        throw new IllegalStateException("Indexing failed.", t);
+    }
 
-                    // prepare a new sorted list of postings
-                    TreeSet<Posting> addedPostings = new TreeSet<Posting>();
-                    // ... prepare a posting for the current document and add
-                    // it to the newly created sorted list of postings
-                    addedPostings.add(new Posting(doc.getId()));
-                    // and add a term/sorted-list-o-postings pair to the
-                    // inverted index.
-                    index.put(term, addedPostings);
-                }
-                else {
-                    // the term already appears in the inverted index so simply
-                    // add a new posting in the term's sorted list of postings.
-                    termPostings.add(new Posting(doc.getId()));
-                }
-                numTokensProcessed++;
-
-            } // -- foreach term in the document
-
-            // -- Naive approach for inverting author names due to lack of time.
-            String author = "author:" + doc.getAuthor().trim().toLowerCase();
-            TreeSet<Posting> authorPostings = index.get(author);
-            if (authorPostings == null) {
-                TreeSet<Posting> addedAuthorPostings = new TreeSet<Posting>();
-                addedAuthorPostings.add(new Posting(doc.getId()));
-                // add the new author/sorted-list-o-postings pair to the
-                // inverted index.
-                index.put(author, addedAuthorPostings);
-            }
-            else {
-                // the author already appears in the inverted index so simply
-                // add a new posting in the term's sorted list of postings.
-                authorPostings.add(new Posting(doc.getId()));
-            }
 
-            numDocsIndexed++;
+    /*
+     * The indexing process for a single document.
+     *
+     * Implements a variation of the Single-Pass In-Mamory Indexing (SPIMI)
+     * algorithm. Each analyzer worker calls it on its own in-memory index.
+     *
+     * TODO Could be a good idea to leverage the composite design pattern for
+     * a plugable analyzer object.
+     *
+     * @return
+     *     The number of tokens processed.
+     */
+    protected long invertSPIMI(Document doc, InMemoryIndex index) {
 
-        } // -- while there are documents
+        // -- Normalize straight into the thread's reusable buffer...
+        WikiMarkupNormalizer normalizer = WikiPageAnalyzer.getNormalizer();
+        int length = normalizer.normalize(doc.getContent());
 
-//        printIndex(index);
-//        printStore(store);
+        // -- ...and invert the tokens without materializing them.
+        index.startDocument(doc.getId());
+        long numTokensProcessed = WikiPageAnalyzer.tokenizePageRevisionText(
+                normalizer.buffer(), 0, length,
+                WikiPageAnalyzer.getStopwordTerms(),
+                index);
 
-        // Persist to disk
-        flush(index, store);
+        // -- Naive approach for inverting author names due to lack of time.
+        index.addTerm("author:" + doc.getAuthor().trim().toLowerCase());
 
-        long elapsedTime = System.nanoTime() - startTime;
-        System.out.println("Batch ingestion complete [id: " + batchId
-                + " | docs: " + numDocsIndexed
-                + " | tokens: " + numTokensProcessed
-                + " | time(s): " + TimeUnit.SECONDS.convert(elapsedTime,
-                        TimeUnit.NANOSECONDS)
-                + "].");
+        return numTokensProcessed;
     }
 
 
@@ -258,13 +480,13 @@ public class Indexer {
      * @param index
      *     The in-memory index to print.
      */
-    public static void printIndex(TreeMap<String, TreeSet<Posting>> index) {
+    public static void printIndex(TreeMap<String, PostingsList> index) {
         Set<String> terms = index.keySet();
 
         for (String term : terms) {
             System.out.println("");
             System.out.print(term + " => ");
-            TreeSet<Posting> postings = index.get(term);
+            PostingsList postings = index.get(term);
             for (Posting posting : postings) {
                 System.out.print(" " + posting.getDocId());
             }
@@ -279,10 +501,218 @@ public class Indexer {
      * @param store
      *     The in-memory store to print.
      */
-    public static void printStore(LinkedHashMap<Long, String> store) {
-        for (Map.Entry<Long,String> entry : store.entrySet()) {
-            System.out.println(entry.getKey() + " => " + entry.getValue());
+    public static void printStore(LinkedHashMap<Long, StoreRecord> store) {
+        for (Map.Entry<Long,StoreRecord> entry : store.entrySet()) {
+            StoreRecord record = entry.getValue();
+            System.out.println(entry.getKey() + " => " + record.getTitle()
+                    + " | " + record.getAuthor() + " | " + record.getTimestamp());
+        }
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * An analyzer worker.
+     *
+     * Pulls documents from the shared queue and inverts them into its own
+     * in-memory index, which is flushed as an independent segment once it
+     * has outgrown the worker's share of the RAM buffer. Since a single
+     * worker polls the queue in order, the documents it sees still come in
+     * increasing id order.
+     *
+     * The worker owns two in-memory indexes: while one is being written by a
+     * flusher the worker inverts into the other.
+     */
+    private class InversionWorker implements Runnable {
+
+        /*
+         * The in-memory index being filled. Confined to the worker thread so
+         * it needs no synchronization.
+         */
+        private InMemoryIndex index;
+
+        /* The in-memory index being flushed, or free to be filled next. */
+        private InMemoryIndex spare;
+
+        /*
+         * Held while the spare index is being flushed. Acquiring it hands the
+         * spare index back to the worker, with all its memory visible.
+         */
+        private final Semaphore spareFree;
+
+        // Stats
+        private long numDocsIndexed;
+        private long numTokensProcessed;
+        private long startTime;
+
+
+        /*
+         * Constructor.
+         */
+        InversionWorker() {
+            this.index = new InMemoryIndex();
+            this.spare = new InMemoryIndex();
+            this.spareFree = new Semaphore(1);
+        }
+
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            try {
+                Document doc;
+                while ( (doc = documents.take()) != POISON ) {
+                    if (doc == COMMIT) {
+                        flush();
+                        awaitFlush();
+                        commitBarrier.await();
+                        continue;
+                    }
+
+                    if (numDocsIndexed == 0)
+                        startTime = System.nanoTime();
+
+                    numTokensProcessed += invertSPIMI(doc, index);
+                    numDocsIndexed++;
+
+                    if (index.ramBytesUsed() >= ramBytesPerBuffer)
+                        flush();
+                }
+
+                flush();
+                awaitFlush();
+            }
+            catch (InterruptedException | BrokenBarrierException e) {
+                // Expected once another worker failed.
+                if (failure == null)
+                    e.printStackTrace();
+                // Preserve interrupt status
+                Thread.currentThread().interrupt();
+            }
+            catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+
+        /*
+         * Hands the worker's in-memory index over to a flusher, to be
+         * persisted to disk as a new segment, and swaps in the spare index.
+         * Blocks while the spare index is still being flushed.
+         */
+        private void flush() throws InterruptedException {
+            if (numDocsIndexed == 0)
+                return;
+
+            long stallStart = System.nanoTime();
+            spareFree.acquire();
+            long stallTime = System.nanoTime() - stallStart;
+
+            InMemoryIndex full = index;
+            index = spare;
+            spare = full;
+
+            flushers.execute(new SegmentFlush(full, batchNum.incrementAndGet(),
+                    Thread.currentThread().getName(), numDocsIndexed, numTokensProcessed,
+                    stallStart - startTime, stallTime, spareFree));
+
+            numDocsIndexed = 0;
+            numTokensProcessed = 0;
+        }
+
+
+        /*
+         * Waits until the index handed over to the flusher is written.
+         */
+        private void awaitFlush() throws InterruptedException {
+            spareFree.acquire();
+            spareFree.release();
+        }
+
+    }
+
+
+    /*
+     * A background flush of a full in-memory index.
+     *
+     * Writes the index as a new segment, clears it for reuse and hands it
+     * back to its worker.
+     */
+    private class SegmentFlush implements Runnable {
+
+        private final InMemoryIndex index;
+        private final Semaphore indexFree;
+
+        // Stats
+        private final int batchId;
+        private final String worker;
+        private final long numDocsIndexed;
+        private final long numTokensProcessed;
+        private final long invertTime;
+        private final long stallTime;
+
+
+        /*
+         * Constructor.
+         */
+        SegmentFlush(InMemoryIndex index, int batchId, String worker,
+                long numDocsIndexed, long numTokensProcessed,
+                long invertTime, long stallTime, Semaphore indexFree) {
+            this.index = index;
+            this.batchId = batchId;
+            this.worker = worker;
+            this.numDocsIndexed = numDocsIndexed;
+            this.numTokensProcessed = numTokensProcessed;
+            this.invertTime = invertTime;
+            this.stallTime = stallTime;
+            this.indexFree = indexFree;
+        }
+
+
+        /* (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            try {
+                long startTime = System.nanoTime();
+                long ramBytesUsed = index.ramBytesUsed();
+
+                TreeMap<String, PostingsList> sorted = index.toSortedMap();
+//                printIndex(sorted);
+
+                // Persist to disk
+                dm.writeIndexSegment(sorted);
+                dm.writeNorms(index.getDocIds(), index.getDocLengths(), index.getNumDocs());
+                index.clear();
+
+                long elapsedTime = System.nanoTime() - startTime;
+                System.out.println("Batch ingestion complete [id: " + batchId
+                        + " | worker: " + worker
+                        + " | flusher: " + Thread.currentThread().getName()
+                        + " | docs: " + numDocsIndexed
+                        + " | tokens: " + numTokensProcessed
+                        + " | ram(MB): " + String.format("%5.2f", ramBytesUsed / (1024.0 * 1024))
+                        + " | invert(ms): " + TimeUnit.MILLISECONDS.convert(invertTime,
+                                TimeUnit.NANOSECONDS)
+                        + " | stall(ms): " + TimeUnit.MILLISECONDS.convert(stallTime,
+                                TimeUnit.NANOSECONDS)
+                        + " | flush(ms): " + TimeUnit.MILLISECONDS.convert(elapsedTime,
+                                TimeUnit.NANOSECONDS)
+                        + "].");
+            }
+            catch (Throwable t) {
+                fail(t);
+            }
+            finally {
+                indexFree.release();
+            }
         }
+
     }
 
 }
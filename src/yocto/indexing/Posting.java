@@ -15,22 +15,32 @@ public class Posting implements Comparable<Posting> {
     /* The document id number associated with this posting. */
     private final long docId;
 
-    /*
-     * The term frequency of the term in the specific document.
-     * TODO Currently not used but good to know where it goes...
-     */
+    /* The term frequency of the term in the specific document. */
     private final long tf;
 
 
     /**
-     * Constructor.
+     * Constructor for a single occurrence of the term.
      *
      * @param docId
      *     The document id number with which this posting will be associated.
      */
     public Posting(long docId) {
+        this(docId, 1);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param docId
+     *     The document id number with which this posting will be associated.
+     * @param tf
+     *     The term frequency of the term in the document.
+     */
+    public Posting(long docId, long tf) {
         this.docId = docId;
-        this.tf = 0;
+        this.tf = tf;
     }
 
 
@@ -48,6 +58,17 @@ public class Posting implements Comparable<Posting> {
     }
 
 
+    /**
+     * Gets the term frequency of the term in the document.
+     *
+     * @return
+     *     The term frequency.
+     */
+    public long getTf() {
+        return tf;
+    }
+
+
     // -- Override
 
 
@@ -59,11 +80,10 @@ public class Posting implements Comparable<Posting> {
         final int prime = 31;
         int result = 1;
 
+        // The document id only, as postings are equal by it.
         result = prime * result
                 + (int) (docId ^ (docId >>> 32));
 
-        result = prime * result
-                + (int) (tf ^ (tf >>> 32));
         return result;
     }
 
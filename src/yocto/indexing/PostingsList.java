@@ -0,0 +1,342 @@
+package yocto.indexing;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable, append-only list of postings backed by primitive arrays.
+ *
+ * Documents are normally appended in increasing id order, in which case the
+ * list is kept sorted for free and appending the current document again
+ * counts one more occurrence of the term in it. Should an id arrive out of
+ * order, the list is sorted (and the occurrences of a document are summed
+ * up) lazily, the next time it is read.
+ *
+ * Costs 12 bytes per posting instead of a boxed {@link Posting} in a tree.
+ *
+ * @author billy
+ */
+public class PostingsList implements Iterable<Posting> {
+
+    /* The default initial capacity; most terms appear in very few documents. */
+    private static final int DEFAULT_CAPACITY = 2;
+
+    /* The size of an empty list, excluding the capacity of its arrays. */
+    private static final int BASE_RAM_BYTES = RamUsage.NUM_BYTES_OBJECT_HEADER
+            + 2 * RamUsage.NUM_BYTES_OBJECT_REF + 8 + 2 * RamUsage.NUM_BYTES_ARRAY_HEADER;
+
+    /* The document ids. */
+    private long[] docIds;
+
+    /* The number of occurrences of the term in each document. */
+    private int[] freqs;
+
+    /* The number of postings. */
+    private int size;
+
+    /* Whether the document ids are known to be sorted and unique. */
+    private boolean sorted;
+
+
+    /**
+     * Constructor.
+     */
+    public PostingsList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *     The initial capacity.
+     */
+    public PostingsList(int capacity) {
+        this.docIds = new long[Math.max(1, capacity)];
+        this.freqs = new int[docIds.length];
+        this.size = 0;
+        this.sorted = true;
+    }
+
+
+    /**
+     * Constructor wrapping an array of document ids, without copying it. The
+     * term occurs once in every document.
+     *
+     * @param docIds
+     *     The document ids, in increasing order and unique.
+     * @param size
+     *     The number of document ids in the array.
+     */
+    public PostingsList(long[] docIds, int size) {
+        this(docIds, ones(docIds.length), size);
+    }
+
+
+    /**
+     * Constructor wrapping arrays of document ids and term frequencies,
+     * without copying them.
+     *
+     * @param docIds
+     *     The document ids, in increasing order and unique.
+     * @param freqs
+     *     The number of occurrences of the term in each document.
+     * @param size
+     *     The number of document ids in the array.
+     */
+    public PostingsList(long[] docIds, int[] freqs, int size) {
+        this.docIds = docIds.length == 0 ? new long[1] : docIds;
+        this.freqs = freqs.length == 0 ? new int[1] : freqs;
+        this.size = size;
+        this.sorted = true;
+    }
+
+
+    /**
+     * Appends an occurrence of the term.
+     *
+     * @param docId
+     *     The document id.
+     */
+    public void add(long docId) {
+        add(docId, 1);
+    }
+
+
+    /**
+     * Appends a number of occurrences of the term.
+     *
+     * @param docId
+     *     The document id.
+     * @param freq
+     *     The number of occurrences in the document.
+     */
+    public void add(long docId, int freq) {
+        if (size > 0 && docId <= docIds[size - 1]) {
+            if (sorted && docId == docIds[size - 1]) {
+                // Already there; one more occurrence.
+                freqs[size - 1] += freq;
+                return;
+            }
+            sorted = false;
+        }
+
+        if (size == docIds.length) {
+            docIds = Arrays.copyOf(docIds, size + (size >> 1) + 1);
+            freqs = Arrays.copyOf(freqs, docIds.length);
+        }
+        docIds[size] = docId;
+        freqs[size++] = freq;
+    }
+
+
+    /**
+     * Gets the number of postings.
+     *
+     * @return
+     *     The number of postings.
+     */
+    public int size() {
+        ensureSorted();
+
+        return size;
+    }
+
+
+    /**
+     * Gets the document id of a posting.
+     *
+     * @param index
+     *     The index of the posting, in increasing document id order.
+     *
+     * @return
+     *     The document id.
+     */
+    public long getDocId(int index) {
+        ensureSorted();
+
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        return docIds[index];
+    }
+
+
+    /**
+     * Gets the term frequency of a posting.
+     *
+     * @param index
+     *     The index of the posting, in increasing document id order.
+     *
+     * @return
+     *     The number of occurrences of the term in the document.
+     */
+    public int getFreq(int index) {
+        ensureSorted();
+
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        return freqs[index];
+    }
+
+
+    /**
+     * Gets the last document id appended.
+     *
+     * @return
+     *     The last document id or {@code -1} if the list is empty.
+     */
+    public long lastDocId() {
+        return size == 0 ? -1 : docIds[size - 1];
+    }
+
+
+    /**
+     * Estimates the heap footprint of the list.
+     *
+     * @return
+     *     The estimated size in bytes.
+     */
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES + 12L * docIds.length;
+    }
+
+
+    /**
+     * Merges two lists into a new one.
+     *
+     * @param one
+     *     The first list.
+     * @param two
+     *     The second list.
+     *
+     * @return
+     *     A list holding the postings of both lists, sorted and unique. The
+     *     frequencies of a document in both are summed up.
+     */
+    public static PostingsList merge(PostingsList one, PostingsList two) {
+        one.ensureSorted();
+        two.ensureSorted();
+
+        PostingsList merged = new PostingsList(one.size + two.size);
+        int i = 0, j = 0;
+        while (i < one.size && j < two.size) {
+            long a = one.docIds[i], b = two.docIds[j];
+            if (a < b) {
+                merged.docIds[merged.size] = a;
+                merged.freqs[merged.size++] = one.freqs[i++];
+            }
+            else if (a > b) {
+                merged.docIds[merged.size] = b;
+                merged.freqs[merged.size++] = two.freqs[j++];
+            }
+            else {
+                merged.docIds[merged.size] = a;
+                merged.freqs[merged.size++] = one.freqs[i++] + two.freqs[j++];
+            }
+        }
+        while (i < one.size) {
+            merged.docIds[merged.size] = one.docIds[i];
+            merged.freqs[merged.size++] = one.freqs[i++];
+        }
+        while (j < two.size) {
+            merged.docIds[merged.size] = two.docIds[j];
+            merged.freqs[merged.size++] = two.freqs[j++];
+        }
+
+        return merged;
+    }
+
+
+    /*
+     * Sorts the postings and sums up the frequencies of duplicates, if
+     * needed.
+     */
+    private void ensureSorted() {
+        if (sorted)
+            return;
+
+        // Out of order ids are rare, so a boxed sort of the positions will do.
+        final long[] ids = docIds;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(ids[a], ids[b]);
+            }
+        });
+
+        long[] sortedIds = new long[docIds.length];
+        int[] sortedFreqs = new int[freqs.length];
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            if (unique > 0 && docIds[from] == sortedIds[unique - 1]) {
+                sortedFreqs[unique - 1] += freqs[from];
+            }
+            else {
+                sortedIds[unique] = docIds[from];
+                sortedFreqs[unique++] = freqs[from];
+            }
+        }
+        docIds = sortedIds;
+        freqs = sortedFreqs;
+        size = unique;
+        sorted = true;
+    }
+
+
+    /*
+     * Creates an array of ones.
+     */
+    private static int[] ones(int length) {
+        int[] ones = new int[length];
+        Arrays.fill(ones, 1);
+
+        return ones;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Iterable#iterator()
+     */
+    @Override
+    public Iterator<Posting> iterator() {
+        ensureSorted();
+
+        return new Iterator<Posting>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Posting next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+
+                Posting posting = new Posting(docIds[next], freqs[next]);
+                next++;
+
+                return posting;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
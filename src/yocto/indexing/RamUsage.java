@@ -0,0 +1,47 @@
+package yocto.indexing;
+
+/**
+ * A utility class for estimating the heap footprint of the indexing buffers.
+ *
+ * The figures assume a 64-bit JVM and err on the high side (no compressed
+ * references, UTF-16 strings), since they are used to keep the buffers from
+ * outgrowing the heap.
+ *
+ * @author billy
+ */
+public final class RamUsage {
+
+    /** The size of an object reference. */
+    public static final int NUM_BYTES_OBJECT_REF = 8;
+
+    /** The size of an object header. */
+    public static final int NUM_BYTES_OBJECT_HEADER = 16;
+
+    /** The size of an array header. */
+    public static final int NUM_BYTES_ARRAY_HEADER = 16;
+
+    /** The size of a {@code String} object, excluding its characters. */
+    public static final int NUM_BYTES_STRING = NUM_BYTES_OBJECT_HEADER + 8 + NUM_BYTES_ARRAY_HEADER;
+
+
+    /**
+     * Constructor.
+     */
+    private RamUsage() {
+    }
+
+
+    /**
+     * Estimates the size of a string.
+     *
+     * @param length
+     *     The number of characters of the string.
+     *
+     * @return
+     *     The estimated size in bytes.
+     */
+    public static long sizeOfString(int length) {
+        return NUM_BYTES_STRING + 2L * length;
+    }
+
+}
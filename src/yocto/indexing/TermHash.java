@@ -0,0 +1,260 @@
+package yocto.indexing;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A hash table of terms that can be probed with character slices.
+ *
+ * Every term added is assigned a dense id number, starting from zero, in
+ * order of insertion. Lookups are done directly on a slice of a character
+ * buffer, so a {@code String} is only created the first time a term is
+ * added.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+public class TermHash {
+
+    /* The initial number of hash slots. Must be a power of two. */
+    private static final int INITIAL_SLOTS = 1024;
+
+    /* The marker of an empty slot. */
+    private static final int EMPTY = -1;
+
+    /* The hash slots holding term ids; open addressing, linear probing. */
+    private int[] slots;
+
+    /* The hash code of each term, by term id. */
+    private int[] hashes;
+
+    /* The terms, by term id. */
+    private String[] terms;
+
+    /* The number of terms. */
+    private int size;
+
+    /* The estimated size of the terms themselves, in bytes. */
+    private long termBytes;
+
+
+    /**
+     * Constructor.
+     */
+    public TermHash() {
+        this.slots = new int[INITIAL_SLOTS];
+        Arrays.fill(slots, EMPTY);
+        this.hashes = new int[INITIAL_SLOTS / 2];
+        this.terms = new String[INITIAL_SLOTS / 2];
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param terms
+     *     The terms to initially add.
+     */
+    public TermHash(Collection<String> terms) {
+        this();
+        for (String term : terms) {
+            char[] chars = term.toCharArray();
+            add(chars, 0, chars.length);
+        }
+    }
+
+
+    /**
+     * Adds a term, unless already present.
+     *
+     * @param buffer
+     *     The buffer holding the term.
+     * @param offset
+     *     The offset of the term in the buffer.
+     * @param length
+     *     The length of the term.
+     *
+     * @return
+     *     The id of the term if it was just added, or {@code -(id + 1)} if
+     *     the term was already present.
+     */
+    public int add(char[] buffer, int offset, int length) {
+        int hash = hash(buffer, offset, length);
+        int slot = findSlot(buffer, offset, length, hash);
+
+        if (slots[slot] != EMPTY)
+            return -(slots[slot] + 1);
+
+        int id = size++;
+        if (id == terms.length) {
+            terms = Arrays.copyOf(terms, terms.length * 2);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        terms[id] = new String(buffer, offset, length);
+        termBytes += RamUsage.sizeOfString(length);
+        hashes[id] = hash;
+        slots[slot] = id;
+
+        if (size * 2 > slots.length)
+            rehash();
+
+        return id;
+    }
+
+
+    /**
+     * Finds a term.
+     *
+     * @param buffer
+     *     The buffer holding the term.
+     * @param offset
+     *     The offset of the term in the buffer.
+     * @param length
+     *     The length of the term.
+     *
+     * @return
+     *     The id of the term or {@code -1} if not present.
+     */
+    public int find(char[] buffer, int offset, int length) {
+        int slot = findSlot(buffer, offset, length, hash(buffer, offset, length));
+
+        return slots[slot];
+    }
+
+
+    /**
+     * Checks whether a term is present.
+     *
+     * @param buffer
+     *     The buffer holding the term.
+     * @param offset
+     *     The offset of the term in the buffer.
+     * @param length
+     *     The length of the term.
+     *
+     * @return
+     *     {@code true} if the term is present.
+     */
+    public boolean contains(char[] buffer, int offset, int length) {
+        return find(buffer, offset, length) != EMPTY;
+    }
+
+
+    /**
+     * Gets a term.
+     *
+     * @param id
+     *     The term id.
+     *
+     * @return
+     *     The term.
+     */
+    public String getTerm(int id) {
+        return terms[id];
+    }
+
+
+    /**
+     * Gets the number of terms.
+     *
+     * @return
+     *     The number of terms.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Estimates the heap footprint of the dictionary.
+     *
+     * @return
+     *     The estimated size in bytes.
+     */
+    public long ramBytesUsed() {
+        return 3 * RamUsage.NUM_BYTES_ARRAY_HEADER
+                + 4L * slots.length
+                + 4L * hashes.length
+                + (long) RamUsage.NUM_BYTES_OBJECT_REF * terms.length
+                + termBytes;
+    }
+
+
+    /**
+     * Removes all terms.
+     */
+    public void clear() {
+        Arrays.fill(slots, EMPTY);
+        Arrays.fill(terms, 0, size, null);
+        size = 0;
+        termBytes = 0;
+    }
+
+
+    /*
+     * Finds the slot that holds the given term or the empty slot where the
+     * term should go.
+     */
+    private int findSlot(char[] buffer, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+
+        int id;
+        while ((id = slots[slot]) != EMPTY) {
+            if (hashes[id] == hash && equals(terms[id], buffer, offset, length))
+                break;
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+
+    /*
+     * Doubles the number of slots.
+     */
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (slots[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            slots[slot] = id;
+        }
+    }
+
+
+    /*
+     * Hashes a slice of characters.
+     */
+    private static int hash(char[] buffer, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + buffer[i];
+        }
+
+        // Spread the higher bits since the table is indexed by the lower ones.
+        return h ^ (h >>> 16);
+    }
+
+
+    /*
+     * Compares a term with a slice of characters.
+     */
+    private static boolean equals(String term, char[] buffer, int offset, int length) {
+        if (term.length() != length)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != buffer[offset + i])
+                return false;
+        }
+
+        return true;
+    }
+
+}
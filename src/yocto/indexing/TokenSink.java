@@ -0,0 +1,26 @@
+package yocto.indexing;
+
+/**
+ * Interface of a consumer of the tokens produced by an analyzer.
+ *
+ * Tokens are handed over as slices of a character buffer owned by the
+ * analyzer. The buffer is reused, so a sink that needs to keep a token must
+ * copy it before returning.
+ *
+ * @author billy
+ */
+public interface TokenSink {
+
+    /**
+     * Consumes a token.
+     *
+     * @param buffer
+     *     The buffer holding the token.
+     * @param offset
+     *     The offset of the token in the buffer.
+     * @param length
+     *     The length of the token.
+     */
+    public abstract void token(char[] buffer, int offset, int length);
+
+}
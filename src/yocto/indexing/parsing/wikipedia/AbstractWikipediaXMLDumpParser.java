@@ -65,6 +65,10 @@ public abstract class AbstractWikipediaXMLDumpParser
     public static final String TAG_PAGE_REVISION_CONTRIBUTOR_ID = "id";
 
 
+    /** Page revision contributor IP address (anonymous edits) element tag */
+    public static final String TAG_PAGE_REVISION_CONTRIBUTOR_IP = "ip";
+
+
     /** Page revision comment element tag */
     public static final String TAG_PAGE_REVISION_COMMENT = "comment";
 
@@ -2,6 +2,11 @@ package yocto.indexing.parsing.wikipedia;
 
 import static yocto.indexing.parsing.wikipedia.AbstractWikipediaXMLDumpParser.*;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -9,6 +14,9 @@ import org.xml.sax.helpers.DefaultHandler;
 import yocto.indexing.Document;
 import yocto.indexing.Indexer;
 import yocto.storage.DiskManager;
+import yocto.storage.PostingsCodec;
+import yocto.storage.StoreRecord;
+import yocto.storage.TieredMergePolicy;
 
 /**
  * The hanlder that operates on the Wikipedia XML dump file.
@@ -22,8 +30,46 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
     /* The directory to store the index. */
     private static final String INDEX_DIR = "./index";
 
-    /* The document indexing batch size. */
-    private static final int INDEXING_BATCH_SIZE = 20000;
+    /*
+     * The amount of memory, in megabytes, the indexer buffers documents in
+     * before flushing them to disk. Can be set with the
+     * {@code yocto.ramBufferMB} system property.
+     */
+    private static final double INDEXING_RAM_BUFFER_MB = Double.parseDouble(
+            System.getProperty("yocto.ramBufferMB", "256"));
+
+    /*
+     * The number of analyzer threads used by the indexer. Can be set with the
+     * {@code yocto.indexingThreads} system property; defaults to the number
+     * of available processors.
+     */
+    private static final int INDEXING_THREADS = Integer.getInteger(
+            "yocto.indexingThreads", Runtime.getRuntime().availableProcessors());
+
+    /*
+     * The name of the codec the postings are written with. Can be set with
+     * the {@code yocto.postingsCodec} system property; either {@code vbyte}
+     * or {@code block}.
+     */
+    private static final String INDEXING_POSTINGS_CODEC = System.getProperty(
+            "yocto.postingsCodec", PostingsCodec.VBYTE.getName());
+
+    /*
+     * The number of segments merged at once. Can be set with the
+     * {@code yocto.mergeFactor} system property.
+     */
+    private static final int INDEXING_MERGE_FACTOR = Integer.getInteger(
+            "yocto.mergeFactor", DiskManager.DEFAULT_MERGE_FACTOR);
+
+    /*
+     * The number of merges that may run at the same time. Can be set with
+     * the {@code yocto.mergeThreads} system property.
+     */
+    private static final int INDEXING_MERGE_THREADS = Integer.getInteger(
+            "yocto.mergeThreads", DiskManager.DEFAULT_MERGE_THREADS);
+
+    /* The format of the revision timestamps, in UTC. */
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 
     /* The indexer used during parsing. */
     private Indexer indexer;
@@ -40,9 +86,18 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
     /* A builder for a page id. */
     private StringBuilder pageId;
 
+    /* A builder for a page revision timestamp. */
+    private StringBuilder pageRevisionTimestamp;
+
     /* A builder for a page revision contributor username. */
     private StringBuilder pageRevisionContributorUsername;
 
+    /* A builder for a page revision contributor IP address. */
+    private StringBuilder pageRevisionContributorIp;
+
+    /* Parses the revision timestamps; not thread-safe, as handlers are not. */
+    private DateFormat timestampFormat;
+
     /* A builder for a page revision text. */
     private StringBuilder pageRevisionText;
 
@@ -65,9 +120,15 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
                 pageId.append(ch, start, length);
             }
         }
+        else if (tag.equalsIgnoreCase(TAG_PAGE_REVISION_TIMESTAMP)) {
+            pageRevisionTimestamp.append(ch, start, length);
+        }
         else if (tag.equalsIgnoreCase(TAG_PAGE_REVISION_CONTRIBUTOR_USERNAME)) {
             pageRevisionContributorUsername.append(ch, start, length);
         }
+        else if (tag.equalsIgnoreCase(TAG_PAGE_REVISION_CONTRIBUTOR_IP)) {
+            pageRevisionContributorIp.append(ch, start, length);
+        }
         else if (tag.equalsIgnoreCase(TAG_PAGE_REVISION_TEXT)) {
             pageRevisionText.append(ch, start, length);
         }
@@ -81,14 +142,25 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
     public void startDocument() throws SAXException {
         super.startDocument();
 
-        indexer = new Indexer(new DiskManager(INDEX_DIR), INDEXING_BATCH_SIZE);
+        PostingsCodec codec = PostingsCodec.forName(INDEXING_POSTINGS_CODEC);
+        if (codec == null)
+            throw new SAXException("Unknown postings codec: " + INDEXING_POSTINGS_CODEC + ".");
+
+        DiskManager dm = new DiskManager(INDEX_DIR, codec,
+                new TieredMergePolicy(INDEXING_MERGE_FACTOR), INDEXING_MERGE_THREADS);
+        indexer = new Indexer(dm, INDEXING_RAM_BUFFER_MB, INDEXING_THREADS);
 
         // Created once, used many times...
         // Do not forget to delete( ) at the end of each page element!
         pageTitle = new StringBuilder();
         pageId = new StringBuilder();
+        pageRevisionTimestamp = new StringBuilder();
         pageRevisionContributorUsername = new StringBuilder();
+        pageRevisionContributorIp = new StringBuilder();
         pageRevisionText = new StringBuilder();
+
+        timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
     }
 
 
@@ -124,12 +196,18 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
         super.endElement(uri, localName, qName);
 
         if (qName.equalsIgnoreCase(TAG_PAGE)) {
+            // Anonymous edits have an IP address rather than a username.
+            String author = pageRevisionContributorUsername.toString();
+            if (author.trim().isEmpty())
+                author = pageRevisionContributorIp.toString();
+
             // Flush the parsed content to the wiki page object...
             page = new Document(
                     Long.parseLong(pageId.toString()),
                     pageTitle.toString(),
                     pageRevisionText.toString(),
-                    pageRevisionContributorUsername.toString());
+                    author,
+                    parseTimestamp(pageRevisionTimestamp.toString()));
 
             indexer.addDocument(page);
 //            System.out.println("JVM memory (free / total): " + Runtime.getRuntime().freeMemory() + " / "
@@ -138,12 +216,36 @@ public class SAXWikipediaXMLDumpHandler extends DefaultHandler {
             // ...and clear the string builders for reuse.
             pageTitle.delete(0, pageTitle.length());
             pageId.delete(0, pageId.length());
+            pageRevisionTimestamp.delete(0, pageRevisionTimestamp.length());
             pageRevisionContributorUsername.delete(0,
                     pageRevisionContributorUsername.length());
+            pageRevisionContributorIp.delete(0, pageRevisionContributorIp.length());
             pageRevisionText.delete(0, pageRevisionText.length());
 
 //            System.out.println(page.peek() + "\n\n");
         }
     }
 
+
+    /*
+     * Parses a revision timestamp.
+     *
+     * @return
+     *     The time, in milliseconds since the epoch, or
+     *     {@link StoreRecord#NO_TIMESTAMP} if missing or malformed.
+     */
+    private long parseTimestamp(String timestamp) {
+        timestamp = timestamp.trim();
+        if (timestamp.isEmpty())
+            return StoreRecord.NO_TIMESTAMP;
+
+        try {
+            return timestampFormat.parse(timestamp).getTime();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+
+        return StoreRecord.NO_TIMESTAMP;
+    }
+
 }
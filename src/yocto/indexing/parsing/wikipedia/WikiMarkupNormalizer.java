@@ -0,0 +1,474 @@
+package yocto.indexing.parsing.wikipedia;
+
+/**
+ * A hand-written normalizer for Wikipedia markup.
+ *
+ * Produces exactly the same output as the chain of regular expressions it
+ * replaced (see {@link WikiPageAnalyzer#normalizePlainPageRevisionText(String)})
+ * without the regular expression machinery and without allocating a new
+ * {@code String} per rule. Each rule is a single linear scan that copies the
+ * text from one reusable {@code char[]} buffer to the other. Rules that only
+ * substitute characters and cannot interact with each other are fused into a
+ * single scan, and rules whose trigger character does not appear in the text
+ * at all are skipped.
+ *
+ * The rules still have to be applied in the original order, since the
+ * removal of one construct may expose another (e.g. a link hidden behind a
+ * comment).
+ *
+ * Not thread-safe; every thread should use its own instance.
+ *
+ * @author billy
+ */
+public class WikiMarkupNormalizer {
+
+    /* The initial capacity of the buffers. */
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    // Delimiters of the constructs removed.
+    private static final char[] ESC_COMMENT_OPEN = "&lt;!--".toCharArray();
+    private static final char[] ESC_COMMENT_CLOSE = "--&gt;".toCharArray();
+    private static final char[] COMMENT_OPEN = "<!--".toCharArray();
+    private static final char[] COMMENT_CLOSE = "-->".toCharArray();
+    private static final char[] MATH_OPEN = "<math".toCharArray();
+    private static final char[] MATH_CLOSE = "</math>".toCharArray();
+    private static final char[] REF_OPEN = "<ref".toCharArray();
+    private static final char[] REF_CLOSE = "</ref>".toCharArray();
+    private static final char[] SUP_OPEN = "<sup".toCharArray();
+    private static final char[] SUP_CLOSE = "</sup>".toCharArray();
+    private static final char[] EMPTY_TAG_CLOSE = "/>".toCharArray();
+    private static final char[] BLOCKQUOTE_OPEN = "<blockquote>".toCharArray();
+    private static final char[] BLOCKQUOTE_CLOSE = "</blockquote>".toCharArray();
+    private static final char[] NBSP = "&nbsp;".toCharArray();
+    private static final char[] CATEGORY_OPEN = "[[category:".toCharArray();
+    private static final char[] LINK_OPEN = "[[".toCharArray();
+    private static final char[] LINK_CLOSE = "]]".toCharArray();
+    private static final char[] REDIRECT_OPEN = "{{redirect|".toCharArray();
+    private static final char[] CITE_OPEN = "{{cite".toCharArray();
+    private static final char[] TEMPLATE_OPEN = "{{".toCharArray();
+    private static final char[] TEMPLATE_CLOSE = "}}".toCharArray();
+    private static final char[] TABLE_OPEN = "{|".toCharArray();
+    private static final char[] BRACE_OPEN = "{".toCharArray();
+    private static final char[] BRACE_CLOSE = "}".toCharArray();
+    private static final char[] BRACKET_OPEN = "[".toCharArray();
+    private static final char[] BRACKET_CLOSE = "]".toCharArray();
+    private static final char[] GT = "&gt;".toCharArray();
+    private static final char[] LT = "&lt;".toCharArray();
+
+    /* The buffer holding the text before the rule at hand. */
+    private char[] src;
+
+    /* The buffer holding the text after the rule at hand. */
+    private char[] dst;
+
+    /* The length of the text in {@code src}. */
+    private int length;
+
+
+    /**
+     * Constructor.
+     */
+    public WikiMarkupNormalizer() {
+        this.src = new char[INITIAL_CAPACITY];
+        this.dst = new char[INITIAL_CAPACITY];
+    }
+
+
+    /**
+     * Normalizes the given text. The result is available through
+     * {@link #buffer()} and {@link #length()} until the next call.
+     *
+     * @param rawPageRevisionText
+     *     The string to be normalized.
+     *
+     * @return
+     *     The length of the normalized text.
+     */
+    public int normalize(String rawPageRevisionText) {
+        load(rawPageRevisionText);
+
+        // Note which trigger characters are present so that rules which
+        // cannot match are skipped. Rules only ever remove characters or
+        // replace them with spaces, so the flags stay valid throughout.
+        boolean amp = false, lt = false, sq = false, cb = false, eq = false,
+                apos = false, digit = false, under = false;
+        for (int i = 0; i < length; i++) {
+            switch (src[i]) {
+            case '&': amp = true; break;
+            case '<': lt = true; break;
+            case '[': sq = true; break;
+            case '{': cb = true; break;
+            case '=': eq = true; break;
+            case '\'': apos = true; break;
+            case '_': under = true; break;
+            default:
+                if (src[i] >= '0' && src[i] <= '9')
+                    digit = true;
+            }
+        }
+
+        if (amp) {
+            removeDelimited(ESC_COMMENT_OPEN, ESC_COMMENT_CLOSE);
+        }
+        if (lt) {
+            removeDelimited(COMMENT_OPEN, COMMENT_CLOSE);
+            removeTag(MATH_OPEN, MATH_CLOSE);
+            removeTag(REF_OPEN, REF_CLOSE);
+            removeTag(SUP_OPEN, SUP_CLOSE);
+            unwrap(BLOCKQUOTE_OPEN, BLOCKQUOTE_CLOSE);
+        }
+        if (amp || eq) {
+            replaceNbspAndEquals();
+        }
+        if (sq) {
+            unwrap(CATEGORY_OPEN, LINK_CLOSE);
+        }
+        if (cb) {
+            unwrap(REDIRECT_OPEN, TEMPLATE_CLOSE);
+            removeDelimited(CITE_OPEN, TEMPLATE_CLOSE);
+            removeDelimited(TABLE_OPEN, BRACE_CLOSE);
+        }
+        if (apos) {
+            replaceRuns('\'');
+        }
+        if (sq) {
+            unwrap(LINK_OPEN, LINK_CLOSE);
+        }
+        if (cb) {
+            removeDelimited(TEMPLATE_OPEN, TEMPLATE_CLOSE);
+            // Once this has run, no remaining '{' is followed by a '}' so a
+            // second pass for left-over templates would never match.
+            removeDelimited(BRACE_OPEN, BRACE_CLOSE);
+        }
+        if (sq) {
+            removeDelimited(BRACKET_OPEN, BRACKET_CLOSE);
+        }
+        if (digit || amp || under) {
+            replaceDigitsEntitiesAndUnderscores();
+        }
+
+        return length;
+    }
+
+
+    /**
+     * Normalizes words typed rather than marked up, such as those of a
+     * query, the way the words of a text are: lower cased, with runs of
+     * digits and of underscores replaced with a single space and
+     * {@code &gt;} and {@code &lt;} unescaped. The markup rules are not
+     * applied. The result is available through {@link #buffer()} and
+     * {@link #length()} until the next call.
+     *
+     * @param words
+     *     The words to be normalized.
+     *
+     * @return
+     *     The length of the normalized words.
+     */
+    public int normalizeWords(String words) {
+        load(words);
+        replaceDigitsEntitiesAndUnderscores();
+
+        return length;
+    }
+
+
+    /**
+     * Normalizes the given text into a new string.
+     *
+     * @param rawPageRevisionText
+     *     The string to be normalized.
+     *
+     * @return
+     *     A normalized version of the given string.
+     */
+    public String normalizeToString(String rawPageRevisionText) {
+        normalize(rawPageRevisionText);
+
+        return new String(src, 0, length);
+    }
+
+
+    /**
+     * Gets the buffer holding the outcome of the last normalization.
+     *
+     * @return
+     *     The buffer. Only the first {@link #length()} characters are valid.
+     */
+    public char[] buffer() {
+        return src;
+    }
+
+
+    /**
+     * Gets the length of the outcome of the last normalization.
+     *
+     * @return
+     *     The length.
+     */
+    public int length() {
+        return length;
+    }
+
+
+    // -- Rules
+
+
+    /*
+     * Replaces every {@code open.*?close} with a space.
+     */
+    private void removeDelimited(char[] open, char[] close) {
+        int i = 0, o = 0;
+
+        while (i < length) {
+            int start = indexOf(src, i, length, open);
+            if (start < 0)
+                break;
+            int end = indexOf(src, start + open.length, length, close);
+            if (end < 0)
+                // No later opening can be closed either.
+                break;
+
+            System.arraycopy(src, i, dst, o, start - i);
+            o += start - i;
+            dst[o++] = ' ';
+            i = end + close.length;
+        }
+
+        finish(i, o);
+    }
+
+
+    /*
+     * Replaces every {@code open.*?close} with its body.
+     */
+    private void unwrap(char[] open, char[] close) {
+        int i = 0, o = 0;
+
+        while (i < length) {
+            int start = indexOf(src, i, length, open);
+            if (start < 0)
+                break;
+            int end = indexOf(src, start + open.length, length, close);
+            if (end < 0)
+                break;
+
+            System.arraycopy(src, i, dst, o, start - i);
+            o += start - i;
+            int bodyStart = start + open.length;
+            System.arraycopy(src, bodyStart, dst, o, end - bodyStart);
+            o += end - bodyStart;
+            i = end + close.length;
+        }
+
+        finish(i, o);
+    }
+
+
+    /*
+     * Replaces every {@code open[> ].*?(close|/>)} with a space.
+     */
+    private void removeTag(char[] open, char[] close) {
+        int i = 0, o = 0, from = 0;
+
+        while (from < length) {
+            int start = indexOf(src, from, length, open);
+            if (start < 0)
+                break;
+            int afterOpen = start + open.length;
+            if (afterOpen >= length)
+                break;
+            if (src[afterOpen] != '>' && src[afterOpen] != ' ') {
+                from = start + 1;
+                continue;
+            }
+
+            // Find the earliest of the two possible endings.
+            int end = -1, endLength = 0;
+            for (int j = afterOpen + 1; j < length; j++) {
+                if (src[j] == '<' && regionMatches(src, j, length, close)) {
+                    end = j;
+                    endLength = close.length;
+                    break;
+                }
+                if (src[j] == '/' && j + 1 < length && src[j + 1] == '>') {
+                    end = j;
+                    endLength = EMPTY_TAG_CLOSE.length;
+                    break;
+                }
+            }
+            if (end < 0)
+                break;
+
+            System.arraycopy(src, i, dst, o, start - i);
+            o += start - i;
+            dst[o++] = ' ';
+            i = from = end + endLength;
+        }
+
+        finish(i, o);
+    }
+
+
+    /*
+     * Replaces every run of the given character with a single space.
+     */
+    private void replaceRuns(char c) {
+        int i = 0, o = 0;
+
+        while (i < length) {
+            if (src[i] == c) {
+                dst[o++] = ' ';
+                while (i < length && src[i] == c)
+                    i++;
+            }
+            else {
+                dst[o++] = src[i++];
+            }
+        }
+
+        swap(o);
+    }
+
+
+    /*
+     * Replaces {@code &nbsp;} and runs of {@code =} with a single space.
+     */
+    private void replaceNbspAndEquals() {
+        int i = 0, o = 0;
+
+        while (i < length) {
+            char c = src[i];
+            if (c == '=') {
+                dst[o++] = ' ';
+                while (i < length && src[i] == '=')
+                    i++;
+            }
+            else if (c == '&' && regionMatches(src, i, length, NBSP)) {
+                dst[o++] = ' ';
+                i += NBSP.length;
+            }
+            else {
+                dst[o++] = src[i++];
+            }
+        }
+
+        swap(o);
+    }
+
+
+    /*
+     * Replaces runs of digits and runs of underscores with a single space
+     * and unescapes {@code &gt;} and {@code &lt;}.
+     */
+    private void replaceDigitsEntitiesAndUnderscores() {
+        int i = 0, o = 0;
+
+        while (i < length) {
+            char c = src[i];
+            if (c >= '0' && c <= '9') {
+                dst[o++] = ' ';
+                while (i < length && src[i] >= '0' && src[i] <= '9')
+                    i++;
+            }
+            else if (c == '_') {
+                dst[o++] = ' ';
+                while (i < length && src[i] == '_')
+                    i++;
+            }
+            else if (c == '&' && regionMatches(src, i, length, GT)) {
+                dst[o++] = '>';
+                i += GT.length;
+            }
+            else if (c == '&' && regionMatches(src, i, length, LT)) {
+                dst[o++] = '<';
+                i += LT.length;
+            }
+            else {
+                dst[o++] = src[i++];
+            }
+        }
+
+        swap(o);
+    }
+
+
+    // -- Helpers
+
+
+    /*
+     * Copies the lower cased text to the source buffer, growing the buffers
+     * if needed.
+     */
+    private void load(String text) {
+        String lower = text.toLowerCase();
+
+        length = lower.length();
+        if (src.length < length) {
+            src = new char[Math.max(length, src.length * 2)];
+            dst = new char[src.length];
+        }
+        lower.getChars(0, length, src, 0);
+    }
+
+
+    /*
+     * Copies the tail of the source buffer starting at {@code i} to the
+     * destination buffer at {@code o} and swaps the buffers.
+     */
+    private void finish(int i, int o) {
+        if (i == 0) {
+            // Nothing matched; keep the source buffer as it is.
+            return;
+        }
+        if (i < length) {
+            System.arraycopy(src, i, dst, o, length - i);
+            o += length - i;
+        }
+        swap(o);
+    }
+
+
+    /*
+     * Swaps the buffers after a rule has been applied.
+     */
+    private void swap(int newLength) {
+        char[] tmp = src;
+        src = dst;
+        dst = tmp;
+        length = newLength;
+    }
+
+
+    /*
+     * Finds the first occurrence of the pattern in {@code buf[from, to)}.
+     */
+    private static int indexOf(char[] buf, int from, int to, char[] pattern) {
+        char first = pattern[0];
+        int max = to - pattern.length;
+
+        for (int i = from; i <= max; i++) {
+            if (buf[i] == first && regionMatches(buf, i, to, pattern))
+                return i;
+        }
+
+        return -1;
+    }
+
+
+    /*
+     * Checks whether {@code buf[at, to)} starts with the pattern.
+     */
+    private static boolean regionMatches(char[] buf, int at, int to, char[] pattern) {
+        if (at + pattern.length > to)
+            return false;
+
+        for (int k = 0; k < pattern.length; k++) {
+            if (buf[at + k] != pattern[k])
+                return false;
+        }
+
+        return true;
+    }
+
+}
@@ -3,6 +3,9 @@ package yocto.indexing.parsing.wikipedia;
 import java.util.HashSet;
 import java.util.regex.Pattern;
 
+import yocto.indexing.TermHash;
+import yocto.indexing.TokenSink;
+
 /**
  * A utility class offering trivial text analysis.
  *
@@ -13,34 +16,34 @@ public class WikiPageAnalyzer {
     public static final Pattern TOKENIZR = Pattern.compile("[\\W]+", Pattern.UNICODE_CHARACTER_CLASS);
 //    public static final Pattern TOKENIZR = Pattern.compile("[\\P{L}]+");
 
-    private static final Pattern WIKI_P0 = Pattern.compile("&lt;!--.*?--&gt;", Pattern.DOTALL);
-    private static final Pattern WIKI_P1 = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
-    private static final Pattern WIKI_P2 = Pattern.compile("<math([> ].*?)(</math>|/>)", Pattern.DOTALL);
-    private static final Pattern WIKI_P3 = Pattern.compile("(?s)<ref([> ].*?)(</ref>|/>)", Pattern.DOTALL);
-    private static final Pattern WIKI_P4 = Pattern.compile("(?s)<sup([> ].*?)(</sup>|/>)", Pattern.DOTALL);
-    private static final Pattern WIKI_P5 = Pattern.compile("(?s)<blockquote>(.*?)</blockquote>", Pattern.DOTALL);
-    private static final Pattern WIKI_P6 = Pattern.compile("&nbsp;", Pattern.DOTALL);
-
-
-    private static final Pattern WIKI_P7 = Pattern.compile("[=]+", Pattern.DOTALL);
-//    private static final Pattern WIKI_P8 = Pattern.compile("[\\s]*\\*(.*?)", Pattern.DOTALL);
-//    private static final Pattern WIKI_P9 = Pattern.compile("\\[\\[[iI]mage(.*?)(\\|.*?)*\\|(.*?)\\]\\]", Pattern.DOTALL);
-//    private static final Pattern WIKI_P10 = Pattern.compile("\\[\\[[fF]ile(.*?)(\\|.*?)*\\|(.*?)\\]\\]", Pattern.DOTALL);
-    private static final Pattern WIKI_P11 = Pattern.compile("\\[\\[category:(.*?)\\]\\]", Pattern.DOTALL);
-    private static final Pattern WIKI_P12 = Pattern.compile("(?s)\\{\\{redirect\\|(.*?)\\}\\}", Pattern.DOTALL);
-    private static final Pattern WIKI_P13 = Pattern.compile("(?s)\\{\\{cite(.*?)\\}\\}", Pattern.DOTALL);
-    private static final Pattern WIKI_P14 = Pattern.compile("(?s)\\{\\|(.*?)\\}", Pattern.DOTALL);
-    private static final Pattern WIKI_P15 = Pattern.compile("\\'+", Pattern.DOTALL);
-    private static final Pattern WIKI_P16 = Pattern.compile("\\[\\[(.*?)\\]\\]", Pattern.DOTALL);
-    private static final Pattern WIKI_P17 = Pattern.compile("\\{\\{(.*?)\\}\\}", Pattern.DOTALL);
-    private static final Pattern WIKI_P18 = Pattern.compile("\\{(.*?)\\}", Pattern.DOTALL);
-    private static final Pattern WIKI_P19 = Pattern.compile("\\[(.*?)\\]", Pattern.DOTALL);
-    private static final Pattern WIKI_P20 = Pattern.compile("(?s)\\{\\{(.*?)\\}\\}", Pattern.DOTALL);
-
-    private static final Pattern WIKI_P21 = Pattern.compile("\\d+", Pattern.DOTALL);
-    private static final Pattern WIKI_P22 = Pattern.compile("&gt;", Pattern.DOTALL);
-    private static final Pattern WIKI_P23 = Pattern.compile("&lt;", Pattern.DOTALL);
-    private static final Pattern WIKI_P24 = Pattern.compile("_+", Pattern.DOTALL);
+    /* The word characters of the ASCII range, as matched by {@code \w}. */
+    private static final boolean[] ASCII_WORD = new boolean[128];
+    static {
+        for (int c = 0; c < 128; c++) {
+            ASCII_WORD[c] = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '_';
+        }
+    }
+
+    /* The Unicode general categories, other than letters, of word characters. */
+    private static final int WORD_TYPES =
+            (1 << Character.NON_SPACING_MARK)
+            | (1 << Character.ENCLOSING_MARK)
+            | (1 << Character.COMBINING_SPACING_MARK)
+            | (1 << Character.DECIMAL_DIGIT_NUMBER)
+            | (1 << Character.CONNECTOR_PUNCTUATION);
+
+    /*
+     * The markup normalizers. Each has its own reusable buffers, so every
+     * thread gets its own instance.
+     */
+    private static final ThreadLocal<WikiMarkupNormalizer> normalizers =
+            new ThreadLocal<WikiMarkupNormalizer>() {
+        @Override
+        protected WikiMarkupNormalizer initialValue() {
+            return new WikiMarkupNormalizer();
+        }
+    };
 
 
     /**
@@ -622,6 +625,12 @@ public class WikiPageAnalyzer {
     }};
 
 
+    /**
+     * Stopwords, for look-ups on slices of a buffer.
+     */
+    private static final TermHash stopwordTerms = new TermHash(stopwords);
+
+
     /**
      * Constructor.
      */
@@ -640,6 +649,19 @@ public class WikiPageAnalyzer {
     }
 
 
+    /**
+     * Gets the stopwords loaded, for look-ups on slices of a buffer.
+     *
+     * The returned dictionary is shared and must only be read.
+     *
+     * @return
+     *     A dictionary of stopwords.
+     */
+    public static TermHash getStopwordTerms() {
+        return stopwordTerms;
+    }
+
+
     /**
      * Tokenizes a string.
      *
@@ -656,28 +678,113 @@ public class WikiPageAnalyzer {
     public static HashSet<String> tokenizePageRevisionText(
             String normalizedPageRevisionText,
             HashSet<String> stopwords) {
-        HashSet<String> bagOfWords = new HashSet<String>();
-
-        // Simple tokenization on non-alphanumeric Unicode characters.
-        String[] tokens = TOKENIZR.split(normalizedPageRevisionText);
+        final HashSet<String> bagOfWords = new HashSet<String>();
+        final HashSet<String> ignored = stopwords;
 
-        for (String token : tokens) {
-            if (!token.equals("")) {
-                if (stopwords != null) {
-                    if (!stopwords.contains(token)) {
-                        bagOfWords.add(token);
-                    }
-                }
-                else {
+        char[] text = normalizedPageRevisionText.toCharArray();
+        tokenizePageRevisionText(text, 0, text.length, null, new TokenSink() {
+            @Override
+            public void token(char[] buffer, int offset, int length) {
+                String token = new String(buffer, offset, length);
+                if (ignored == null || !ignored.contains(token)) {
                     bagOfWords.add(token);
                 }
             }
-        }
+        });
 
         return bagOfWords;
     }
 
 
+    /**
+     * Tokenizes a slice of a buffer without creating any objects.
+     *
+     * Splits on non-alphanumeric Unicode characters, exactly like
+     * {@link #TOKENIZR} does, and hands every token that is not a stopword
+     * over to the sink as a slice of the given buffer.
+     *
+     * @param buffer
+     *     The buffer holding the text to be tokenized. It is recommended that
+     *     this text is first normalized before doing this for better results.
+     * @param offset
+     *     The offset of the text in the buffer.
+     * @param length
+     *     The length of the text.
+     * @param stopwords
+     *     A dictionary of stopwords to be ignored. Pass {@code null} in order
+     *     not to ignore any word.
+     * @param sink
+     *     The consumer of the tokens.
+     *
+     * @return
+     *     The number of tokens handed over to the sink.
+     */
+    public static int tokenizePageRevisionText(
+            char[] buffer, int offset, int length,
+            TermHash stopwords,
+            TokenSink sink) {
+        int numTokens = 0;
+        int end = offset + length;
+        int start = -1;
+
+        for (int i = offset; i < end; ) {
+            int c = buffer[i];
+            int width = 1;
+            boolean word;
+
+            if (c < 128) {
+                word = ASCII_WORD[c];
+            }
+            else {
+                c = Character.codePointAt(buffer, i, end);
+                width = Character.charCount(c);
+                word = isWordCodePoint(c);
+            }
+
+            if (word) {
+                if (start < 0)
+                    start = i;
+            }
+            else if (start >= 0) {
+                numTokens += emit(buffer, start, i - start, stopwords, sink);
+                start = -1;
+            }
+
+            i += width;
+        }
+
+        if (start >= 0)
+            numTokens += emit(buffer, start, end - start, stopwords, sink);
+
+        return numTokens;
+    }
+
+
+    /*
+     * Hands a token over to the sink unless it is a stopword.
+     */
+    private static int emit(char[] buffer, int offset, int length,
+            TermHash stopwords, TokenSink sink) {
+        if (stopwords != null && stopwords.contains(buffer, offset, length))
+            return 0;
+
+        sink.token(buffer, offset, length);
+
+        return 1;
+    }
+
+
+    /*
+     * Checks whether a code point is a word character, as matched by
+     * {@code \w} with {@link Pattern#UNICODE_CHARACTER_CLASS}.
+     */
+    private static boolean isWordCodePoint(int c) {
+        return Character.isAlphabetic(c)
+                || ((WORD_TYPES >> Character.getType(c)) & 1) != 0
+                || c == 0x200C || c == 0x200D; // Join controls.
+    }
+
+
     /**
      * Normalizes a string.
      * <ul>
@@ -696,40 +803,22 @@ public class WikiPageAnalyzer {
      *     A normalized version of the given string.
      */
     public static String normalizePlainPageRevisionText(String rawPageRevisionText) {
-        // TODO Needs refinement! Some pattern matches where very heavy
-        // computationally.
-
-        rawPageRevisionText = rawPageRevisionText.toLowerCase();
-
-        rawPageRevisionText = WIKI_P0.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P1.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P2.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P3.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P4.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P5.matcher(rawPageRevisionText).replaceAll("$1");
-        rawPageRevisionText = WIKI_P6.matcher(rawPageRevisionText).replaceAll(" ");
-
-        rawPageRevisionText = WIKI_P7.matcher(rawPageRevisionText).replaceAll(" ");
-//        rawPageRevisionText = WIKI_P8.matcher(rawPageRevisionText).replaceAll("$1");
-//        rawPageRevisionText = WIKI_P9.matcher(rawPageRevisionText).replaceAll("$3");
-//        rawPageRevisionText = WIKI_P10.matcher(rawPageRevisionText).replaceAll("$3");
-        rawPageRevisionText = WIKI_P11.matcher(rawPageRevisionText).replaceAll("$1");
-        rawPageRevisionText = WIKI_P12.matcher(rawPageRevisionText).replaceAll("$1");
-        rawPageRevisionText = WIKI_P13.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P14.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P15.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P16.matcher(rawPageRevisionText).replaceAll("$1");
-        rawPageRevisionText = WIKI_P17.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P18.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P19.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P20.matcher(rawPageRevisionText).replaceAll(" ");
-
-        rawPageRevisionText = WIKI_P21.matcher(rawPageRevisionText).replaceAll(" ");
-        rawPageRevisionText = WIKI_P22.matcher(rawPageRevisionText).replaceAll(">");
-        rawPageRevisionText = WIKI_P23.matcher(rawPageRevisionText).replaceAll("<");
-        rawPageRevisionText = WIKI_P24.matcher(rawPageRevisionText).replaceAll(" ");
-
-        return rawPageRevisionText;
+
+        return getNormalizer().normalizeToString(rawPageRevisionText);
+    }
+
+
+    /**
+     * Gets the markup normalizer of the calling thread.
+     *
+     * Callers that can work on the normalizer's buffer directly avoid the
+     * allocation of the normalized string altogether.
+     *
+     * @return
+     *     The normalizer.
+     */
+    public static WikiMarkupNormalizer getNormalizer() {
+        return normalizers.get();
     }
 
 }
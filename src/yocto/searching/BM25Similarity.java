@@ -0,0 +1,140 @@
+package yocto.searching;
+
+import yocto.storage.NormsReader;
+
+/**
+ * The Okapi BM25 ranking function.
+ *
+ * The score of a document for a term is
+ *
+ * {@code idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * dl / avgdl))}
+ *
+ * where {@code tf} is the frequency of the term in the document, {@code dl}
+ * the length of the document and {@code avgdl} the average length of all
+ * documents. The denominator's length part only depends on the norm of the
+ * document, one of 256, so it is computed once per norm and looked up.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+class BM25Similarity {
+
+    /** The default term frequency saturation. */
+    static final float DEFAULT_K1 = 1.2f;
+
+    /** The default document length normalization. */
+    static final float DEFAULT_B = 0.75f;
+
+    /* The term frequency saturation. */
+    private final float k1;
+
+    /* The length normalization part of the denominator, by norm. */
+    private final float[] normCache;
+
+
+    /**
+     * Constructor, with the default parameters.
+     *
+     * @param averageLength
+     *     The average length of the documents, or {@code 0} if unknown, in
+     *     which case the scores are not normalized by length.
+     */
+    BM25Similarity(float averageLength) {
+        this(DEFAULT_K1, DEFAULT_B, averageLength);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param k1
+     *     The term frequency saturation.
+     * @param b
+     *     The document length normalization, in {@code [0, 1]}.
+     * @param averageLength
+     *     The average length of the documents, or {@code 0} if unknown, in
+     *     which case the scores are not normalized by length.
+     */
+    BM25Similarity(float k1, float b, float averageLength) {
+        this.k1 = k1;
+        this.normCache = new float[256];
+        for (int norm = 0; norm < normCache.length; norm++) {
+            normCache[norm] = averageLength > 0
+                    ? k1 * (1 - b + b * NormsReader.decodeLength(norm) / averageLength)
+                    : k1;
+        }
+    }
+
+
+    /**
+     * Computes the inverse document frequency of a term.
+     *
+     * @param docFreq
+     *     The number of documents holding the term.
+     * @param numDocs
+     *     The number of documents.
+     *
+     * @return
+     *     The inverse document frequency, never negative.
+     */
+    float idf(long docFreq, long numDocs) {
+        return (float) Math.log(1 + (numDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+
+    /**
+     * Scores a document for a term.
+     *
+     * @param idf
+     *     The inverse document frequency of the term.
+     * @param freq
+     *     The frequency of the term in the document.
+     * @param norm
+     *     The norm of the document.
+     *
+     * @return
+     *     The score.
+     */
+    float score(float idf, int freq, int norm) {
+        return idf * freq * (k1 + 1) / (freq + normCache[norm]);
+    }
+
+
+    /**
+     * Bounds the scores of the documents for a term.
+     *
+     * The score grows with the frequency and shrinks with the norm, so the
+     * highest frequency and the lowest norm of a set of documents bound the
+     * score of any of them. The bound is rounded up, so that adding up
+     * bounds in another order than the scores are cannot fall short.
+     *
+     * @param idf
+     *     The inverse document frequency of the term.
+     * @param maxFreq
+     *     The highest frequency of the term in the documents.
+     * @param minNorm
+     *     The lowest norm of the documents.
+     *
+     * @return
+     *     The upper bound of the scores.
+     */
+    float maxScore(float idf, int maxFreq, int minNorm) {
+        return Math.nextUp(score(idf, maxFreq, minNorm));
+    }
+
+
+    /**
+     * Bounds the scores of any document for a term.
+     *
+     * @param idf
+     *     The inverse document frequency of the term.
+     *
+     * @return
+     *     The upper bound of the scores, as the frequency grows infinite.
+     */
+    float maxScore(float idf) {
+        return Math.nextUp(idf * (k1 + 1));
+    }
+
+}
@@ -0,0 +1,143 @@
+package yocto.searching;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import yocto.storage.PostingsIterator;
+
+/**
+ * Evaluates a disjunction of terms for its best documents only, with the
+ * Block-Max WAND algorithm (Ding and Suel, 2011).
+ *
+ * The terms are kept in order of their current document id. Adding up the
+ * bounds of their scores (see {@link TermScorer#maxScore()}) in that order,
+ * the first term where the sum beats the score of the worst hit kept is the
+ * pivot: no document before the pivot's can make it, so the terms before
+ * are advanced straight to it. Before scoring the pivot document, the bounds
+ * of the blocks the terms fall in are added up instead; should they not be
+ * enough either, all the documents up to the end of the first of those
+ * blocks are skipped at once. As the hits kept get better, ever more of the
+ * postings of the frequent, low scoring terms are skipped over, and with the
+ * block codec, never decoded.
+ *
+ * The hits are the same as scoring every document would find.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class BlockMaxWand {
+
+    /* The terms, by their current document id. */
+    private final TermScorer[] terms;
+
+
+    /**
+     * Constructor.
+     *
+     * @param terms
+     *     The terms, none of which moved yet.
+     */
+    BlockMaxWand(List<TermScorer> terms) {
+        this.terms = terms.toArray(new TermScorer[terms.size()]);
+    }
+
+
+    /**
+     * Finds the best documents.
+     *
+     * @param collector
+     *     The collector to collect the documents with.
+     */
+    void search(TopKCollector collector) {
+        int n = terms.length;
+        for (TermScorer term : terms) {
+            term.nextDoc();
+        }
+        Arrays.sort(terms, new Comparator<TermScorer>() {
+            @Override
+            public int compare(TermScorer a, TermScorer b) {
+                return Long.compare(a.docId(), b.docId());
+            }
+        });
+
+        while (true) {
+            sortByDocId();
+            float threshold = collector.threshold();
+
+            // -- Find the pivot.
+            double bound = 0;
+            int pivot = -1;
+            for (int i = 0; i < n && terms[i].docId() != PostingsIterator.NO_MORE_DOCS; i++) {
+                bound += terms[i].maxScore();
+                if (bound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0)
+                return;
+
+            long pivotDoc = terms[pivot].docId();
+            while (pivot + 1 < n && terms[pivot + 1].docId() == pivotDoc)
+                pivot++;
+
+            // -- Check the bounds of the blocks the pivot document falls in.
+            double blockBound = 0;
+            long blocksEnd = PostingsIterator.NO_MORE_DOCS;
+            for (int i = 0; i <= pivot; i++) {
+                blocksEnd = Math.min(blocksEnd, terms[i].advanceShallow(pivotDoc));
+                blockBound += terms[i].blockMaxScore();
+            }
+
+            if (blockBound <= threshold) {
+                // Nothing up to the end of the first block can make it.
+                long target = blocksEnd == PostingsIterator.NO_MORE_DOCS
+                        ? PostingsIterator.NO_MORE_DOCS : blocksEnd + 1;
+                if (pivot + 1 < n)
+                    target = Math.min(target, terms[pivot + 1].docId());
+                for (int i = 0; i <= pivot; i++) {
+                    if (terms[i].docId() < target)
+                        terms[i].advance(target);
+                }
+            }
+            else if (terms[0].docId() == pivotDoc) {
+                // All the terms up to the pivot are on its document.
+                double score = 0;
+                for (int i = 0; i <= pivot; i++) {
+                    score += terms[i].score();
+                }
+                collector.collect(pivotDoc, (float) score);
+                for (int i = 0; i <= pivot; i++) {
+                    terms[i].nextDoc();
+                }
+            }
+            else {
+                for (int i = 0; i < pivot; i++) {
+                    if (terms[i].docId() < pivotDoc)
+                        terms[i].advance(pivotDoc);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Sorts the terms by their current document id. Only a few move between
+     * two sorts, so an insertion sort does.
+     */
+    private void sortByDocId() {
+        for (int i = 1; i < terms.length; i++) {
+            TermScorer term = terms[i];
+            long doc = term.docId();
+            int j = i - 1;
+            while (j >= 0 && terms[j].docId() > doc) {
+                terms[j + 1] = terms[j];
+                j--;
+            }
+            terms[j + 1] = term;
+        }
+    }
+
+}
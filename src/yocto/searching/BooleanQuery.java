@@ -0,0 +1,191 @@
+package yocto.searching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A query combining other queries.
+ *
+ * A document matches if it matches all the {@link Occur#MUST} clauses, or
+ * any of the {@link Occur#SHOULD} clauses when there are no
+ * {@link Occur#MUST} ones, and none of the {@link Occur#MUST_NOT} clauses. A
+ * query of {@link Occur#MUST_NOT} clauses alone matches nothing.
+ *
+ * Boolean queries with equal clauses, in the same order, are equal. A query
+ * must not be added clauses to once used as a key.
+ *
+ * @author billy
+ */
+public class BooleanQuery extends Query {
+
+    /**
+     * How a clause takes part in the query.
+     */
+    public static enum Occur {
+
+        /** The documents must match the clause. */
+        MUST,
+
+        /** The documents should match the clause. */
+        SHOULD,
+
+        /** The documents must not match the clause. */
+        MUST_NOT
+
+    }
+
+    /* The clauses. */
+    private final List<Clause> clauses;
+
+
+    /**
+     * Constructor.
+     */
+    public BooleanQuery() {
+        super(null);
+        this.clauses = new ArrayList<Clause>();
+    }
+
+
+    /**
+     * Adds a clause.
+     *
+     * @param query
+     *     The query of the clause.
+     * @param occur
+     *     How the clause takes part in the query.
+     */
+    public void add(Query query, Occur occur) {
+        clauses.add(new Clause(query, occur));
+    }
+
+
+    /**
+     * Gets the clauses.
+     *
+     * @return
+     *     The clauses, in the order they were added.
+     */
+    public List<Clause> getClauses() {
+        return Collections.unmodifiableList(clauses);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Query#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + clauses.hashCode();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Query#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (!super.equals(obj))
+            return false;
+
+        return this.clauses.equals(((BooleanQuery) obj).clauses);
+    }
+
+
+    // -- Inner classes
+
+
+    /**
+     * A clause of a boolean query.
+     */
+    public static class Clause {
+
+        /* The query of the clause. */
+        private final Query query;
+
+        /* How the clause takes part in the query. */
+        private final Occur occur;
+
+
+        /**
+         * Constructor.
+         *
+         * @param query
+         *     The query of the clause.
+         * @param occur
+         *     How the clause takes part in the query.
+         */
+        public Clause(Query query, Occur occur) {
+            this.query = query;
+            this.occur = occur;
+        }
+
+
+        /**
+         * Gets the query of the clause.
+         *
+         * @return
+         *     The query.
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+
+        /**
+         * Gets how the clause takes part in the query.
+         *
+         * @return
+         *     The occurrence.
+         */
+        public Occur getOccur() {
+            return occur;
+        }
+
+
+        // -- Override
+
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+
+            result = prime * result
+                    + ( (query == null) ? 0 : query.hashCode() );
+
+            result = prime * result
+                    + ( (occur == null) ? 0 : occur.hashCode() );
+
+            return result;
+        }
+
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (this.getClass() != obj.getClass())
+                return false;
+
+            Clause other = (Clause) obj;
+
+            return ( (this.query == other.query) || (this.query != null && this.query.equals(other.query)) )
+                    && this.occur == other.occur;
+        }
+
+    }
+
+}
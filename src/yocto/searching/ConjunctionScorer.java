@@ -0,0 +1,148 @@
+package yocto.searching;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A scorer over the documents found in all of a number of scorers, scoring
+ * each with the sum of their scores.
+ *
+ * The shortest scorer leads and the others are only advanced to the
+ * documents it proposes, shortest first; whenever one of them overshoots,
+ * the lead is advanced past it instead. Thus the long lists are skipped
+ * through rather than walked, as far as their codec allows.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class ConjunctionScorer extends Scorer {
+
+    /* The shortest scorer. */
+    private final Scorer lead;
+
+    /* The rest of the scorers, shortest first. */
+    private final Scorer[] others;
+
+    /* The current document id. */
+    private long doc = -1;
+
+
+    /**
+     * Constructor.
+     *
+     * @param scorers
+     *     The scorers; at least one, none of which moved yet.
+     */
+    ConjunctionScorer(List<Scorer> scorers) {
+        List<Scorer> sorted = new ArrayList<Scorer>(scorers);
+        Collections.sort(sorted, new Comparator<Scorer>() {
+            @Override
+            public int compare(Scorer a, Scorer b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+
+        this.lead = sorted.get(0);
+        this.others = sorted.subList(1, sorted.size()).toArray(new Scorer[sorted.size() - 1]);
+    }
+
+
+    /*
+     * Moves on from a document proposed by the lead to the first one all
+     * the scorers agree on.
+     */
+    private long doNext(long target) {
+        advanceLead:
+        while (target != NO_MORE_DOCS) {
+            for (Scorer other : others) {
+                long d = other.docId();
+                if (d < target)
+                    d = other.advance(target);
+                if (d > target) {
+                    if (d == NO_MORE_DOCS)
+                        return NO_MORE_DOCS;
+                    target = lead.advance(d);
+                    continue advanceLead;
+                }
+            }
+
+            return target;
+        }
+
+        return NO_MORE_DOCS;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Scorer#score()
+     */
+    @Override
+    float score() {
+        // Added up in double precision, so that the order does not matter.
+        double score = lead.score();
+        for (Scorer other : others) {
+            score += other.score();
+        }
+
+        return (float) score;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#docId()
+     */
+    @Override
+    public long docId() {
+        return doc;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#freq()
+     */
+    @Override
+    public int freq() {
+        // The occurrences of all the terms.
+        int freq = lead.freq();
+        for (Scorer other : others) {
+            freq += other.freq();
+        }
+
+        return freq;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#nextDoc()
+     */
+    @Override
+    public long nextDoc() {
+        return doc = doNext(lead.nextDoc());
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#advance(long)
+     */
+    @Override
+    public long advance(long target) {
+        return doc = doNext(lead.advance(target));
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#size()
+     */
+    @Override
+    public int size() {
+        // At most as many as the shortest.
+        return lead.size();
+    }
+
+}
@@ -0,0 +1,180 @@
+package yocto.searching;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A scorer over the documents found in any of a number of scorers, each
+ * once, scoring each with the sum of the scores of the scorers it is found
+ * in.
+ *
+ * The scorers are kept in a heap by their current document id. The ones on
+ * the current document are taken out of the heap, to be scored, and put
+ * back in once moved on.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class DisjunctionScorer extends Scorer {
+
+    /* The scorers not on the current document, by their current document id. */
+    private final PriorityQueue<Scorer> queue;
+
+    /* The scorers on the current document. */
+    private final List<Scorer> tops;
+
+    /* The total number of document ids of the scorers. */
+    private final int size;
+
+    /* The current document id. */
+    private long doc = -1;
+
+
+    /**
+     * Constructor.
+     *
+     * @param scorers
+     *     The scorers, none of which moved yet. No scorers make an empty
+     *     union.
+     */
+    DisjunctionScorer(List<Scorer> scorers) {
+        this.queue = new PriorityQueue<Scorer>(Math.max(1, scorers.size()),
+                new Comparator<Scorer>() {
+                    @Override
+                    public int compare(Scorer a, Scorer b) {
+                        return Long.compare(a.docId(), b.docId());
+                    }
+                });
+        this.tops = new ArrayList<Scorer>();
+        long total = 0;
+        for (Scorer scorer : scorers) {
+            queue.add(scorer);
+            total += scorer.size();
+        }
+        this.size = (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+
+    /*
+     * Takes the scorers on the smallest document out of the heap.
+     *
+     * @return
+     *     The smallest document id or NO_MORE_DOCS if all scorers are
+     *     exhausted.
+     */
+    private long pullTops() {
+        if (queue.isEmpty() || queue.peek().docId() == NO_MORE_DOCS)
+            return NO_MORE_DOCS;
+
+        long d = queue.peek().docId();
+        while (!queue.isEmpty() && queue.peek().docId() == d) {
+            tops.add(queue.poll());
+        }
+
+        return d;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Scorer#score()
+     */
+    @Override
+    float score() {
+        // The tops come in no particular order; in double precision the sum
+        // comes out the same whatever it is.
+        double score = 0;
+        for (int i = 0; i < tops.size(); i++) {
+            score += tops.get(i).score();
+        }
+
+        return (float) score;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#docId()
+     */
+    @Override
+    public long docId() {
+        return doc;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#freq()
+     */
+    @Override
+    public int freq() {
+        // The occurrences of the terms found.
+        int freq = 0;
+        for (int i = 0; i < tops.size(); i++) {
+            freq += tops.get(i).freq();
+        }
+
+        return freq;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#nextDoc()
+     */
+    @Override
+    public long nextDoc() {
+        if (doc == NO_MORE_DOCS)
+            return doc;
+
+        for (int i = 0; i < tops.size(); i++) {
+            Scorer top = tops.get(i);
+            top.nextDoc();
+            queue.add(top);
+        }
+        tops.clear();
+
+        // Only the scorers not moved yet may lag behind.
+        while (!queue.isEmpty() && queue.peek().docId() <= doc) {
+            Scorer top = queue.poll();
+            top.nextDoc();
+            queue.add(top);
+        }
+
+        return doc = pullTops();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#advance(long)
+     */
+    @Override
+    public long advance(long target) {
+        for (int i = 0; i < tops.size(); i++) {
+            Scorer top = tops.get(i);
+            top.advance(target);
+            queue.add(top);
+        }
+        tops.clear();
+
+        while (!queue.isEmpty() && queue.peek().docId() < target) {
+            Scorer top = queue.poll();
+            top.advance(target);
+            queue.add(top);
+        }
+
+        return doc = pullTops();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+}
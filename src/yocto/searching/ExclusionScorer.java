@@ -0,0 +1,118 @@
+package yocto.searching;
+
+import yocto.storage.PostingsIterator;
+
+/**
+ * A scorer over the documents of one scorer that are not found in an
+ * iterator, scoring them as the scorer does.
+ *
+ * The excluded iterator is only advanced to the documents of the included
+ * scorer.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class ExclusionScorer extends Scorer {
+
+    /* The scorer of the documents to include. */
+    private final Scorer include;
+
+    /* The iterator of the documents to exclude. */
+    private final PostingsIterator exclude;
+
+    /* The current document id. */
+    private long doc = -1;
+
+
+    /**
+     * Constructor.
+     *
+     * @param include
+     *     The scorer of the documents to include, not moved yet.
+     * @param exclude
+     *     The iterator of the documents to exclude, not moved yet.
+     */
+    ExclusionScorer(Scorer include, PostingsIterator exclude) {
+        this.include = include;
+        this.exclude = exclude;
+    }
+
+
+    /*
+     * Moves on from a document of the included scorer to the first one not
+     * excluded.
+     */
+    private long toNonExcluded(long target) {
+        while (target != NO_MORE_DOCS) {
+            long d = exclude.docId();
+            if (d < target)
+                d = exclude.advance(target);
+            if (d != target)
+                return target;
+
+            target = include.nextDoc();
+        }
+
+        return NO_MORE_DOCS;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Scorer#score()
+     */
+    @Override
+    float score() {
+        return include.score();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#docId()
+     */
+    @Override
+    public long docId() {
+        return doc;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#freq()
+     */
+    @Override
+    public int freq() {
+        return include.freq();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#nextDoc()
+     */
+    @Override
+    public long nextDoc() {
+        return doc = toNonExcluded(include.nextDoc());
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#advance(long)
+     */
+    @Override
+    public long advance(long target) {
+        return doc = toNonExcluded(include.advance(target));
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#size()
+     */
+    @Override
+    public int size() {
+        // At most as many as the included.
+        return include.size();
+    }
+
+}
@@ -10,12 +10,25 @@ public class Hit {
     /* The resource associated with this hit. */
     private final String resource;
 
+    /* The relevance score of this hit. */
+    private final float score;
+
 
     /**
      * @param resource
      */
     public Hit(String resource) {
+        this(resource, 0);
+    }
+
+
+    /**
+     * @param resource
+     * @param score
+     */
+    public Hit(String resource, float score) {
         this.resource = resource;
+        this.score = score;
     }
 
 
@@ -29,4 +42,15 @@ public class Hit {
         return resource;
     }
 
+
+    /**
+     * Gets the relevance score of this hit.
+     *
+     * @return
+     *     The score; the higher, the more relevant.
+     */
+    public float getScore() {
+        return score;
+    }
+
 }
@@ -3,18 +3,22 @@ package yocto.searching;
 /**
  * Query abstract class.
  *
+ * Queries of the same kind over equal terms, or clauses, are equal, so that
+ * parsing the same query twice makes equal queries.
+ *
  * @author billy
  */
 public abstract class Query {
 
-    /* The term of this query. */
+    /* The term of this query; {@code null} for a query made of queries. */
     private final QueryTerm queryTerm;
 
     /**
      * Constructor.
      *
      * @param queryTerm
-     *     The term of the query. Currently only one term is supported.
+     *     The term of the query or {@code null} for a query made of other
+     *     queries.
      */
     public Query(QueryTerm queryTerm) {
         this.queryTerm = queryTerm;
@@ -24,10 +28,47 @@ public abstract class Query {
      * Gets the query term.
      *
      * @return
-     *     The query term.
+     *     The query term or {@code null} for a query made of other queries.
      */
     public QueryTerm getQueryTerm() {
         return queryTerm;
     }
 
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = getClass().getName().hashCode();
+
+        result = prime * result
+                + ( (queryTerm == null) ? 0 : queryTerm.hashCode() );
+
+        return result;
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (this.getClass() != obj.getClass())
+            return false;
+
+        Query other = (Query) obj;
+
+        return (this.queryTerm == other.queryTerm)
+                || (this.queryTerm != null && this.queryTerm.equals(other.queryTerm));
+    }
+
 }
@@ -0,0 +1,294 @@
+package yocto.searching;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the results of recent queries, evicting the least recently
+ * used ones.
+ *
+ * The results are keyed on the parsed query, so that queries written
+ * differently but parsed the same share an entry, along with how they were
+ * executed: ranked, for how many results, or not. The cache is bounded both
+ * by a number of entries and by an estimate of the bytes the results take;
+ * results over the byte bound on their own are not cached at all. Only the
+ * document ids and scores are kept: every look-up gets results of its own,
+ * so that the labels paged in by its caller are not charged to the cache.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class QueryCache {
+
+    /**
+     * The default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * The default maximum number of bytes of the entries.
+     */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /* The estimated overhead of an entry, on top of its results and terms. */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /* The estimated bytes per result: a document id and a score. */
+    private static final int BYTES_PER_RESULT = 8 + 4;
+
+    /* The maximum number of entries. */
+    private final int maxEntries;
+
+    /* The maximum number of bytes of the entries. */
+    private final long maxBytes;
+
+    /* The entries, least recently used first. */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /* The estimated number of bytes of the entries. */
+    private long bytes;
+
+    /* The number of look-ups that found an entry. */
+    private long hits;
+
+    /* The number of look-ups that found none. */
+    private long misses;
+
+    /* The number of entries evicted to make room. */
+    private long evictions;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries
+     *     The maximum number of entries.
+     * @param maxBytes
+     *     The maximum number of bytes of the entries, estimated.
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("Invalid cache bounds: " + maxEntries + ", " + maxBytes);
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        // In access order, for the eldest entry to be the least recently used.
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Looks the results of a query up.
+     *
+     * @param query
+     *     The query.
+     * @param ranked
+     *     Whether the query was ranked.
+     * @param n
+     *     The maximum number of results asked for.
+     *
+     * @return
+     *     The results, with no labels loaded, or {@code null} if not cached.
+     */
+    synchronized SearchResults get(Query query, boolean ranked, int n) {
+        Entry entry = entries.get(new Key(query, ranked, n));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return entry.results.unloaded();
+    }
+
+
+    /**
+     * Caches the results of a query, evicting the least recently used
+     * entries to make room.
+     *
+     * @param query
+     *     The query; must not be modified afterwards.
+     * @param ranked
+     *     Whether the query was ranked.
+     * @param n
+     *     The maximum number of results asked for.
+     * @param results
+     *     The results; their labels, loaded or not, are left out.
+     */
+    synchronized void put(Query query, boolean ranked, int n, SearchResults results) {
+        long size = ENTRY_OVERHEAD + termBytes(query) + (long) BYTES_PER_RESULT * results.size();
+        if (size > maxBytes)
+            return;
+
+        Entry previous = entries.put(new Key(query, ranked, n), new Entry(results.unloaded(), size));
+        if (previous != null)
+            bytes -= previous.bytes;
+        bytes += size;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+
+    /**
+     * Removes all the entries, as when the index they were found in is
+     * changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+
+    /**
+     * Gets the number of look-ups that found an entry.
+     *
+     * @return
+     *     The number of hits.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of look-ups that found no entry.
+     *
+     * @return
+     *     The number of misses.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+
+    /**
+     * Gets the number of entries evicted to make room for others.
+     *
+     * @return
+     *     The number of evictions.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return
+     *     The number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Gets the estimated number of bytes of the entries.
+     *
+     * @return
+     *     The number of bytes.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+
+    /*
+     * Estimates the bytes the terms of a query take.
+     */
+    private static long termBytes(Query query) {
+        if (query instanceof BooleanQuery) {
+            long size = 0;
+            for (BooleanQuery.Clause clause : ((BooleanQuery) query).getClauses()) {
+                size += 32 + termBytes(clause.getQuery());
+            }
+            return size;
+        }
+
+        return 48 + 2L * query.getQueryTerm().getTerm().length();
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "entries: " + entries.size() + " | size(MB): "
+                + String.format("%5.2f", bytes / 1024.0 / 1024.0)
+                + " | hits: " + hits + " | misses: " + misses
+                + " | evictions: " + evictions;
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * The key of an entry: a query and how it was executed.
+     */
+    private static final class Key {
+
+        private final Query query;
+        private final boolean ranked;
+        private final int n;
+
+        Key(Query query, boolean ranked, int n) {
+            this.query = query;
+            this.ranked = ranked;
+            this.n = n;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = query.hashCode();
+            result = prime * result + (ranked ? 1 : 0);
+            result = prime * result + n;
+
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+
+            return this.ranked == other.ranked && this.n == other.n
+                    && this.query.equals(other.query);
+        }
+
+    }
+
+
+    /*
+     * An entry: the results of a query, never paged, and the bytes they take.
+     */
+    private static final class Entry {
+
+        private final SearchResults results;
+        private final long bytes;
+
+        Entry(SearchResults results, long bytes) {
+            this.results = results;
+            this.bytes = bytes;
+        }
+
+    }
+
+}
@@ -1,33 +1,171 @@
 package yocto.searching;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Set;
+
+import yocto.storage.ImpactsReader;
+import yocto.storage.NormsReader;
+import yocto.storage.PostingsIterator;
+import yocto.storage.PostingsReader;
+import yocto.storage.StoreCache;
+import yocto.storage.StoreField;
+import yocto.storage.StoreOffsetsReader;
+import yocto.storage.StoreReader;
+import yocto.storage.StoreRecord;
+import yocto.storage.TermDictionary;
+import yocto.storage.TermIterator;
 
 /**
  * The class of objects handling the execution of search queries.
  *
+ * Documents are ranked by their BM25 score (see {@link BM25Similarity}) for
+ * the terms of the query, summed. Ranked queries only keep the best hits
+ * found so far, in a bounded heap. The stored fields are only loaded for
+ * the pages of the results asked for (see {@link SearchResults}), from a
+ * {@link StoreCache} when given one.
+ * Ranked disjunctions of terms, single terms and prefixes included, skip the
+ * documents that cannot make it (see {@link BlockMaxWand}). A prefix is
+ * expanded to a bounded number of terms, of a bounded number of postings in
+ * all, whose documents are merged, each found once.
+ *
+ * Thread-safe: the look-up tables are never modified once given to the
+ * executor and the readers only do positional reads, so queries can be
+ * executed concurrently.
+ *
  * @author billy
  */
 public class QueryExecutor {
 
-    /* In-memory data structure of fast and shorted index file lookup. */
-    private final TreeMap<String, Long> postingsLookup;
+    /**
+     * The default maximum number of terms a prefix is expanded to.
+     */
+    public static final int DEFAULT_MAX_EXPANSIONS = 1024;
+
+    /**
+     * The default maximum number of postings of the terms a prefix is
+     * expanded to, in all.
+     */
+    public static final long DEFAULT_MAX_EXPANSION_POSTINGS = 1L << 22;
+
+    /* In-memory data structure of fast and sorted index file lookup. */
+    private final TermDictionary postingsLookup;
+
+    /* The memory-mapped store offsets file, for store file lookup. */
+    private final StoreOffsetsReader storeLookup;
+
+    /* The memory-mapped index file. */
+    private final PostingsReader postings;
+
+    /* The memory-mapped store file. */
+    private final StoreReader store;
+
+    /* The memory-mapped norms file, or null for an index without norms. */
+    private final NormsReader norms;
+
+    /* The memory-mapped impacts file, or null for an index without impacts. */
+    private final ImpactsReader impacts;
+
+    /* The number of documents, for the inverse document frequencies. */
+    private final long numDocs;
+
+    /* The ranking function. */
+    private final BM25Similarity similarity;
+
+    /* The maximum number of terms a prefix is expanded to. */
+    private final int maxExpansions;
+
+    /* The maximum number of postings of the terms a prefix is expanded to. */
+    private final long maxExpansionPostings;
+
+    /* The cache of stored labels, or null for none. */
+    private final StoreCache storeCache;
+
+
+    /**
+     * Constructor, for an index without norms.
+     *
+     * @param postingsLookup
+     *     The look-up table for the postings file.
+     * @param storeLookup
+     *     The reader of the store offsets file.
+     * @param postings
+     *     The reader of the postings file.
+     * @param store
+     *     The reader of the store file.
+     */
+    public QueryExecutor(
+            TermDictionary postingsLookup,
+            StoreOffsetsReader storeLookup,
+            PostingsReader postings,
+            StoreReader store) {
+        this(postingsLookup, storeLookup, postings, store, null, null);
+    }
+
 
-    /* In-memeory data structure of fast store file lookup. */
-    private final HashMap<Long, Long> storeLookup;
+    /**
+     * Constructor, expanding prefixes to {@link #DEFAULT_MAX_EXPANSIONS}
+     * terms at most.
+     *
+     * @param postingsLookup
+     *     The look-up table for the postings file.
+     * @param storeLookup
+     *     The reader of the store offsets file.
+     * @param postings
+     *     The reader of the postings file.
+     * @param store
+     *     The reader of the store file.
+     * @param norms
+     *     The reader of the norms file, or {@code null} if there is none.
+     * @param impacts
+     *     The reader of the impacts file, or {@code null} if there is none.
+     */
+    public QueryExecutor(
+            TermDictionary postingsLookup,
+            StoreOffsetsReader storeLookup,
+            PostingsReader postings,
+            StoreReader store,
+            NormsReader norms,
+            ImpactsReader impacts) {
+        this(postingsLookup, storeLookup, postings, store, norms, impacts,
+                DEFAULT_MAX_EXPANSIONS);
+    }
 
-    /* The index file for random access. */
-    private final RandomAccessFile postings;
 
-    /* The store file for random access. */
-    private final RandomAccessFile store;
+    /**
+     * Constructor.
+     *
+     * @param postingsLookup
+     *     The look-up table for the postings file.
+     * @param storeLookup
+     *     The reader of the store offsets file.
+     * @param postings
+     *     The reader of the postings file.
+     * @param store
+     *     The reader of the store file.
+     * @param norms
+     *     The reader of the norms file, or {@code null} if there is none, in
+     *     which case documents are scored regardless of their length.
+     * @param impacts
+     *     The reader of the impacts file, or {@code null} if there is none,
+     *     in which case ranked queries skip fewer documents.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to; the first ones
+     *     in term order are kept.
+     */
+    public QueryExecutor(
+            TermDictionary postingsLookup,
+            StoreOffsetsReader storeLookup,
+            PostingsReader postings,
+            StoreReader store,
+            NormsReader norms,
+            ImpactsReader impacts,
+            int maxExpansions) {
+        this(postingsLookup, storeLookup, postings, store, norms, impacts,
+                maxExpansions, null);
+    }
 
 
     /**
@@ -36,23 +174,86 @@ public class QueryExecutor {
      * @param postingsLookup
      *     The look-up table for the postings file.
      * @param storeLookup
-     *     The look-up table for the store file.
-     * @param index
-     *     The postings file.
+     *     The reader of the store offsets file.
+     * @param postings
+     *     The reader of the postings file.
      * @param store
-     *     The store file
+     *     The reader of the store file.
+     * @param norms
+     *     The reader of the norms file, or {@code null} if there is none.
+     * @param impacts
+     *     The reader of the impacts file, or {@code null} if there is none.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param storeCache
+     *     The cache of stored labels, or {@code null} to read the labels off
+     *     the store file every time.
+     */
+    public QueryExecutor(
+            TermDictionary postingsLookup,
+            StoreOffsetsReader storeLookup,
+            PostingsReader postings,
+            StoreReader store,
+            NormsReader norms,
+            ImpactsReader impacts,
+            int maxExpansions,
+            StoreCache storeCache) {
+        this(postingsLookup, storeLookup, postings, store, norms, impacts,
+                maxExpansions, DEFAULT_MAX_EXPANSION_POSTINGS, storeCache);
+    }
+
+
+    /**
+     * Constructor.
      *
-     * @throws FileNotFoundException
+     * @param postingsLookup
+     *     The look-up table for the postings file.
+     * @param storeLookup
+     *     The reader of the store offsets file.
+     * @param postings
+     *     The reader of the postings file.
+     * @param store
+     *     The reader of the store file.
+     * @param norms
+     *     The reader of the norms file, or {@code null} if there is none.
+     * @param impacts
+     *     The reader of the impacts file, or {@code null} if there is none.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param maxExpansionPostings
+     *     The maximum number of postings of the terms a prefix is expanded
+     *     to, in all; the first term is kept whatever its postings.
+     * @param storeCache
+     *     The cache of stored labels, or {@code null} to read the labels off
+     *     the store file every time.
      */
     public QueryExecutor(
-            TreeMap<String, Long> postingsLookup,
-            HashMap<Long, Long> storeLookup,
-            RandomAccessFile postings,
-            RandomAccessFile store) throws FileNotFoundException {
+            TermDictionary postingsLookup,
+            StoreOffsetsReader storeLookup,
+            PostingsReader postings,
+            StoreReader store,
+            NormsReader norms,
+            ImpactsReader impacts,
+            int maxExpansions,
+            long maxExpansionPostings,
+            StoreCache storeCache) {
+        if (maxExpansions <= 0)
+            throw new IllegalArgumentException("Invalid maximum expansions: " + maxExpansions);
+        if (maxExpansionPostings < 0)
+            throw new IllegalArgumentException("Invalid maximum expansion postings: "
+                    + maxExpansionPostings);
+
         this.postingsLookup = postingsLookup;
         this.storeLookup = storeLookup;
         this.postings = postings;
         this.store = store;
+        this.norms = norms;
+        this.impacts = impacts;
+        this.numDocs = norms != null ? norms.numDocs() : storeLookup.size();
+        this.similarity = new BM25Similarity(norms != null ? norms.averageLength() : 0);
+        this.maxExpansions = maxExpansions;
+        this.maxExpansionPostings = maxExpansionPostings;
+        this.storeCache = storeCache;
     }
 
 
@@ -66,16 +267,150 @@ public class QueryExecutor {
      *     A list of hits satisfying the given query.
      */
     public List<Hit> execute(Query query) {
-        List<Hit> hits;
 
-        if (query instanceof PrefixQuery) {
-            hits = executePrefixQuery((PrefixQuery) query);
+        return search(query).getHits();
+    }
+
+
+    /**
+     * Executes the query, ranking the hits.
+     *
+     * @param query
+     *     The query to execute.
+     * @param k
+     *     The maximum number of hits to return.
+     *
+     * @return
+     *     The {@code k} best hits satisfying the given query, best first.
+     *     Hits of equal score come in document id order.
+     */
+    public List<Hit> execute(Query query, int k) {
+
+        return search(query, k).getHits();
+    }
+
+
+    /**
+     * Executes the query, leaving the hits to be loaded page by page.
+     *
+     * @param query
+     *     The query to execute.
+     *
+     * @return
+     *     The results satisfying the given query, in document id order.
+     */
+    public SearchResults search(Query query) {
+
+        return searchFirst(query, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Executes the query, stopping at the first results, which are left to
+     * be loaded page by page.
+     *
+     * @param query
+     *     The query to execute.
+     * @param limit
+     *     The maximum number of results.
+     *
+     * @return
+     *     The first {@code limit} results satisfying the given query, in
+     *     document id order.
+     */
+    public SearchResults searchFirst(Query query, int limit) {
+        SearchResults.Builder results = new SearchResults.Builder(this);
+        if (query == null)
+            return results.build();
+
+        // The matches are walked through in document id order, each once,
+        // however many terms a prefix expands to.
+        Scorer scorer = scorer(query);
+        long docId;
+        for (int i = 0; i < limit
+                && (docId = scorer.nextDoc()) != PostingsIterator.NO_MORE_DOCS; i++) {
+            results.add(docId, scorer.score());
+        }
+
+        return results.build();
+    }
+
+
+    /**
+     * Executes the query, ranking the hits and leaving them to be loaded
+     * page by page.
+     *
+     * @param query
+     *     The query to execute.
+     * @param k
+     *     The maximum number of results.
+     *
+     * @return
+     *     The {@code k} best results satisfying the given query, best first.
+     *     Results of equal score come in document id order.
+     */
+    public SearchResults search(Query query, int k) {
+        SearchResults.Builder results = new SearchResults.Builder(this);
+        if (query == null || k <= 0)
+            return results.build();
+
+        TopKCollector collector = new TopKCollector(k);
+        List<TermScorer> terms = new ArrayList<TermScorer>();
+        if (disjunctionTerms(query, terms)) {
+            // Only the documents that may make it are scored.
+            new BlockMaxWand(terms).search(collector);
         }
         else {
-            hits = executeNormalQuery((NormalQuery) query);
+            Scorer scorer = scorer(query);
+            long docId;
+            while ((docId = scorer.nextDoc()) != PostingsIterator.NO_MORE_DOCS) {
+                collector.collect(docId, scorer.score());
+            }
+        }
+
+        for (TopKCollector.ScoreDoc sd : collector.topDocs()) {
+            results.add(sd.docId, sd.score);
         }
 
-        return hits;
+        return results.build();
+    }
+
+
+    /**
+     * Counts the results of the query, if that is cheap: for a single term,
+     * the number of documents it is in, as recorded with its postings.
+     *
+     * @param query
+     *     The query to count the results of.
+     *
+     * @return
+     *     The number of results, or {@code -1} if counting them takes
+     *     executing the query.
+     */
+    public int count(Query query) {
+        if (query == null)
+            return 0;
+        if (!(query instanceof NormalQuery))
+            return -1;
+
+        long offset = postingsLookup.get(query.getQueryTerm().getTerm());
+
+        return offset < 0 ? 0 : postings.count(offset);
+    }
+
+
+    /**
+     * Closes the index files.
+     */
+    public void close() {
+        postingsLookup.close();
+        storeLookup.close();
+        postings.close();
+        store.close();
+        if (norms != null)
+            norms.close();
+        if (impacts != null)
+            impacts.close();
     }
 
 
@@ -85,90 +420,265 @@ public class QueryExecutor {
      * For debugging.
      */
     protected void printDictionary() {
-        for(Map.Entry<String, Long> entry : postingsLookup.entrySet()) {
-            System.out.println("term: " + entry.getKey() + " offset: " + entry.getValue());
+        TermIterator it = postingsLookup.iterator("");
+        while (it.next()) {
+            System.out.println("term: " + it.term() + " offset: " + it.offset());
         }
     }
 
 
     /*
-     * Executes a prefix query.
+     * Builds a scorer over the documents matching a query.
      *
      * @param query
-     *     The prefix query
+     *     The query.
      *
      * @return
-     *     A list of hits satisfying the given prefix query.
+     *     The scorer.
+     */
+    private Scorer scorer(Query query) {
+        if (query instanceof BooleanQuery)
+            return booleanScorer((BooleanQuery) query);
+        if (query instanceof PrefixQuery)
+            return prefixScorer(query.getQueryTerm().getTerm());
+
+        return termScorer(query.getQueryTerm().getTerm());
+    }
+
+
+    /*
+     * Builds a scorer over the documents matching a boolean query.
+     */
+    private Scorer booleanScorer(BooleanQuery query) {
+        List<Scorer> required = new ArrayList<Scorer>();
+        List<Scorer> optional = new ArrayList<Scorer>();
+        List<Scorer> prohibited = new ArrayList<Scorer>();
+        for (BooleanQuery.Clause clause : query.getClauses()) {
+            switch (clause.getOccur()) {
+            case MUST:
+                required.add(scorer(clause.getQuery()));
+                break;
+            case SHOULD:
+                optional.add(scorer(clause.getQuery()));
+                break;
+            case MUST_NOT:
+                prohibited.add(scorer(clause.getQuery()));
+                break;
+            }
+        }
+
+        Scorer s;
+        if (required.size() == 1)
+            s = required.get(0);
+        else if (required.size() > 1)
+            s = new ConjunctionScorer(required);
+        else if (optional.size() == 1)
+            s = optional.get(0);
+        else
+            // No scorers at all make an empty union.
+            s = new DisjunctionScorer(optional);
+
+        if (prohibited.size() == 1)
+            s = new ExclusionScorer(s, prohibited.get(0));
+        else if (prohibited.size() > 1)
+            s = new ExclusionScorer(s, new DisjunctionScorer(prohibited));
+
+        return s;
+    }
+
+
+    /*
+     * Builds a scorer over the documents of the terms starting with a
+     * prefix, each term scored on its own.
+     */
+    private Scorer prefixScorer(String prefix) {
+        List<Scorer> terms = new ArrayList<Scorer>();
+        expandPrefix(prefix, terms);
+
+        return new DisjunctionScorer(terms);
+    }
+
+
+    /*
+     * Expands a prefix to the terms starting with it, up to the maximum
+     * number of expansions and of their postings in all.
+     *
+     * The terms are walked in order straight off the term index, and their
+     * postings are decoded from the mapped file as the scorers move on, so
+     * an expansion costs no more than a scorer per term; lists the postings
+     * cache decodes whole are bounded by the postings budget.
+     *
+     * @param prefix
+     *     The prefix.
+     * @param terms
+     *     The list to add the scorers of the terms to.
      */
-    private List<Hit> executePrefixQuery(PrefixQuery query) {
-        List<Hit> hits = new LinkedList<Hit>();
+    private void expandPrefix(String prefix, List<? super TermScorer> terms) {
+        TermIterator over = postingsLookup.iterator(prefix);
+        long total = 0;
+        for (int i = 0; i < maxExpansions && over.next(); i++) {
+            if (!over.term().startsWith(prefix))
+                break;
 
-        String prefix = query.getQueryTerm().getTerm();
-        SortedMap<String, Long> over = postingsLookup.tailMap(prefix, true);
-        String term = "";
-        for (Map.Entry<String, Long> entry : over.entrySet()) {
-            term = entry.getKey();
-            if (!term.startsWith(prefix))
+            // Counted off the framing, before the postings are opened.
+            total += postings.count(over.offset());
+            if (i > 0 && total > maxExpansionPostings)
                 break;
 
-            hits.addAll(gatherHitsForTerm(entry.getValue()));
+            terms.add(termScorer(over.offset()));
         }
+    }
+
+
+    /*
+     * Builds a scorer over the documents of a term.
+     */
+    private Scorer termScorer(String term) {
+        long offset = postingsLookup.get(term);
+        if (offset < 0)
+            return new DisjunctionScorer(new ArrayList<Scorer>());
+
+        return termScorer(offset);
+    }
+
+
+    /*
+     * Builds a scorer over the postings at an offset of the postings file.
+     */
+    private TermScorer termScorer(long offset) {
+        // Decode the postings straight from the mapped file as we go...
+        PostingsIterator it = postings.postings(offset);
 
-        return hits;
+        return new TermScorer(it, similarity.idf(it.size(), Math.max(numDocs, it.size())),
+                similarity, norms, impacts == null ? null : impacts.impacts(offset));
     }
 
 
     /*
-     * Executes a normal query.
+     * Gathers the terms of a query made of terms that are optional, or a
+     * single one.
      *
      * @param query
-     *     The normal query
+     *     The query.
+     * @param terms
+     *     The list to add the scorers of the terms to.
      *
      * @return
-     *     A list of hits satisfying the given normal query.
+     *     Whether the query is such a disjunction; if not, the terms are of
+     *     no use.
      */
-    private List<Hit> executeNormalQuery(NormalQuery query) {
+    private boolean disjunctionTerms(Query query, List<TermScorer> terms) {
+        if (query instanceof BooleanQuery) {
+            for (BooleanQuery.Clause clause : ((BooleanQuery) query).getClauses()) {
+                if (clause.getOccur() != BooleanQuery.Occur.SHOULD
+                        || !disjunctionTerms(clause.getQuery(), terms))
+                    return false;
+            }
+        }
+        else if (query instanceof PrefixQuery) {
+            expandPrefix(query.getQueryTerm().getTerm(), terms);
+        }
+        else {
+            long offset = postingsLookup.get(query.getQueryTerm().getTerm());
+            if (offset >= 0)
+                terms.add(termScorer(offset));
+        }
 
-        return gatherHitsForTerm(postingsLookup.get(query.getQueryTerm().getTerm()));
+        return true;
     }
 
 
-    /*
-     * Helper method for gathering hits for a term.
+    /**
+     * Loads the stored labels of a range of documents, in a batch.
      *
-     * @param term
-     *     The term.
+     * @param docIds
+     *     The document ids.
+     * @param from
+     *     The index of the first document to load.
+     * @param to
+     *     The index past the last document to load.
      *
      * @return
-     *     A list of hits satisfying the given term.
-     */
-    private List<Hit> gatherHitsForTerm(Long offset) {
-        List<Hit> hits = new LinkedList<Hit>();
-
-        if (offset != null) {
-            try {
-                postings.seek(offset.longValue());
-
-                // Retrieve the number of postings...
-                int postingsListSize = postings.readInt();
-                for (int i = 0; i < postingsListSize; i++) {
-                    long docId = postings.readLong();
-                    Long offStore = storeLookup.get(docId);
-                    String label;
-                    if (offStore != null) {
-                        store.seek(offStore.longValue());
-                        label = store.readUTF();
-                    }
-                    else label = docId+"";
-
-                    hits.add(new Hit(label));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+     *     The labels of the documents, from {@code from} on. Documents not
+     *     stored are labeled with their id.
+     */
+    String[] loadLabels(long[] docIds, int from, int to) {
+        String[] labels = new String[to - from];
+
+        // Only the labels not cached are read, in a batch.
+        int[] misses = new int[to - from];
+        int numMisses = 0;
+        for (int i = from; i < to; i++) {
+            labels[i - from] = storeCache == null ? null : storeCache.get(docIds[i]);
+            if (labels[i - from] == null)
+                misses[numMisses++] = i;
+        }
+        if (numMisses == 0)
+            return labels;
+
+        long[] ids = new long[numMisses];
+        long[] offsets = new long[numMisses];
+        for (int j = 0; j < numMisses; j++) {
+            ids[j] = docIds[misses[j]];
+            offsets[j] = storeLookup.offset(ids[j]);
+        }
+
+        StoreRecord[] records = null;
+        try {
+            records = store.readStoreRecords(ids, offsets, EnumSet.of(StoreField.TITLE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (int j = 0; j < numMisses; j++) {
+            int i = misses[j];
+            StoreRecord record = records == null ? null : records[j];
+            if (record != null) {
+                labels[i - from] = record.getTitle();
+                if (storeCache != null)
+                    storeCache.put(docIds[i], labels[i - from]);
+            }
+            else {
+                labels[i - from] = docIds[i]+"";
             }
         }
 
-        return hits;
+        return labels;
+    }
+
+
+    /**
+     * Loads some of the stored fields of a range of documents, in a batch;
+     * only the columns of the fields asked for are read off the store.
+     *
+     * @param docIds
+     *     The document ids.
+     * @param from
+     *     The index of the first document to load.
+     * @param to
+     *     The index past the last document to load.
+     * @param fields
+     *     The fields to load.
+     *
+     * @return
+     *     The records of the documents, from {@code from} on, holding the
+     *     fields asked for; {@code null} for the documents not stored.
+     */
+    StoreRecord[] loadRecords(long[] docIds, int from, int to, Set<StoreField> fields) {
+        long[] ids = new long[to - from];
+        long[] offsets = new long[to - from];
+        for (int i = from; i < to; i++) {
+            ids[i - from] = docIds[i];
+            offsets[i - from] = storeLookup.offset(docIds[i]);
+        }
+
+        try {
+            return store.readStoreRecords(ids, offsets, fields);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new StoreRecord[to - from];
     }
 
 
@@ -181,8 +691,8 @@ public class QueryExecutor {
     @Override
     protected void finalize() throws Throwable {
         super.finalize();
-        postings.close();
-        store.close();
+        close();
     }
 
+
 }
@@ -1,13 +1,38 @@
 package yocto.searching;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import yocto.indexing.TokenSink;
+import yocto.indexing.parsing.wikipedia.WikiMarkupNormalizer;
+import yocto.indexing.parsing.wikipedia.WikiPageAnalyzer;
+
 /**
  * Parses string queries and constructs {@link Query} object
  * handled by the search engine.
  *
+ * A query is a sequence of terms, each either a normal term or a prefix
+ * term ending with {@code *}. Terms next to each other must all be matched;
+ * {@code OR} separates alternatives, binding looser than the implicit
+ * {@code AND}, and {@code NOT}, or a leading {@code -}, excludes the term
+ * that follows. Thus {@code a b OR c -d} is read as
+ * {@code (a AND b) OR (c AND NOT d)}. The operators are upper case, so that
+ * they cannot be mistaken for terms.
+ *
+ * Terms are lower cased and split into words the way the content of
+ * documents is, digits and underscores included, and stopwords, which are never indexed, are dropped rather
+ * than left to match nothing. A word followed by {@code *} is kept as a
+ * prefix even if a stopword. Author terms, {@code author:name}, are indexed
+ * whole and are only lower cased.
+ *
  * @author billy
  */
 public class QueryParser {
 
+    /* The prefix of the author terms. */
+    private static final String AUTHOR_PREFIX = "author:";
+
     /**
      * Constructor.
      */
@@ -21,29 +46,156 @@ public class QueryParser {
      *     The query to parse.
      *
      * @return
-     *     A {@code Query} object representing the given query.
+     *     A {@code Query} object representing the given query or {@code null}
+     *     if there are no terms in it.
      */
     public static Query parse(String query) {
         String[] tokens = query.split("[\\s]+");
-        Query q = null;
+
+        // The alternatives, each a list of the terms to match, followed by
+        // the terms to exclude.
+        List<List<Query>> required = new ArrayList<List<Query>>();
+        List<List<Query>> prohibited = new ArrayList<List<Query>>();
+        required.add(new ArrayList<Query>());
+        prohibited.add(new ArrayList<Query>());
+        boolean not = false;
 
         for (String token : tokens) {
-            token = token.toLowerCase().trim();
-            if (!token.equals("")) {
-                if(token.endsWith("*")) {
-                    token = token.substring(0, token.length() - 1);
-                    // Prefix query.
-                    q = new PrefixQuery(
-                            new QueryTerm(token));
+            token = token.trim();
+            if (token.equals("OR")) {
+                if (!required.get(required.size() - 1).isEmpty()
+                        || !prohibited.get(prohibited.size() - 1).isEmpty()) {
+                    required.add(new ArrayList<Query>());
+                    prohibited.add(new ArrayList<Query>());
                 }
-                else {
-                    // Normal query.
-                    q = new NormalQuery(
-                            new QueryTerm(token));
+                not = false;
+            }
+            else if (token.equals("AND")) {
+                // Implied.
+            }
+            else if (token.equals("NOT")) {
+                not = true;
+            }
+            else {
+                if (token.startsWith("-") && token.length() > 1) {
+                    token = token.substring(1);
+                    not = true;
                 }
+                List<Query> terms = parseTerms(token.toLowerCase());
+                if (not && terms.size() > 1)
+                    // Exclude the documents holding all the words of the term.
+                    prohibited.get(prohibited.size() - 1).add(
+                            conjunction(terms, new ArrayList<Query>()));
+                else if (not)
+                    prohibited.get(prohibited.size() - 1).addAll(terms);
+                else
+                    required.get(required.size() - 1).addAll(terms);
+                not = false;
             }
         }
 
+        List<Query> alternatives = new ArrayList<Query>();
+        for (int i = 0; i < required.size(); i++) {
+            Query q = conjunction(required.get(i), prohibited.get(i));
+            if (q != null)
+                alternatives.add(q);
+        }
+
+        if (alternatives.isEmpty())
+            return null;
+        if (alternatives.size() == 1)
+            return alternatives.get(0);
+
+        BooleanQuery q = new BooleanQuery();
+        for (Query alternative : alternatives) {
+            q.add(alternative, BooleanQuery.Occur.SHOULD);
+        }
+
+        return q;
+    }
+
+
+    /*
+     * Parses a term into the queries of its words, leaving the stopwords out.
+     */
+    private static List<Query> parseTerms(String token) {
+        List<Query> terms = new ArrayList<Query>();
+        if (token.startsWith(AUTHOR_PREFIX)) {
+            terms.add(parseTerm(token));
+            return terms;
+        }
+
+        boolean prefix = token.endsWith("*");
+        List<String> words = analyze(prefix ? token.substring(0, token.length() - 1) : token);
+        HashSet<String> stopwords = WikiPageAnalyzer.getStopwords();
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            if (prefix && i == words.size() - 1)
+                terms.add(new PrefixQuery(new QueryTerm(word)));
+            else if (!stopwords.contains(word))
+                terms.add(new NormalQuery(new QueryTerm(word)));
+        }
+
+        return terms;
+    }
+
+
+    /*
+     * Splits a term into words with the normalizer and the tokenizer of the
+     * indexer, so that digits and underscores separate words as they do in
+     * the content of documents.
+     */
+    private static List<String> analyze(String token) {
+        final List<String> words = new ArrayList<String>();
+        WikiMarkupNormalizer normalizer = WikiPageAnalyzer.getNormalizer();
+        int length = normalizer.normalizeWords(token);
+        WikiPageAnalyzer.tokenizePageRevisionText(normalizer.buffer(), 0, length, null, new TokenSink() {
+            @Override
+            public void token(char[] buffer, int offset, int length) {
+                words.add(new String(buffer, offset, length));
+            }
+        });
+
+        return words;
+    }
+
+
+    /*
+     * Parses a single term.
+     */
+    private static Query parseTerm(String token) {
+        if(token.endsWith("*")) {
+            // Prefix query.
+            return new PrefixQuery(
+                    new QueryTerm(token.substring(0, token.length() - 1)));
+        }
+
+        // Normal query.
+        return new NormalQuery(
+                new QueryTerm(token));
+    }
+
+
+    /*
+     * Combines the terms of an alternative.
+     *
+     * @return
+     *     The query or {@code null} if there are no terms at all.
+     */
+    private static Query conjunction(List<Query> required, List<Query> prohibited) {
+        if (required.isEmpty() && prohibited.isEmpty())
+            return null;
+        if (required.size() == 1 && prohibited.isEmpty())
+            return required.get(0);
+
+        BooleanQuery q = new BooleanQuery();
+        for (Query term : required) {
+            q.add(term, BooleanQuery.Occur.MUST);
+        }
+        for (Query term : prohibited) {
+            q.add(term, BooleanQuery.Occur.MUST_NOT);
+        }
+
         return q;
     }
 
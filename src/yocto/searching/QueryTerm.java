@@ -38,4 +38,34 @@ public class QueryTerm {
         return term;
     }
 
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return (term == null) ? 0 : term.hashCode();
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (this.getClass() != obj.getClass())
+            return false;
+
+        QueryTerm other = (QueryTerm) obj;
+
+        return (this.term == other.term) || (this.term != null && this.term.equals(other.term));
+    }
+
 }
@@ -0,0 +1,23 @@
+package yocto.searching;
+
+import yocto.storage.PostingsIterator;
+
+/**
+ * An iterator over the documents matching a query, scoring each.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+abstract class Scorer extends PostingsIterator {
+
+    /**
+     * Scores the current document.
+     *
+     * @return
+     *     The score; the higher, the more relevant the document. Undefined
+     *     unless positioned on a document.
+     */
+    abstract float score();
+
+}
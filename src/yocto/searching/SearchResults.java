@@ -0,0 +1,299 @@
+package yocto.searching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import yocto.storage.StoreField;
+import yocto.storage.StoreRecord;
+
+/**
+ * The results of a search query: the ids and scores of the matching
+ * documents, with their hits materialized a page at a time.
+ *
+ * A query matching millions of documents costs no more than two arrays;
+ * the stored fields of the documents are only read for the pages asked for,
+ * in a batch, and kept, in blocks of {@value #LABEL_BLOCK_SIZE} results
+ * made as their pages are asked for, for when the page is asked for again.
+ * The results must not be paged once the searcher they came from is
+ * closed.
+ *
+ * Thread-safe, so that results may be shared: the labels loaded by a thread
+ * are seen by the others. Two threads asking for the same page at once may
+ * both load it.
+ *
+ * @author billy
+ */
+public class SearchResults {
+
+    /** The number of results whose labels are kept together. */
+    static final int LABEL_BLOCK_SIZE = 64;
+
+    /* The executor of the query, to load the stored fields with. */
+    private final QueryExecutor qexec;
+
+    /* The document ids, in the order of the results. */
+    private final long[] docIds;
+
+    /* The scores, in the order of the results. */
+    private final float[] scores;
+
+    /* The number of results. */
+    private final int size;
+
+    /* The labels loaded so far, by block of results. */
+    private final ConcurrentHashMap<Integer, AtomicReferenceArray<String>> labels;
+
+
+    /*
+     * Constructor.
+     */
+    private SearchResults(QueryExecutor qexec, long[] docIds, float[] scores, int size) {
+        this.qexec = qexec;
+        this.docIds = docIds;
+        this.scores = scores;
+        this.size = size;
+        this.labels = new ConcurrentHashMap<Integer, AtomicReferenceArray<String>>();
+    }
+
+
+    /**
+     * Gets the number of results.
+     *
+     * @return
+     *     The number of results.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Gets the document id of a result.
+     *
+     * @param i
+     *     The index of the result.
+     *
+     * @return
+     *     The document id.
+     */
+    public long getDocId(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Result: " + i + ", size: " + size);
+
+        return docIds[i];
+    }
+
+
+    /**
+     * Gets the score of a result.
+     *
+     * @param i
+     *     The index of the result.
+     *
+     * @return
+     *     The score.
+     */
+    public float getScore(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Result: " + i + ", size: " + size);
+
+        return scores[i];
+    }
+
+
+    /**
+     * Gets a page of hits, loading the stored fields of the ones not loaded
+     * before.
+     *
+     * @param from
+     *     The index of the first result of the page.
+     * @param count
+     *     The number of results per page.
+     *
+     * @return
+     *     The hits of the page; fewer than {@code count} past the last
+     *     result.
+     */
+    public List<Hit> page(int from, int count) {
+        if (from < 0 || count < 0)
+            throw new IllegalArgumentException("Invalid page: " + from + ", " + count);
+
+        int to = (int) Math.min(size, (long) from + count);
+        List<Hit> hits = new ArrayList<Hit>(Math.max(0, to - from));
+        if (from >= to)
+            return hits;
+
+        // Load the labels of the page only, past the ones loaded already.
+        int start = from;
+        while (start < to && label(start) != null)
+            start++;
+        int end = to;
+        while (end > start && label(end - 1) != null)
+            end--;
+        if (start < end) {
+            String[] page = qexec.loadLabels(docIds, start, end);
+            for (int i = start; i < end; i++) {
+                setLabel(i, page[i - start]);
+            }
+        }
+
+        for (int i = from; i < to; i++) {
+            hits.add(new Hit(label(i), scores[i]));
+        }
+
+        return hits;
+    }
+
+
+    /**
+     * Reads some of the stored fields of a page of results, as to show their
+     * authors, dates or snippets. Unlike the labels, the records are read
+     * anew every time.
+     *
+     * @param from
+     *     The index of the first result of the page.
+     * @param count
+     *     The number of results per page.
+     * @param fields
+     *     The fields to read; the others are left out of the records.
+     *
+     * @return
+     *     The records of the page, {@code null} for the documents not
+     *     stored; fewer than {@code count} past the last result.
+     */
+    public List<StoreRecord> records(int from, int count, Set<StoreField> fields) {
+        if (from < 0 || count < 0)
+            throw new IllegalArgumentException("Invalid page: " + from + ", " + count);
+
+        int to = (int) Math.min(size, (long) from + count);
+        if (from >= to)
+            return new ArrayList<StoreRecord>(0);
+
+        return Arrays.asList(qexec.loadRecords(docIds, from, to, fields));
+    }
+
+
+    /**
+     * Gets all the hits.
+     *
+     * @return
+     *     The hits.
+     */
+    public List<Hit> getHits() {
+        return page(0, size);
+    }
+
+
+    /**
+     * Gets results sharing the document ids and scores of these, with no
+     * labels loaded.
+     *
+     * @return
+     *     The results.
+     */
+    SearchResults unloaded() {
+        return new SearchResults(qexec, docIds, scores, size);
+    }
+
+
+    /**
+     * Gets the number of blocks of labels made so far.
+     *
+     * @return
+     *     The number of blocks.
+     */
+    int labelBlocks() {
+        return labels.size();
+    }
+
+
+    /*
+     * Gets the label of a result, or null if not loaded.
+     */
+    private String label(int i) {
+        AtomicReferenceArray<String> block = labels.get(i / LABEL_BLOCK_SIZE);
+
+        return block == null ? null : block.get(i % LABEL_BLOCK_SIZE);
+    }
+
+
+    /*
+     * Keeps the label of a result, making its block if need be.
+     */
+    private void setLabel(int i, String label) {
+        Integer key = i / LABEL_BLOCK_SIZE;
+        AtomicReferenceArray<String> block = labels.get(key);
+        if (block == null) {
+            labels.putIfAbsent(key, new AtomicReferenceArray<String>(
+                    Math.min(LABEL_BLOCK_SIZE, size - key * LABEL_BLOCK_SIZE)));
+            block = labels.get(key);
+        }
+        block.set(i % LABEL_BLOCK_SIZE, label);
+    }
+
+
+    // -- Inner classes
+
+
+    /**
+     * Builds search results, a result at a time.
+     *
+     * Not thread-safe.
+     */
+    static final class Builder {
+
+        private final QueryExecutor qexec;
+        private long[] docIds;
+        private float[] scores;
+        private int size;
+
+
+        /**
+         * Constructor.
+         *
+         * @param qexec
+         *     The executor of the query.
+         */
+        Builder(QueryExecutor qexec) {
+            this.qexec = qexec;
+            this.docIds = new long[16];
+            this.scores = new float[16];
+        }
+
+
+        /**
+         * Adds a result.
+         *
+         * @param docId
+         *     The document id.
+         * @param score
+         *     The score.
+         */
+        void add(long docId, float score) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size << 1);
+                scores = Arrays.copyOf(scores, size << 1);
+            }
+            docIds[size] = docId;
+            scores[size] = score;
+            size++;
+        }
+
+
+        /**
+         * Builds the results.
+         *
+         * @return
+         *     The results.
+         */
+        SearchResults build() {
+            return new SearchResults(qexec, docIds, scores, size);
+        }
+
+    }
+
+}
@@ -1,40 +1,148 @@
 package yocto.searching;
 
 import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeMap;
 
 import yocto.storage.DiskManager;
+import yocto.storage.FrontCodedTermDictionary;
+import yocto.storage.FstTermDictionary;
+import yocto.storage.ImpactsReader;
+import yocto.storage.NormsReader;
+import yocto.storage.PostingsCache;
+import yocto.storage.PostingsReader;
+import yocto.storage.StoreCache;
+import yocto.storage.StoreOffsetsReader;
+import yocto.storage.StoreReader;
+import yocto.storage.TermDictionary;
 
 /**
  * The entry point class for the search engine.
  *
+ * A searcher is thread-safe and meant to be shared: any number of threads
+ * may call {@link #searchQuery(String)} at the same time, without locking.
+ * The look-up tables are loaded once, before the searcher is published,
+ * and never modified afterwards; the index and store files are read
+ * through memory mappings with positional reads, so queries share no
+ * cursor; and all per-query state lives with the calling thread. The
+ * searcher must only be closed, or reopened, once no queries are running.
+ *
+ * The results of recent queries are cached (see {@link QueryCache}), and
+ * handed out again as long as the index files are not reopened. Below them,
+ * the long postings lists of the terms queried for are kept decoded (see
+ * {@link PostingsCache}), and the labels of the documents found, off the
+ * heap (see {@link StoreCache}).
+ *
  * @author billy
  */
-public class Searcher {
+public class Searcher implements Closeable {
 
     /* Path name to postings offsets file. */
     private final String pathPostingsOffsets;
 
+    /* Path name to term index file. */
+    private final String pathPostingsTerms;
+
     /* Path name to postings file. */
     private final String pathPostings;
 
+    /* Path name to impacts file. */
+    private final String pathImpacts;
+
     /* Path name to store offsets file. */
     private final String pathStoreOffsets;
 
     /* Path name to store file. */
     private final String pathStore;
 
-    /* The query executor. */
-    private final QueryExecutor qexec;
+    /* Path name to norms file. */
+    private final String pathNorms;
+
+    /* The maximum number of terms a prefix is expanded to. */
+    private final int maxExpansions;
+
+    /* The maximum number of postings of the terms a prefix is expanded to. */
+    private final long maxExpansionPostings;
+
+    /* The cache of the results of recent queries, or null for none. */
+    private final QueryCache cache;
+
+    /* The cache of decoded postings lists, or null for none. */
+    private final PostingsCache postingsCache;
+
+    /* The cache of stored labels, or null for none. */
+    private final StoreCache storeCache;
+
+    /* The query executor, replaced on reopening. */
+    private volatile QueryExecutor qexec;
+
+
+    /**
+     * Constructor, expanding prefixes to
+     * {@link QueryExecutor#DEFAULT_MAX_EXPANSIONS} terms at most.
+     *
+     * @param indexDir
+     *     The directory of the index related files.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
+     */
+    public Searcher(
+            String indexDir) throws IOException {
+        this(indexDir, QueryExecutor.DEFAULT_MAX_EXPANSIONS);
+    }
+
+
+    /**
+     * Constructor, caching the results of up to
+     * {@link QueryCache#DEFAULT_MAX_ENTRIES} queries.
+     *
+     * @param indexDir
+     *     The directory of the index related files.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
+     */
+    public Searcher(
+            String indexDir,
+            int maxExpansions) throws IOException {
+        this(indexDir, maxExpansions, new QueryCache(
+                QueryCache.DEFAULT_MAX_ENTRIES, QueryCache.DEFAULT_MAX_BYTES));
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param indexDir
+     *     The directory of the index related files.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param cache
+     *     The cache of the results of recent queries, or {@code null} not to
+     *     cache any.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
+     */
+    public Searcher(
+            String indexDir,
+            int maxExpansions,
+            QueryCache cache) throws IOException {
+        this(indexDir, maxExpansions, cache, new PostingsCache(
+                PostingsCache.DEFAULT_MAX_BYTES, PostingsCache.DEFAULT_MIN_DOCS, false));
+    }
 
 
     /**
@@ -42,26 +150,114 @@ public class Searcher {
      *
      * @param indexDir
      *     The directory of the index related files.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param cache
+     *     The cache of the results of recent queries, or {@code null} not to
+     *     cache any.
+     * @param postingsCache
+     *     The cache of decoded postings lists, or {@code null} to decode the
+     *     lists on every query.
      *
-     * @throws FileNotFoundException
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
      */
     public Searcher(
-            String indexDir) throws FileNotFoundException {
+            String indexDir,
+            int maxExpansions,
+            QueryCache cache,
+            PostingsCache postingsCache) throws IOException {
+        this(indexDir, maxExpansions, cache, postingsCache, new StoreCache(
+                StoreCache.DEFAULT_MAX_BYTES, StoreCache.DEFAULT_SLOT_SIZE));
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param indexDir
+     *     The directory of the index related files.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param cache
+     *     The cache of the results of recent queries, or {@code null} not to
+     *     cache any.
+     * @param postingsCache
+     *     The cache of decoded postings lists, or {@code null} to decode the
+     *     lists on every query.
+     * @param storeCache
+     *     The cache of stored labels, or {@code null} to read the labels off
+     *     the store on every page of results.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
+     */
+    public Searcher(
+            String indexDir,
+            int maxExpansions,
+            QueryCache cache,
+            PostingsCache postingsCache,
+            StoreCache storeCache) throws IOException {
+        this(indexDir, maxExpansions, QueryExecutor.DEFAULT_MAX_EXPANSION_POSTINGS, cache,
+                postingsCache, storeCache);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param indexDir
+     *     The directory of the index related files.
+     * @param maxExpansions
+     *     The maximum number of terms a prefix is expanded to.
+     * @param maxExpansionPostings
+     *     The maximum number of postings of the terms a prefix is expanded
+     *     to, in all.
+     * @param cache
+     *     The cache of the results of recent queries, or {@code null} not to
+     *     cache any.
+     * @param postingsCache
+     *     The cache of decoded postings lists, or {@code null} to decode the
+     *     lists on every query.
+     * @param storeCache
+     *     The cache of stored labels, or {@code null} to read the labels off
+     *     the store on every page of results.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format.
+     */
+    public Searcher(
+            String indexDir,
+            int maxExpansions,
+            long maxExpansionPostings,
+            QueryCache cache,
+            PostingsCache postingsCache,
+            StoreCache storeCache) throws IOException {
 
         this.pathPostingsOffsets =
                 ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.INDEX_OFFSETS_FILENAME;
+        this.pathPostingsTerms =
+                ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.INDEX_TERMS_FILENAME;
         this.pathPostings =
                 ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.INDEX_FILENAME;
+        this.pathImpacts =
+                ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.INDEX_IMPACTS_FILENAME;
         this.pathStoreOffsets =
                 ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.STORE_OFFSETS_FILENAME;
         this.pathStore =
                 ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.STORE_FILENAME;
-
-        this.qexec = new QueryExecutor(
-                loadPostingsLookup(),
-                loadStoreLookup(),
-                openPostings(),
-                openStore());
+        this.pathNorms =
+                ((indexDir == null || indexDir.trim().equals("")) ? "" : indexDir + File.separator) + DiskManager.NORMS_FILENAME;
+
+        this.maxExpansions = maxExpansions;
+        this.maxExpansionPostings = maxExpansionPostings;
+        this.cache = cache;
+        this.postingsCache = postingsCache;
+        this.storeCache = storeCache;
+        this.qexec = open();
     }
 
 
@@ -76,66 +272,246 @@ public class Searcher {
      */
     public List<Hit> searchQuery(String query) {
 
+        return search(query).getHits();
+    }
+
+
+    /**
+     * Performs a search query, ranking the hits.
+     *
+     * @param query
+     *     The query.
+     * @param k
+     *     The maximum number of hits to return.
+     *
+     * @return
+     *     A list of the {@code k} hits that best satisfy the given query,
+     *     best first.
+     */
+    public List<Hit> searchQuery(String query, int k) {
+
+        return search(query, k).getHits();
+    }
+
+
+    /**
+     * Performs a search query, leaving the hits to be loaded page by page.
+     *
+     * @param query
+     *     The query.
+     *
+     * @return
+     *     The results that satisfy the given query, in document id order.
+     */
+    public SearchResults search(String query) {
+
+        return searchFirst(query, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Performs a search query, stopping at the first results, which are left
+     * to be loaded page by page.
+     *
+     * @param query
+     *     The query.
+     * @param limit
+     *     The maximum number of results.
+     *
+     * @return
+     *     The first {@code limit} results that satisfy the given query, in
+     *     document id order.
+     */
+    public SearchResults searchFirst(String query, int limit) {
+
         Query q = QueryParser.parse(query);
 
-        return qexec.execute(q);
+        return execute(q, false, limit);
     }
 
 
     /**
-     * Loads the look-up table for the index into the memory.
+     * Performs a search query, ranking the hits and leaving them to be loaded
+     * page by page.
+     *
+     * @param query
+     *     The query.
+     * @param k
+     *     The maximum number of results.
      *
      * @return
-     *     The look-up table for the postings. If an error was encountered then
-     *     an empty look-up table is returned.
+     *     The {@code k} results that best satisfy the given query, best
+     *     first.
      */
-    private TreeMap<String, Long> loadPostingsLookup() {
-        TreeMap<String, Long> lu = new TreeMap<String, Long>();
+    public SearchResults search(String query, int k) {
 
-        try (   DataInputStream dis = new DataInputStream(
-                        new BufferedInputStream(
-                                new FileInputStream(pathPostingsOffsets),
-                                2 * 1024));)
-        {
-            while (true) {
-                lu.put(dis.readUTF(), new Long(dis.readLong()));
-            }
-        } catch (EOFException eofe) {
-            // Done reading offsets file.
-        } catch (FileNotFoundException fnfe) {
-            fnfe.printStackTrace();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-        }
+        Query q = QueryParser.parse(query);
+
+        return execute(q, true, k);
+    }
+
+
+    /**
+     * Counts the results of a search query, if that is cheap, i.e. without
+     * executing the query.
+     *
+     * @param query
+     *     The query.
+     *
+     * @return
+     *     The number of results, or {@code -1} if counting them takes
+     *     executing the query.
+     */
+    public int count(String query) {
 
-        return lu;
+        return qexec.count(QueryParser.parse(query));
     }
 
 
     /**
-     * Loads the look-up table for the store into the memory.
+     * Gets the cache of the results of recent queries.
      *
      * @return
-     *     The look-up table for the store. If an error was encountered then
-     *     an empty look-up table is returned.
+     *     The cache, or {@code null} if the searcher caches none.
      */
-    private HashMap<Long, Long> loadStoreLookup() {
+    public QueryCache getQueryCache() {
+        return cache;
+    }
 
 
-        HashMap<Long, Long> lu = new HashMap<Long, Long>();
+    /**
+     * Gets the cache of decoded postings lists.
+     *
+     * @return
+     *     The cache, or {@code null} if the searcher caches none.
+     */
+    public PostingsCache getPostingsCache() {
+        return postingsCache;
+    }
 
 
+    /**
+     * Gets the cache of stored labels.
+     *
+     * @return
+     *     The cache, or {@code null} if the searcher caches none.
+     */
+    public StoreCache getStoreCache() {
+        return storeCache;
+    }
+
+
+    /**
+     * Reopens the index files, as when the index was written anew, and
+     * drops the results and labels cached so far.
+     *
+     * @throws IOException
+     *     If the index files cannot be opened or are not of a supported
+     *     format, in which case the ones open are kept.
+     */
+    public synchronized void reopen() throws IOException {
+        QueryExecutor previous = qexec;
+        qexec = open();
+        if (cache != null)
+            cache.clear();
+        if (storeCache != null)
+            storeCache.clear();
+        previous.close();
+    }
+
+
+    /**
+     * Closes the searcher and releases the index files.
+     */
+    @Override
+    public void close() {
+        qexec.close();
+    }
+
+
+    /*
+     * Executes a query, or looks its results up in the cache.
+     *
+     * @param query
+     *     The query.
+     * @param ranked
+     *     Whether to rank the results.
+     * @param n
+     *     The maximum number of results.
+     *
+     * @return
+     *     The results.
+     */
+    private SearchResults execute(Query query, boolean ranked, int n) {
+        QueryExecutor qexec = this.qexec;
+        if (cache == null || query == null)
+            return ranked ? qexec.search(query, n) : qexec.searchFirst(query, n);
+
+        SearchResults results = cache.get(query, ranked, n);
+        if (results == null) {
+            results = ranked ? qexec.search(query, n) : qexec.searchFirst(query, n);
+            cache.put(query, ranked, n, results);
+        }
+
+        return results;
+    }
+
+
+    /*
+     * Opens the index files.
+     *
+     * @return
+     *     An executor of queries over the index files.
+     *
+     * @throws IOException
+     */
+    private QueryExecutor open() throws IOException {
+
+        return new QueryExecutor(
+                loadPostingsLookup(),
+                openStoreOffsets(),
+                openPostings(),
+                openStore(),
+                openNorms(),
+                openImpacts(),
+                maxExpansions,
+                maxExpansionPostings,
+                storeCache);
+    }
+
+
+    /**
+     * Loads the look-up table for the index into the memory.
+     *
+     * The term index written along with the index is memory-mapped as is.
+     * Failing that, as for indexes written before there was one, the terms
+     * are read in order off the offsets file into a front-coded dictionary.
+     *
+     * @return
+     *     The look-up table for the postings. If an error was encountered then
+     *     the terms read so far are returned.
+     */
+    private TermDictionary loadPostingsLookup() {
+        File terms = new File(pathPostingsTerms);
+        if (terms.exists()) {
+            try {
+                return new FstTermDictionary(terms);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+
+        FrontCodedTermDictionary.Builder lu = new FrontCodedTermDictionary.Builder();
 
         try (   DataInputStream dis = new DataInputStream(
                         new BufferedInputStream(
-                                new FileInputStream(pathStoreOffsets),
+                                new FileInputStream(pathPostingsOffsets),
                                 2 * 1024));)
         {
             while (true) {
-                lu.put(new Long(dis.readLong()), new Long(dis.readLong()));
+                lu.add(dis.readUTF(), dis.readLong());
             }
-        }
-        catch (EOFException eofe) {
+        } catch (EOFException eofe) {
             // Done reading offsets file.
         } catch (FileNotFoundException fnfe) {
             fnfe.printStackTrace();
@@ -143,7 +519,7 @@ public class Searcher {
             ioe.printStackTrace();
         }
 
-        return lu;
+        return lu.build();
     }
 
 
@@ -151,19 +527,29 @@ public class Searcher {
      * Opens the postings file.
      *
      * @return
-     *     A reference to the postings file.
+     *     A reader of the memory-mapped postings file.
+     *
+     * @throws IOException
      */
-    private RandomAccessFile openPostings() {
+    private PostingsReader openPostings() throws IOException {
 
-        RandomAccessFile raf = null;
+        return new PostingsReader(new File(pathPostings), postingsCache);
+    }
 
-        try {
-            raf = new RandomAccessFile(pathPostings, "r");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
 
-        return raf;
+    /*
+     * Opens the store offsets file.
+     *
+     * The offsets are looked up in place rather than loaded into the memory.
+     *
+     * @return
+     *     A reader of the memory-mapped store offsets file.
+     *
+     * @throws IOException
+     */
+    private StoreOffsetsReader openStoreOffsets() throws IOException {
+
+        return new StoreOffsetsReader(new File(pathStoreOffsets));
     }
 
 
@@ -171,19 +557,49 @@ public class Searcher {
      * Opens the store file.
      *
      * @return
-     *     A reference to the store file.
+     *     A reader of the memory-mapped store file.
+     *
+     * @throws IOException
      */
-    private RandomAccessFile openStore() {
+    private StoreReader openStore() throws IOException {
 
-        RandomAccessFile raf = null;
+        return new StoreReader(new File(pathStore));
+    }
 
-        try {
-            raf = new RandomAccessFile(pathStore, "r");
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
 
-        return raf;
+    /*
+     * Opens the norms file.
+     *
+     * @return
+     *     A reader of the memory-mapped norms file, or null if the index has
+     *     no norms, as for indexes written before there were any.
+     *
+     * @throws IOException
+     */
+    private NormsReader openNorms() throws IOException {
+        File norms = new File(pathNorms);
+        if (!norms.exists())
+            return null;
+
+        return new NormsReader(norms);
+    }
+
+
+    /*
+     * Opens the impacts file.
+     *
+     * @return
+     *     A reader of the memory-mapped impacts file, or null if the index
+     *     has none, as for indexes written before there were any.
+     *
+     * @throws IOException
+     */
+    private ImpactsReader openImpacts() throws IOException {
+        File impacts = new File(pathImpacts);
+        if (!impacts.exists())
+            return null;
+
+        return new ImpactsReader(impacts);
     }
 
 }
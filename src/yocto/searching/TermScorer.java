@@ -0,0 +1,192 @@
+package yocto.searching;
+
+import yocto.storage.Impacts;
+import yocto.storage.NormsReader;
+import yocto.storage.PostingsIterator;
+
+/**
+ * A scorer over the postings of a single term.
+ *
+ * Along with the scores of its documents it bounds them, for the whole list
+ * and for the block of postings a document falls in, off the impacts of
+ * the list, when recorded; the former off those stored for the whole list,
+ * rather than walking its blocks. Lists without impacts make a single block,
+ * bounded by the highest score the term may reach.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class TermScorer extends Scorer {
+
+    /* The postings of the term. */
+    private final PostingsIterator postings;
+
+    /* The inverse document frequency of the term. */
+    private final float idf;
+
+    /* The ranking function. */
+    private final BM25Similarity similarity;
+
+    /* The norms of the documents, or null if there are none. */
+    private final NormsReader norms;
+
+    /* The cursor over the impacts of the term, or null if there are none. */
+    private final Impacts impacts;
+
+    /* The bound of the scores of all the documents. */
+    private final float maxScore;
+
+
+    /**
+     * Constructor, for a term without impacts.
+     *
+     * @param postings
+     *     The postings of the term, not moved yet.
+     * @param idf
+     *     The inverse document frequency of the term.
+     * @param similarity
+     *     The ranking function.
+     * @param norms
+     *     The norms of the documents, or {@code null} if there are none.
+     */
+    TermScorer(PostingsIterator postings, float idf, BM25Similarity similarity,
+            NormsReader norms) {
+        this(postings, idf, similarity, norms, null);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param postings
+     *     The postings of the term, not moved yet.
+     * @param idf
+     *     The inverse document frequency of the term.
+     * @param similarity
+     *     The ranking function.
+     * @param norms
+     *     The norms of the documents, or {@code null} if there are none.
+     * @param impacts
+     *     A cursor over the impacts of the term, not moved yet, or
+     *     {@code null} if there are none.
+     */
+    TermScorer(PostingsIterator postings, float idf, BM25Similarity similarity,
+            NormsReader norms, Impacts impacts) {
+        this.postings = postings;
+        this.idf = idf;
+        this.similarity = similarity;
+        this.norms = norms;
+        this.impacts = impacts;
+
+        if (impacts == null)
+            this.maxScore = similarity.maxScore(idf);
+        else
+            this.maxScore = similarity.maxScore(idf, impacts.listMaxFreq(), impacts.listMinNorm());
+    }
+
+
+    /**
+     * Bounds the scores of all the documents of the term.
+     *
+     * @return
+     *     The upper bound.
+     */
+    float maxScore() {
+        return maxScore;
+    }
+
+
+    /**
+     * Moves the bounds to the block a target document id falls in, without
+     * moving the postings.
+     *
+     * @param target
+     *     The target document id; not less than the ones before.
+     *
+     * @return
+     *     The last document id of the block, {@link #NO_MORE_DOCS} if the
+     *     block is the last one.
+     */
+    long advanceShallow(long target) {
+        if (impacts == null)
+            return NO_MORE_DOCS;
+
+        return impacts.advanceShallow(target);
+    }
+
+
+    /**
+     * Bounds the scores of the documents of the block moved to by
+     * {@link #advanceShallow(long)}.
+     *
+     * @return
+     *     The upper bound.
+     */
+    float blockMaxScore() {
+        if (impacts == null)
+            return maxScore;
+
+        return similarity.maxScore(idf, impacts.maxFreq(), impacts.minNorm());
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.searching.Scorer#score()
+     */
+    @Override
+    float score() {
+        int norm = norms == null ? 0 : norms.norm(postings.docId());
+
+        return similarity.score(idf, postings.freq(), norm);
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#docId()
+     */
+    @Override
+    public long docId() {
+        return postings.docId();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#freq()
+     */
+    @Override
+    public int freq() {
+        return postings.freq();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#nextDoc()
+     */
+    @Override
+    public long nextDoc() {
+        return postings.nextDoc();
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#advance(long)
+     */
+    @Override
+    public long advance(long target) {
+        return postings.advance(target);
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsIterator#size()
+     */
+    @Override
+    public int size() {
+        return postings.size();
+    }
+
+}
@@ -0,0 +1,112 @@
+package yocto.searching;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the best scoring documents of a query, in a bounded min-heap.
+ *
+ * Documents are expected in increasing id order, so that of two documents
+ * of equal score the one collected first, of the lower id, is kept.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class TopKCollector {
+
+    /* The maximum number of documents kept. */
+    private final int k;
+
+    /* The best documents so far, worst on top. */
+    private final PriorityQueue<ScoreDoc> top;
+
+
+    /**
+     * Constructor.
+     *
+     * @param k
+     *     The maximum number of documents kept; positive.
+     */
+    TopKCollector(int k) {
+        this.k = k;
+        this.top = new PriorityQueue<ScoreDoc>(k,
+                new Comparator<ScoreDoc>() {
+                    @Override
+                    public int compare(ScoreDoc a, ScoreDoc b) {
+                        int c = Float.compare(a.score, b.score);
+                        return c != 0 ? c : Long.compare(b.docId, a.docId);
+                    }
+                });
+    }
+
+
+    /**
+     * Gets the score a document has to beat to be kept.
+     *
+     * @return
+     *     The score of the worst document kept, once full, or negative
+     *     infinity.
+     */
+    float threshold() {
+        return top.size() < k ? Float.NEGATIVE_INFINITY : top.peek().score;
+    }
+
+
+    /**
+     * Collects a document.
+     *
+     * @param docId
+     *     The document id; greater than the ones collected before.
+     * @param score
+     *     The score.
+     */
+    void collect(long docId, float score) {
+        if (top.size() < k) {
+            top.add(new ScoreDoc(docId, score));
+        }
+        else if (score > top.peek().score) {
+            ScoreDoc worst = top.poll();
+            worst.docId = docId;
+            worst.score = score;
+            top.add(worst);
+        }
+    }
+
+
+    /**
+     * Gets the documents kept.
+     *
+     * @return
+     *     The documents, best first; hits of equal score in document id
+     *     order. Empties the collector.
+     */
+    ScoreDoc[] topDocs() {
+        ScoreDoc[] best = new ScoreDoc[top.size()];
+        for (int i = best.length - 1; i >= 0; i--) {
+            best[i] = top.poll();
+        }
+
+        return best;
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * A document and its score.
+     */
+    static final class ScoreDoc {
+
+        long docId;
+        float score;
+
+        ScoreDoc(long docId, float score) {
+            this.docId = docId;
+            this.score = score;
+        }
+
+    }
+
+}
@@ -0,0 +1,470 @@
+package yocto.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * A postings codec packing the document ids in fixed blocks, with skip data.
+ *
+ * The document ids are cut into blocks of {@value #BLOCK_SIZE}. The gaps
+ * between the ids of a full block are written frame-of-reference style: the
+ * smallest gap, then every gap minus the smallest one packed in as many bits
+ * as the largest of them needs. The term frequencies minus one follow,
+ * packed the same way; a block where the term occurs once in every document
+ * takes a single byte for them. The last, partial block is written as
+ * variable-byte postings, as by the {@link VBytePostingsCodec}.
+ *
+ * The payload starts with a skip table holding, for every block, the last
+ * document id of the block (as a gap from the previous one) and the length
+ * of the block in bytes:
+ *
+ * {@code [VInt skip table length][(VLong last id gap, VInt block length)*][block*]}
+ *
+ * so that an iterator moving to a target document id walks the skip table
+ * and only decodes the block the target falls in. Blocks are decoded whole,
+ * in tight loops over a reusable buffer. Lists shorter than a block, which
+ * is most of them, have nothing to skip and are written as bare
+ * variable-byte postings.
+ *
+ * @author billy
+ */
+final class BlockPostingsCodec extends PostingsCodec {
+
+    /** The id of the codec. */
+    static final int ID = 2;
+
+    /** The number of document ids in a full block. */
+    static final int BLOCK_SIZE = 128;
+
+
+    /**
+     * Constructor.
+     */
+    BlockPostingsCodec() {
+        super(ID, "block");
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsCodec#encode(yocto.indexing.PostingsList, java.io.DataOutput)
+     */
+    @Override
+    protected void encode(PostingsList postings, DataOutput out) throws IOException {
+        int size = postings.size();
+
+        if (size < BLOCK_SIZE) {
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long docId = postings.getDocId(i);
+                VBytePostingsCodec.writePosting(out, docId - previous, postings.getFreq(i));
+                previous = docId;
+            }
+            return;
+        }
+
+        ByteArrayOutputStream skipBytes = new ByteArrayOutputStream();
+        DataOutputStream skips = new DataOutputStream(skipBytes);
+        ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        DataOutputStream blocks = new DataOutputStream(blockBytes);
+
+        long[] gaps = new long[BLOCK_SIZE];
+        long[] freqs = new long[BLOCK_SIZE];
+        long previous = 0;
+        for (int start = 0; start < size; start += BLOCK_SIZE) {
+            int blockSize = Math.min(BLOCK_SIZE, size - start);
+            long blockPrevious = previous;
+            for (int i = 0; i < blockSize; i++) {
+                long docId = postings.getDocId(start + i);
+                gaps[i] = docId - previous;
+                freqs[i] = postings.getFreq(start + i);
+                previous = docId;
+            }
+
+            int blockStart = blocks.size();
+            if (blockSize == BLOCK_SIZE) {
+                writePackedBlock(blocks, gaps);
+                writePackedFreqs(blocks, freqs);
+            }
+            else
+                for (int i = 0; i < blockSize; i++)
+                    VBytePostingsCodec.writePosting(blocks, gaps[i], (int) freqs[i]);
+
+            writeVLong(skips, previous - blockPrevious);
+            writeVInt(skips, blocks.size() - blockStart);
+        }
+
+        writeVInt(out, skips.size());
+        out.write(skipBytes.toByteArray());
+        out.write(blockBytes.toByteArray());
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsCodec#iterator(java.nio.ByteBuffer, int, int, int)
+     */
+    @Override
+    public PostingsIterator iterator(ByteBuffer payload, int offset, int length, int count) {
+        return new BlockPostingsIterator(payload, offset, count);
+    }
+
+
+    /*
+     * Writes a full block of gaps, frame-of-reference packed.
+     */
+    private static void writePackedBlock(DataOutput out, long[] gaps) throws IOException {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            min = Math.min(min, gaps[i]);
+        long max = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            max |= gaps[i] - min;
+
+        int bits = bitsRequired(max);
+        out.writeByte(bits);
+        writeVLong(out, min);
+
+        if (bits == 64) {
+            for (int i = 0; i < BLOCK_SIZE; i++)
+                out.writeLong(gaps[i] - min);
+            return;
+        }
+
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            acc |= (gaps[i] - min) << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                out.writeByte((int) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+        // A block of 128 values always ends on a byte boundary.
+    }
+
+
+    /*
+     * Writes the term frequencies of a full block, less one, packed.
+     */
+    private static void writePackedFreqs(DataOutput out, long[] freqs) throws IOException {
+        long max = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++)
+            max |= freqs[i] - 1;
+
+        int bits = bitsRequired(max);
+        out.writeByte(bits);
+
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < BLOCK_SIZE && bits > 0; i++) {
+            acc |= (freqs[i] - 1) << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                out.writeByte((int) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+    }
+
+
+    /*
+     * Gets the number of bits a packed value takes. Widths over 56 bits
+     * would not fit the packing accumulator, so they are rounded up to 64.
+     */
+    private static int bitsRequired(long max) {
+        int bits = 64 - Long.numberOfLeadingZeros(max);
+
+        return bits > 56 ? 64 : bits;
+    }
+
+
+    /*
+     * Writes a non-negative long in variable-byte format.
+     */
+    private static void writeVLong(DataOutput out, long l) throws IOException {
+        while ((l & ~0x7fL) != 0) {
+            out.writeByte((int) ((l & 0x7f) | 0x80));
+            l >>>= 7;
+        }
+        out.writeByte((int) l);
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * An iterator walking the skip table and decoding one block at a time.
+     */
+    private static final class BlockPostingsIterator extends PostingsIterator {
+
+        /* The payload, read with absolute gets only. */
+        private final ByteBuffer payload;
+        private final int count;
+        private final int numBlocks;
+
+        /* The position of the next skip entry. */
+        private int skipPos;
+
+        /* The position of the next block. */
+        private int nextBlockPos;
+
+        /* The current block. */
+        private int block = -1;
+        private int blockPos;
+        private long blockLast;
+        private long blockPrevious;
+        private boolean decoded;
+
+        /* The document ids of the current block, once decoded. */
+        private final long[] buffer = new long[BLOCK_SIZE];
+
+        /* The term frequencies of the current block, once decoded. */
+        private final int[] freqBuffer = new int[BLOCK_SIZE];
+        private int bufferSize;
+        private int bufferIndex;
+
+        private long doc = -1;
+
+
+        BlockPostingsIterator(ByteBuffer payload, int offset, int count) {
+            this.payload = payload;
+            this.count = count;
+            this.numBlocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+            if (count < BLOCK_SIZE) {
+                // A single block and no skip table.
+                this.nextBlockPos = offset;
+            }
+            else {
+                this.skipPos = offset;
+                int skipLength = readVInt();
+                this.nextBlockPos = skipPos + skipLength;
+            }
+        }
+
+
+        @Override
+        public long docId() {
+            return doc;
+        }
+
+
+        @Override
+        public int freq() {
+            return freqBuffer[bufferIndex];
+        }
+
+
+        @Override
+        public long nextDoc() {
+            if (decoded && bufferIndex + 1 < bufferSize)
+                return doc = buffer[++bufferIndex];
+
+            if (!nextBlock())
+                return doc = NO_MORE_DOCS;
+            decodeBlock();
+
+            return doc = buffer[bufferIndex = 0];
+        }
+
+
+        @Override
+        public long advance(long target) {
+            if (block < 0 || target > blockLast) {
+                // Skip whole blocks without decoding them.
+                do {
+                    if (!nextBlock())
+                        return doc = NO_MORE_DOCS;
+                } while (target > blockLast);
+            }
+            if (!decoded) {
+                decodeBlock();
+                bufferIndex = -1;
+            }
+
+            // Gallop ahead from the current document, then binary search the
+            // last stride.
+            int lo = bufferIndex + 1;
+            int step = 1;
+            int hi = lo;
+            while (hi < bufferSize && buffer[hi] < target) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, bufferSize - 1);
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (buffer[mid] < target)
+                    lo = mid + 1;
+                else
+                    hi = mid - 1;
+            }
+            bufferIndex = lo;
+
+            // Only a list without skip data may run out within the block.
+            return doc = bufferIndex < bufferSize ? buffer[bufferIndex] : NO_MORE_DOCS;
+        }
+
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+
+        /*
+         * Moves to the next block by its skip entry.
+         */
+        private boolean nextBlock() {
+            if (block + 1 >= numBlocks)
+                return false;
+
+            block++;
+            decoded = false;
+
+            if (count < BLOCK_SIZE) {
+                blockPrevious = 0;
+                blockLast = NO_MORE_DOCS;
+                blockPos = nextBlockPos;
+                return true;
+            }
+
+            blockPrevious = blockLast;
+            blockLast += readVLong();
+            blockPos = nextBlockPos;
+            nextBlockPos += readVInt();
+
+            return true;
+        }
+
+
+        /*
+         * Decodes the current block into the buffer.
+         */
+        private void decodeBlock() {
+            int pos = blockPos;
+            long previous = blockPrevious;
+
+            if (block < numBlocks - 1 || count % BLOCK_SIZE == 0) {
+                int bits = payload.get(pos++);
+                long min = 0;
+                byte b;
+                int shift = 0;
+                do {
+                    b = payload.get(pos++);
+                    min |= (b & 0x7fL) << shift;
+                    shift += 7;
+                } while (b < 0);
+
+                if (bits == 64) {
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        long gap = 0;
+                        for (int j = 0; j < 8; j++)
+                            gap = (gap << 8) | (payload.get(pos++) & 0xffL);
+                        buffer[i] = previous += gap + min;
+                    }
+                }
+                else {
+                    long mask = (1L << bits) - 1;
+                    long acc = 0;
+                    int accBits = 0;
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        while (accBits < bits) {
+                            acc |= (payload.get(pos++) & 0xffL) << accBits;
+                            accBits += 8;
+                        }
+                        buffer[i] = previous += (acc & mask) + min;
+                        acc >>>= bits;
+                        accBits -= bits;
+                    }
+                }
+
+                int freqBits = payload.get(pos++);
+                if (freqBits == 0) {
+                    for (int i = 0; i < BLOCK_SIZE; i++)
+                        freqBuffer[i] = 1;
+                }
+                else {
+                    long mask = (1L << freqBits) - 1;
+                    long acc = 0;
+                    int accBits = 0;
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        while (accBits < freqBits) {
+                            acc |= (payload.get(pos++) & 0xffL) << accBits;
+                            accBits += 8;
+                        }
+                        freqBuffer[i] = (int) (acc & mask) + 1;
+                        acc >>>= freqBits;
+                        accBits -= freqBits;
+                    }
+                }
+                bufferSize = BLOCK_SIZE;
+            }
+            else {
+                bufferSize = count - block * BLOCK_SIZE;
+                for (int i = 0; i < bufferSize; i++) {
+                    long code = 0;
+                    byte b;
+                    int shift = 0;
+                    do {
+                        b = payload.get(pos++);
+                        code |= (b & 0x7fL) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    buffer[i] = previous += code >>> 1;
+
+                    if ((code & 1) != 0) {
+                        freqBuffer[i] = 1;
+                    }
+                    else {
+                        int freq = 0;
+                        shift = 0;
+                        do {
+                            b = payload.get(pos++);
+                            freq |= (b & 0x7f) << shift;
+                            shift += 7;
+                        } while (b < 0);
+                        freqBuffer[i] = freq;
+                    }
+                }
+            }
+
+            decoded = true;
+        }
+
+
+        private int readVInt() {
+            byte b = payload.get(skipPos++);
+            int i = b & 0x7f;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = payload.get(skipPos++);
+                i |= (b & 0x7f) << shift;
+            }
+
+            return i;
+        }
+
+
+        private long readVLong() {
+            byte b = payload.get(skipPos++);
+            long l = b & 0x7fL;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = payload.get(skipPos++);
+                l |= (b & 0x7fL) << shift;
+            }
+
+            return l;
+        }
+
+    }
+
+}
@@ -2,6 +2,7 @@ package yocto.storage;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -10,27 +11,25 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
-import yocto.indexing.Posting;
+import yocto.indexing.PostingsList;
 
 /**
  * The underlying persistence storage management class.
@@ -42,16 +41,22 @@ public class DiskManager {
     /* The buffer for writing. */
     private static final int OUT_BUFF_SIZE = 8 * 1024;
 
-    /* The buffer for reading. */
-    private static final int IN_BUFF_SIZE = 4 * 1024;
+    /** The default number of segments merged at once. */
+    public static final int DEFAULT_MERGE_FACTOR = 10;
+
+    /** The default number of merges that may run at the same time. */
+    public static final int DEFAULT_MERGE_THREADS = 1;
 
     /* The file naming. */
     public static final String INDEX_FILENAME = "indx";
     public static final String INDEX_OFFSETS_FILENAME = "indx.off";
+    public static final String INDEX_TERMS_FILENAME = "indx.fst";
+    public static final String INDEX_IMPACTS_FILENAME = "indx.imp";
     public static final String SEGMENT_FILENAME = "_seg.";
     public static final String SEGMENT_OFFSETS_FILENAME = "_seg.off.";
     public static final String STORE_FILENAME = "stor";
     public static final String STORE_OFFSETS_FILENAME = "stor.off";
+    public static final String NORMS_FILENAME = "norm";
 
     /* The pathname to the index file. */
     private final String pathnameIndex;
@@ -59,6 +64,12 @@ public class DiskManager {
     /* The pathname to the index offsets file. */
     private final String pathnameIndexOffsets;
 
+    /* The pathname to the term index file. */
+    private final String pathnameIndexTerms;
+
+    /* The pathname to the impacts file. */
+    private final String pathnameIndexImpacts;
+
     /*
      * The pathname to a segment file. The manager appends an id number for a
      * specific file.
@@ -77,6 +88,9 @@ public class DiskManager {
     /* The pathname to the store offsets file. */
     private final String pathnameStoreOffsets;
 
+    /* The pathname to the norms file. */
+    private final String pathnameNorms;
+
     /*
      * The number of processed segments. Used for naming. Accessed by both the
      * main inverting thread and the background merging worker thread thus
@@ -85,20 +99,34 @@ public class DiskManager {
     private final AtomicInteger numSegments;
 
     /*
-     * The queue where the producing, inverting main thread offers new segments.
-     * This is from where new merging tasks are created.
+     * The segments not currently being merged, where the producing,
+     * inverting threads offer new segments. This is from where new merging
+     * tasks are created. Guarded by this manager's lock.
      */
-    private final Queue<Segment> segments;
+    private final List<Segment> segments;
 
-    /* The thread manager for segment merges */
-    private final ExecutorService merger;
+    /* Decides which segments are merged together. */
+    private final MergePolicy mergePolicy;
 
-    /* A Queue of futures for the submitted threads. */
-    private final Queue<Future<?>> futures;
+    /* Runs the merges. */
+    private final MergeScheduler mergeScheduler;
+
+    /* The codec the postings are written with. */
+    private final PostingsCodec codec;
 
     /* The offset for the store file */
     private long storeOffset = 0;
 
+    /* The number of documents stored. */
+    private long numStoreDocs = 0;
+
+    /*
+     * The number of documents and the sum of their lengths, for the header
+     * of the norms file. Guarded by this manager's lock, as is the file.
+     */
+    private long numNormsDocs = 0;
+    private long normsTotalLength = 0;
+
 
     /**
      * Constructor.
@@ -107,6 +135,54 @@ public class DiskManager {
      *     The directory to store.
      */
     public DiskManager(String dir) {
+        this(dir, PostingsCodec.VBYTE);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     *     The directory to store.
+     * @param codec
+     *     The codec to write the postings with.
+     */
+    public DiskManager(String dir, PostingsCodec codec) {
+        this(dir, codec, DEFAULT_MERGE_FACTOR);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     *     The directory to store.
+     * @param codec
+     *     The codec to write the postings with.
+     * @param mergeFactor
+     *     The number of segments merged at once, in a single pass. The more,
+     *     the fewer times postings are rewritten and the more files are open
+     *     during a merge.
+     */
+    public DiskManager(String dir, PostingsCodec codec, int mergeFactor) {
+        this(dir, codec, new TieredMergePolicy(mergeFactor), DEFAULT_MERGE_THREADS);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param dir
+     *     The directory to store.
+     * @param codec
+     *     The codec to write the postings with.
+     * @param mergePolicy
+     *     Decides which segments are merged together.
+     * @param mergeThreads
+     *     The number of merges that may run at the same time.
+     */
+    public DiskManager(String dir, PostingsCodec codec, MergePolicy mergePolicy,
+            int mergeThreads) {
         File d = new File(dir);
         if( !d.exists() )
             d.mkdirs();
@@ -115,10 +191,16 @@ public class DiskManager {
                 ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + INDEX_FILENAME;
         this.pathnameIndexOffsets =
                 ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + INDEX_OFFSETS_FILENAME;
+        this.pathnameIndexTerms =
+                ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + INDEX_TERMS_FILENAME;
+        this.pathnameIndexImpacts =
+                ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + INDEX_IMPACTS_FILENAME;
         this.pathnameStore =
                 ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + STORE_FILENAME;
         this.pathnameStoreOffsets =
                 ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + STORE_OFFSETS_FILENAME;
+        this.pathnameNorms =
+                ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + NORMS_FILENAME;
         this.pathnameSegment =
                 ((dir == null || dir.trim().equals("")) ? "" : dir + File.separator) + SEGMENT_FILENAME;
         this.pathnameSegmentOffsets =
@@ -126,13 +208,11 @@ public class DiskManager {
 
         this.numSegments = new AtomicInteger();
 
-        // To reduce I/O favour smaller segments over bigger ones.
-        this.segments = new PriorityBlockingQueue<Segment>();
-
-        // Currently one merging thread.
-        this.merger = Executors.newSingleThreadExecutor();
+        this.segments = new ArrayList<Segment>();
+        this.mergePolicy = mergePolicy;
+        this.mergeScheduler = new MergeScheduler(mergeThreads);
 
-        this.futures = new LinkedList<Future<?>>();
+        this.codec = codec;
     }
 
 
@@ -147,58 +227,144 @@ public class DiskManager {
      * Closes the disk manager. This will block until all threads have concluded.
      */
     public void close() {
-        while (!futures.isEmpty() ) {
-//            System.out.println(futures.size());
-            try {
-                futures.remove().get();
-            }
-            catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+        try {
+            mergeScheduler.sync();
+
+            // Merge whatever segments are left into the final index.
+            List<Segment> rest;
+            synchronized (this) {
+                rest = mergePolicy.findFinalMerge(segments);
+                segments.removeAll(rest);
             }
+            if (!rest.isEmpty())
+                new MergeTask(rest, this).run();
+
+            mergeScheduler.close();
         }
+        finally {
+            // All merges are done; whatever segment is left is the final index.
+            Segment last;
+            synchronized (this) {
+                last = segments.isEmpty() ? null : segments.remove(0);
+            }
+            if (last != null) {
+                try {
+                    Path source = last.getOffsets().toPath();
+                    Path target = Paths.get(pathnameIndexOffsets);
+                    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    source = last.getPostings().toPath();
+                    target = Paths.get(pathnameIndex);
+                    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+
+                    writeTermIndex();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
 
-        merger.shutdown(); // Disable new tasks from being submitted
+            writeNormsHeader();
 
-        try {
-            // Wait a while for existing tasks to terminate
-            if (!merger.awaitTermination(60, TimeUnit.SECONDS)) {
-                merger.shutdownNow(); // Cancel currently executing tasks
-                // Wait a while for tasks to respond to being cancelled
-                if (!merger.awaitTermination(60, TimeUnit.SECONDS)) {
-                    System.err.println("Pool did not terminate.");
+            if (last != null) {
+                try {
+                    writeImpacts();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
         }
-        catch (InterruptedException ie) {
-            ie.printStackTrace();
+    }
+
 
-            // (Re-)Cancel if current thread also interrupted
-            merger.shutdownNow();
-            // Preserve interrupt status
-            Thread.currentThread().interrupt();
+    /*
+     * Writes the impacts of the final index: the score upper bounds of its
+     * longer postings lists, block by block, for ranked queries to skip
+     * the blocks that cannot compete. Needs the norms to be complete.
+     *
+     * @throws IOException
+     *     When unable to read the index or write the impacts.
+     */
+    private void writeImpacts() throws IOException {
+        long start = System.nanoTime();
+
+        File normsFile = new File(pathnameNorms);
+        NormsReader norms = normsFile.exists() && numNormsDocs > 0
+                ? new NormsReader(normsFile) : null;
+        ImpactsReader.Builder builder = new ImpactsReader.Builder();
+        try (   PostingsReader postings = new PostingsReader(new File(pathnameIndex));
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(pathnameIndexOffsets), OUT_BUFF_SIZE)))
+        {
+            PostingsOffsetsRecord r;
+            while ((r = readPostingsOffsetsRecord(dis)) != null) {
+                builder.add(r.getOffset(), postings.postings(r.getOffset()), norms);
+            }
         }
         finally {
-            try {
-                Path source = Paths.get(pathnameSegmentOffsets + (numSegments.get() - 1));
-                Path target = Paths.get(pathnameIndexOffsets);
-                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
-                source = Paths.get(pathnameSegment + (numSegments.get() - 1));
-                target = Paths.get(pathnameIndex);
-                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (norms != null)
+                norms.close();
+        }
+        builder.save(new File(pathnameIndexImpacts));
+
+        System.out.println("Impacts complete [size(MB): "
+                + String.format("%5.2f", new File(pathnameIndexImpacts).length() / (1024.0 * 1024.0))
+                + " | time(s): " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + "].");
+    }
+
+
+    /*
+     * Writes the header of the norms file, once all norms are in.
+     */
+    private synchronized void writeNormsHeader() {
+        if (numNormsDocs == 0)
+            return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(pathnameNorms, "rw")) {
+            raf.writeInt(NormsReader.MAGIC);
+            raf.writeInt(NormsReader.VERSION);
+            raf.writeLong(numNormsDocs);
+            raf.writeLong(normsTotalLength);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /*
+     * Writes the term index of the final index: a transducer of its terms
+     * to their postings offsets, for the searcher to map rather than load.
+     *
+     * @throws IOException
+     *     When unable to read the index offsets or write the term index.
+     */
+    private void writeTermIndex() throws IOException {
+        long start = System.nanoTime();
+
+        FstTermDictionary.Builder builder = new FstTermDictionary.Builder();
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(pathnameIndexOffsets), OUT_BUFF_SIZE))) {
+            PostingsOffsetsRecord r;
+            while ((r = readPostingsOffsetsRecord(dis)) != null) {
+                builder.add(r.getTerm(), r.getOffset());
             }
         }
+        builder.save(new File(pathnameIndexTerms));
+
+        System.out.println("Term index complete [size(MB): "
+                + String.format("%5.2f", new File(pathnameIndexTerms).length() / (1024.0 * 1024.0))
+                + " | time(s): " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + "].");
     }
 
 
     /**
      * Persisting index to disk.
      *
+     * May be called concurrently by several inverting threads, each with its
+     * own in-memory index.
+     *
      * @param index
      *     The in-memory index to persist.
      */
-    public void writeIndexSegment(TreeMap<String, TreeSet<Posting>> index) {
+    public void writeIndexSegment(TreeMap<String, PostingsList> index) {
         int i = numSegments.getAndIncrement();
         Segment segment = new Segment(
                 new File(pathnameSegmentOffsets + i),
@@ -220,8 +386,8 @@ public class DiskManager {
 
             Set<String> terms = index.keySet();
             Iterator<String> iter = terms.iterator();
-            TreeSet<Posting> termPostings;
-            long offset = 0;
+            PostingsList termPostings;
+            long offset = PostingsCodec.writeHeader(dosSegment, codec);
             String term = "";
             while (iter.hasNext()) {
                 term = iter.next();
@@ -232,23 +398,71 @@ public class DiskManager {
                 PostingsRecord pr = new PostingsRecord(termPostings.size(), termPostings);
                 // The data concerning the next term will be written
                 // to segment file starting from here.
-                offset += writePostingsRecord(dosSegment, pr);
+                offset += writePostingsRecord(dosSegment, pr, codec);
 
             } // -- for all terms
 
-            segments.offer(segment);
-
-            if (segments.size() >= 2) {
-                futures.add(merger.submit(new MergeTask(segments.poll(), segments.poll(), this)));
-            }
-
-            // clear the in-memory index since persisted on disk.
-            // TODO maybe this is a POB if multi-threaded.
-//            index.clear();
         } catch (FileNotFoundException fnfe) {
             fnfe.printStackTrace();
+            return;
         } catch (IOException ioe) {
             ioe.printStackTrace();
+            return;
+        }
+
+        // Only offered once its files are complete and closed.
+        offerSegment(segment);
+    }
+
+
+    /**
+     * Writes the norms of a batch of documents.
+     *
+     * The norms file is addressed by document id, so batches may be written
+     * in any order. Since the documents of concurrent batches interleave,
+     * the range of the file a batch spans is read, updated and written back,
+     * under this manager's lock. The first batch truncates whatever norms
+     * file an earlier run left behind.
+     *
+     * @param docIds
+     *     The ids of the documents.
+     * @param lengths
+     *     The lengths of the documents, in tokens.
+     * @param count
+     *     The number of documents.
+     */
+    public synchronized void writeNorms(long[] docIds, int[] lengths, int count) {
+        if (count == 0)
+            return;
+
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, docIds[i]);
+            max = Math.max(max, docIds[i]);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(pathnameNorms, "rw")) {
+            if (numNormsDocs == 0)
+                raf.setLength(NormsReader.HEADER_LENGTH);
+
+            long start = NormsReader.HEADER_LENGTH + min;
+            byte[] norms = new byte[(int) (max - min + 1)];
+            if (start < raf.length()) {
+                raf.seek(start);
+                raf.readFully(norms, 0, (int) Math.min(norms.length, raf.length() - start));
+            }
+
+            for (int i = 0; i < count; i++) {
+                norms[(int) (docIds[i] - min)] = NormsReader.encodeLength(lengths[i]);
+                normsTotalLength += lengths[i];
+            }
+            numNormsDocs += count;
+
+            raf.seek(start);
+            raf.write(norms);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -258,48 +472,201 @@ public class DiskManager {
      *
      * The store file is not fragmented and merged because we assume that
      * the documents are assigned a monotonically increasing id number.
+     *
+     * The documents are written in blocks of about
+     * {@link StoreReader#BLOCK_SIZE} bytes, a column per field, each
+     * compressed on its own, and a record of their first document id and
+     * offset is appended to the store offsets file per block (see
+     * {@link StoreReader}). The last block of a batch is not filled up by
+     * the next one. The first batch truncates whatever store files an
+     * earlier run left behind.
+     *
+     * @param store
+     *     The stored fields, by document id, in ascending order.
      */
-    public void appendStore(LinkedHashMap<Long, String> store) {
+    public void appendStore(LinkedHashMap<Long, StoreRecord> store) {
+        if (store.isEmpty())
+            return;
 
+        boolean first = storeOffset == 0;
+        Deflater deflater = new Deflater();
         try (   DataOutputStream dosStore = new DataOutputStream(
                         new BufferedOutputStream(
-                                new FileOutputStream(pathnameStore, true),
+                                new FileOutputStream(pathnameStore, !first),
                                 OUT_BUFF_SIZE));
 
                 DataOutputStream dosStoreOffsets = new DataOutputStream(
                         new BufferedOutputStream(
-                                new FileOutputStream(pathnameStoreOffsets, true),
+                                new FileOutputStream(pathnameStoreOffsets, !first),
                                 OUT_BUFF_SIZE));)
         {
+            if (first) {
+                dosStore.writeInt(StoreReader.MAGIC);
+                dosStore.writeInt(StoreReader.VERSION);
+                storeOffset = StoreReader.HEADER_LENGTH;
+                dosStoreOffsets.writeInt(StoreOffsetsReader.MAGIC);
+                dosStoreOffsets.writeInt(StoreOffsetsReader.VERSION);
+                // The number of documents, filled in once written.
+                dosStoreOffsets.writeLong(0);
+            }
 
-            for (Map.Entry<Long,String> entry : store.entrySet()) {
-
-                StoreOffsetsRecord sor = new StoreOffsetsRecord(entry.getKey(), storeOffset);
-                writeStoreOffsetsRecord(dosStoreOffsets, sor);
-                StoreRecord sr = new StoreRecord(entry.getValue());
-                // The stored field(s) concerning the next document will be
-                // written to store file starting from here.
-                storeOffset += writeStoreRecord(dosStore, sr);
+            // The gaps between the document ids, then a column per field.
+            ByteArrayOutputStream[] columns = new ByteArrayOutputStream[1 + StoreField.values().length];
+            DataOutputStream[] dosColumns = new DataOutputStream[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = new ByteArrayOutputStream();
+                dosColumns[i] = new DataOutputStream(columns[i]);
+            }
+            byte[] compressed = new byte[StoreReader.BLOCK_SIZE];
+            long firstDocId = -1;
+            long previous = -1;
+            int blockDocs = 0;
+            int blockBytes = 0;
+            for (Map.Entry<Long, StoreRecord> entry : store.entrySet()) {
+                long docId = entry.getKey();
+                if (blockDocs > 0 && docId - previous > Integer.MAX_VALUE) {
+                    // Too far to be told by a gap.
+                    compressed = writeStoreBlock(dosStore, dosStoreOffsets, firstDocId, blockDocs,
+                            columns, compressed, deflater);
+                    blockDocs = 0;
+                    blockBytes = 0;
+                }
+                if (blockDocs == 0) {
+                    firstDocId = docId;
+                    previous = docId;
+                }
 
+                StoreRecord record = entry.getValue();
+                int before = blockBytes - dosColumns[0].size();
+                PostingsCodec.writeVInt(dosColumns[0], (int) (docId - previous));
+                for (StoreField field : StoreField.values()) {
+                    DataOutputStream column = dosColumns[1 + field.ordinal()];
+                    before -= column.size();
+                    writeStoreField(column, record, field);
+                    before += column.size();
+                }
+                blockBytes = before + dosColumns[0].size();
+                previous = docId;
+                blockDocs++;
+
+                if (blockBytes >= StoreReader.BLOCK_SIZE) {
+                    compressed = writeStoreBlock(dosStore, dosStoreOffsets, firstDocId, blockDocs,
+                            columns, compressed, deflater);
+                    blockDocs = 0;
+                    blockBytes = 0;
+                }
             } // -- for all documents
 
+            if (blockDocs > 0)
+                writeStoreBlock(dosStore, dosStoreOffsets, firstDocId, blockDocs,
+                        columns, compressed, deflater);
+
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            deflater.end();
+        }
+
+        numStoreDocs += store.size();
+        try (RandomAccessFile raf = new RandomAccessFile(pathnameStoreOffsets, "rw")) {
+            raf.seek(8);
+            raf.writeLong(numStoreDocs);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /*
+     * Writes a field of a store record to its column.
+     */
+    private static void writeStoreField(DataOutputStream dos, StoreRecord record,
+            StoreField field) throws IOException {
+        switch (field) {
+        case TITLE:
+            dos.writeUTF(record.getTitle());
+            break;
+        case AUTHOR:
+            dos.writeUTF(record.getAuthor() == null ? "" : record.getAuthor());
+            break;
+        case TIMESTAMP:
+            dos.writeLong(record.getTimestamp());
+            break;
+        case SNIPPET:
+            dos.writeUTF(record.getSnippet() == null ? "" : record.getSnippet());
+            break;
         }
     }
 
 
+    /*
+     * Compresses the columns of a block of store records, appends the block
+     * to the store file and its offset to the store offsets file, and
+     * empties the columns. The gaps between the document ids are kept as
+     * is, being needed whatever the fields read.
+     *
+     * @return
+     *     The buffer to compress the next block into.
+     */
+    private byte[] writeStoreBlock(DataOutputStream dosStore, DataOutputStream dosStoreOffsets,
+            long firstDocId, int numDocs, ByteArrayOutputStream[] columns, byte[] compressed,
+            Deflater deflater) throws IOException {
+        int numFields = columns.length - 1;
+        byte[][] raw = new byte[numFields][];
+        byte[][] packed = new byte[numFields][];
+        for (int i = 0; i < numFields; i++) {
+            raw[i] = columns[1 + i].toByteArray();
+            deflater.reset();
+            deflater.setInput(raw[i]);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length)
+                    compressed = Arrays.copyOf(compressed, compressed.length << 1);
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            packed[i] = Arrays.copyOf(compressed, length);
+        }
+
+        writeStoreOffsetsRecord(dosStoreOffsets, new StoreOffsetsRecord(firstDocId, storeOffset));
+
+        int before = dosStore.size();
+        dosStore.writeLong(firstDocId);
+        PostingsCodec.writeVInt(dosStore, numDocs);
+        PostingsCodec.writeVInt(dosStore, numFields);
+        PostingsCodec.writeVInt(dosStore, columns[0].size());
+        for (int i = 0; i < numFields; i++) {
+            PostingsCodec.writeVInt(dosStore, raw[i].length);
+            PostingsCodec.writeVInt(dosStore, packed[i].length);
+        }
+        columns[0].writeTo(dosStore);
+        for (int i = 0; i < numFields; i++) {
+            dosStore.write(packed[i]);
+        }
+        storeOffset += dosStore.size() - before;
+
+        for (ByteArrayOutputStream column : columns) {
+            column.reset();
+        }
+
+        return compressed;
+    }
+
+
     /**
-     * Merging two segments into one.
+     * Merging segments into one, in a single pass.
+     *
+     * Walks the terms of all segments at once, through a priority queue of
+     * cursors ordered by their current term. The postings of a term found in
+     * a single segment are copied as is, if of the same codec; otherwise the
+     * postings of all segments holding the term are decoded and merged.
      *
-     * @param one
-     *     The first segment to be merged.
-     * @param two
-     *     The second segment to be merged.
+     * @param toMerge
+     *     The segments to be merged.
      */
-    public void mergeSegmentsOnDisk(Segment one, Segment two) {
+    public void mergeSegmentsOnDisk(List<Segment> toMerge) {
 
         long startTime = System.nanoTime();
 
@@ -308,23 +675,11 @@ public class DiskManager {
                 new File(pathnameSegmentOffsets + i),
                 new File(pathnameSegment + i));
 
-        try (   DataInputStream disSegmentOffsetsOne = new DataInputStream(
-                        new BufferedInputStream(
-                                new FileInputStream(one.getOffsets()),
-                                IN_BUFF_SIZE));
-                DataInputStream disSegmentOne = new DataInputStream(
-                        new BufferedInputStream(
-                                new FileInputStream(one.getPostings()),
-                                IN_BUFF_SIZE));
-                DataInputStream disSegmentOffsetsTwo = new DataInputStream(
-                        new BufferedInputStream(
-                                new FileInputStream(two.getOffsets()),
-                                IN_BUFF_SIZE));
-                DataInputStream disSegmentTwo = new DataInputStream(
-                        new BufferedInputStream(
-                                new FileInputStream(two.getPostings()),
-                                IN_BUFF_SIZE));
-                DataOutputStream dosMergedOffsets = new DataOutputStream(
+        PriorityQueue<SegmentCursor> cursors = new PriorityQueue<SegmentCursor>(toMerge.size());
+        List<SegmentCursor> opened = new ArrayList<SegmentCursor>(toMerge.size());
+        float mergedSize = 0;
+
+        try (   DataOutputStream dosMergedOffsets = new DataOutputStream(
                         new BufferedOutputStream(
                                 new FileOutputStream(merged.getOffsets()),
                                 OUT_BUFF_SIZE));
@@ -333,137 +688,94 @@ public class DiskManager {
                                 new FileOutputStream(merged.getPostings()),
                                 OUT_BUFF_SIZE));)
         {
-            PostingsOffsetsRecord porOne = null;
-            PostingsRecord prOne = null;
-
-            PostingsOffsetsRecord porTwo = null;
-            PostingsRecord prTwo = null;
-
-            PostingsOffsetsRecord porMerged = null;
-            PostingsRecord prMerged = null;
-
-            long offsetMerged = 0;
-            int ordering = 0;
-
-            while (true) {
-
-                if (porOne == null) {
-                    if (    ((porOne = readPostingsOffsetsRecord(disSegmentOffsetsOne)) == null ) ||
-                            ((prOne = readPostingsRecord(disSegmentOne)) == null))
-                    {
-                        // Segment one EOF
-
-                        // Write the objects you might have currently from segment two...
-                        if (porTwo != null) {
-                            prMerged = prTwo;
-                            porMerged = new PostingsOffsetsRecord(porTwo.getTerm(), offsetMerged);
-                            writePostingsOffsetsRecord(dosMergedOffsets, porMerged);
-                            offsetMerged += writePostingsRecord(dosMerged, prMerged);
-                        }
-
-                        // And flush the rest of segment two to the merged
-                        try {
-                            while (true) {
-                                if (    ((porTwo = readPostingsOffsetsRecord(disSegmentOffsetsTwo)) == null ||
-                                        ((prTwo = readPostingsRecord(disSegmentTwo)) == null )))
-                                {
-                                    throw new EOFException();
-                                }
-
-                                prMerged = prTwo;
-                                porMerged = new PostingsOffsetsRecord(porTwo.getTerm(), offsetMerged);
-                                writePostingsOffsetsRecord(dosMergedOffsets, porMerged);
-                                offsetMerged += writePostingsRecord(dosMerged, prMerged);
-                            }
-                        } catch (EOFException e) {
-                            break;
-                        }
-                    }
-                }
+            for (Segment segment : toMerge) {
+                mergedSize += segment.getSegmentSize();
+                SegmentCursor cursor = new SegmentCursor(segment);
+                opened.add(cursor);
+                if (cursor.next())
+                    cursors.add(cursor);
+            }
 
-                if (porTwo == null) {
-                    if (    ((porTwo = readPostingsOffsetsRecord(disSegmentOffsetsTwo)) == null ) ||
-                            ((prTwo = readPostingsRecord(disSegmentTwo)) == null))
-                    {
-                        // Segment two EOF
-
-                        // Write the objects you might have currently from segment one...
-                        if (porOne != null) {
-                            prMerged = prOne;
-                            porMerged = new PostingsOffsetsRecord(porOne.getTerm(), offsetMerged);
-                            writePostingsOffsetsRecord(dosMergedOffsets, porMerged);
-                            offsetMerged += writePostingsRecord(dosMerged, prMerged);
-                        }
-
-                        // And flush the rest of segment one to the merged
-                        try {
-                            while (true) {
-                                if (    ((prOne = readPostingsRecord(disSegmentOne)) == null ) ||
-                                        ((porOne = readPostingsOffsetsRecord(disSegmentOffsetsOne)) == null ))
-                                {
-                                    throw new EOFException();
-                                }
-
-                                prMerged = prOne;
-                                porMerged = new PostingsOffsetsRecord(porOne.getTerm(), offsetMerged);
-                                writePostingsOffsetsRecord(dosMergedOffsets, porMerged);
-                                offsetMerged += writePostingsRecord(dosMerged, prMerged);
-                            }
-                        } catch (EOFException e) {
-                            break;
-                        }
-                    }
+            long offsetMerged = PostingsCodec.writeHeader(dosMerged, codec);
+            List<SegmentCursor> top = new ArrayList<SegmentCursor>(toMerge.size());
+
+            while (!cursors.isEmpty()) {
+                // Gather the cursors positioned at the lexicographically
+                // first term.
+                String term = cursors.peek().getTerm();
+                top.clear();
+                while (!cursors.isEmpty() && cursors.peek().getTerm().equals(term)) {
+                    top.add(cursors.poll());
                 }
 
-                ordering = porOne.getTerm().compareToIgnoreCase(porTwo.getTerm());
+                writePostingsOffsetsRecord(dosMergedOffsets,
+                        new PostingsOffsetsRecord(term, offsetMerged));
 
-                if (ordering < 0) {
-                    // The term from segment one comes lexicographically first.
-                    prMerged = prOne;
-                    porMerged = new PostingsOffsetsRecord(porOne.getTerm(), offsetMerged);
-                    prOne = null;
-                    porOne = null;
-                }
-                else if (ordering > 0) {
-                    // The term from segment two comes lexicographically first.
-                    prMerged = prTwo;
-                    porMerged = new PostingsOffsetsRecord(porTwo.getTerm(), offsetMerged);
-                    prTwo = null;
-                    porTwo = null;
+                if (top.size() == 1 && top.get(0).getCodec() == codec) {
+                    // Nothing to merge.
+                    offsetMerged += top.get(0).copyPostings(dosMerged);
                 }
                 else {
-                    TreeSet<Posting> postingsMerged = prOne.getPostings();
-                    postingsMerged.addAll(prTwo.getPostings());
-                    // The two terms are lexicographically equivalent.
-                    prMerged = new PostingsRecord(postingsMerged.size(), postingsMerged);
-                    // It is the same as if we used iorTwo.getTerm()
-                    porMerged = new PostingsOffsetsRecord(porOne.getTerm(), offsetMerged);
-                    prOne = prTwo = null;
-                    porOne = porTwo = null;
+                    PostingsList postingsMerged = null;
+                    for (SegmentCursor cursor : top) {
+                        PostingsList postings = cursor.readPostings();
+                        postingsMerged = (postingsMerged == null)
+                                ? postings : PostingsList.merge(postingsMerged, postings);
+                    }
+                    offsetMerged += writePostingsRecord(dosMerged,
+                            new PostingsRecord(postingsMerged.size(), postingsMerged), codec);
                 }
 
-                writePostingsOffsetsRecord(dosMergedOffsets, porMerged);
-                offsetMerged += writePostingsRecord(dosMerged, prMerged);
-
-            } // -- while I can read the streams
-
-            segments.offer(merged);
-
-            if (segments.size() >= 2) {
-                futures.add(merger.submit(new MergeTask(segments.poll(), segments.poll(), this)));
-            }
+                for (SegmentCursor cursor : top) {
+                    if (cursor.next())
+                        cursors.add(cursor);
+                }
 
-            long elapsedTime = System.nanoTime() - startTime;
-            System.out.println("Merge complete [seg1(MB): " + String.format("%5.2f", one.getSegmentSize()/(1024*1024))
-                    + " | seg2(MB): " + String.format("%5.2f", two.getSegmentSize()/(1024*1024))
-                    + " | time(s): " + TimeUnit.SECONDS.convert(elapsedTime,
-                            TimeUnit.NANOSECONDS)
-                    + "].");
+            } // -- while there are terms left
 
         } catch (FileNotFoundException e) {
             e.printStackTrace();
+            return;
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        } finally {
+            for (SegmentCursor cursor : opened) {
+                try {
+                    cursor.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Only offered once its files are complete and closed.
+        offerSegment(merged);
+
+        long elapsedTime = System.nanoTime() - startTime;
+        System.out.println("Merge complete [thread: " + Thread.currentThread().getName()
+                + " | segs: " + toMerge.size()
+                + " | size(MB): " + String.format("%5.2f", mergedSize / (1024 * 1024))
+                + " | time(s): " + TimeUnit.SECONDS.convert(elapsedTime,
+                        TimeUnit.NANOSECONDS)
+                + "].");
+    }
+
+
+    /*
+     * Offers a newly written segment and schedules the merges the merge
+     * policy finds.
+     *
+     * Synchronized since segments are offered by the inverting threads and the
+     * merging threads alike, and the segments of a merge must be taken out
+     * together.
+     */
+    private synchronized void offerSegment(Segment segment) {
+        segments.add(segment);
+
+        for (List<Segment> toMerge : mergePolicy.findMerges(segments)) {
+            segments.removeAll(toMerge);
+            mergeScheduler.merge(new MergeTask(toMerge, this));
         }
     }
 
@@ -577,6 +889,8 @@ public class DiskManager {
      *
      * @param dis
      *     The input stream to read from.
+     * @param codec
+     *     The codec the postings were written with.
      *
      * @return
      *     A {@code PostingsRecord} filled with data or {@code null} if
@@ -585,20 +899,15 @@ public class DiskManager {
      * @throws IOException
      *     When unable to read from the given stream or if this is {@null}.
      */
-    public static PostingsRecord readPostingsRecord(DataInputStream dis)
-            throws IOException {
+    public static PostingsRecord readPostingsRecord(DataInputStream dis,
+            PostingsCodec codec) throws IOException {
 
         if (dis == null)
             throw new IOException("Data stream null.");
 
         PostingsRecord r = null;
         try {
-            int postingsSize = dis.readInt();
-            TreeSet<Posting> postings = new TreeSet<Posting>();
-
-            for (int i = 0; i < postingsSize; i++) {
-                postings.add(new Posting(dis.readLong()));
-            }
+            PostingsList postings = codec.readPostings(dis);
 
             r = new PostingsRecord(postings.size(), postings);
         } catch (EOFException e) {
@@ -611,6 +920,9 @@ public class DiskManager {
     /**
      * Copies a postings formatted record from one stream to another.
      *
+     * The record is copied without being decoded, so both streams must
+     * have been written with the same codec.
+     *
      * @param dis
      *     The data stream to read from.
      * @param dos
@@ -626,13 +938,7 @@ public class DiskManager {
         if (dis == null || dos == null)
             throw new IOException("Data streams null.");
 
-        int postingsSize = dis.readInt();
-        dos.writeInt(postingsSize);
-
-        for (int i = 0; i < postingsSize; i++) {
-            dos.writeLong(dis.readLong());
-        }
-
+        PostingsCodec.copyPostings(dis, dos);
     }
 
     /**
@@ -642,6 +948,8 @@ public class DiskManager {
      *     The data stream to write to.
      * @param record
      *     The record to be written.
+     * @param codec
+     *     The codec to write the postings with.
      *
      * @return
      *     The number of bytes written.
@@ -651,7 +959,7 @@ public class DiskManager {
      *     provided is {@null null}.
      */
     public static long writePostingsRecord(DataOutputStream dos,
-            PostingsRecord record) throws IOException {
+            PostingsRecord record, PostingsCodec codec) throws IOException {
 
         if (dos == null || record == null)
             throw new IOException("Data stream or index record null.");
@@ -659,25 +967,11 @@ public class DiskManager {
         long bytesWritten = 0;
 
         int postingsSize = record.getPostingsSize();
-        TreeSet<Posting> termPostings = record.getPostings();
+        PostingsList termPostings = record.getPostings();
 
         // Write to stream only if we have something to write.
         if (postingsSize > 0) {
-
-            Iterator<Posting> iter = termPostings.iterator();
-            // Write the size of the postings list, so that the
-            // reader can iteratively pick up the correct number of
-            // postings.
-            dos.writeInt(record.getPostingsSize());
-            // Iterate through the term's postings and...
-            bytesWritten += 4;
-            Posting posting;
-            while (iter.hasNext()) {
-                posting = iter.next();
-                // ...write the document id
-                dos.writeLong(posting.getDocId());
-                bytesWritten += 8;
-            } // -- while postings
+            bytesWritten += codec.writePostings(dos, termPostings);
         }
 
         return bytesWritten;
@@ -762,89 +1056,4 @@ public class DiskManager {
         dos.writeLong(record.getOffset());
     }
 
-    /**
-     * Reads an store formated record from a stream.
-     *
-     * @param dis
-     *     The input stream to read from.
-     *
-     * @return
-     *     A {@code StoreRecord} filled with data or {@code null} if
-     *     attempting to read indicated the end of file.
-     *
-     * @throws IOException
-     *     When unable to read from the given stream or if this is {@null}.
-     */
-    public static StoreRecord readStoreRecord(DataInputStream dis)
-            throws IOException {
-
-        if (dis == null)
-            throw new IOException("Data stream null.");
-
-        StoreRecord r = null;
-        try {
-            r = new StoreRecord(dis.readUTF());
-        } catch (EOFException e) {
-            r = null;
-        }
-
-        return r;
-    }
-
-
-    /**
-     * Copies a store formatted record from one stream to another.
-     *
-     * @param dis
-     *     The data stream to read from.
-     * @param dos
-     *     The data stream to redirect to.
-     *
-     * @throws IOException
-     *     When unable to write from/to the given data streams or either of the
-     *     streams provided are {@code null}
-     */
-    public static  void copyStoreRecord(DataInputStream dis, DataOutputStream dos)
-            throws IOException {
-
-        if (dis == null || dos == null)
-            throw new IOException("Data streams null.");
-
-        dos.writeUTF(dis.readUTF());
-    }
-
-    /**
-     * Writes a store formatted record to a stream.
-     *
-     * @param dos
-     *     The data stream to write to.
-     * @param record
-     *     The record to be written.
-     *
-     * @return
-     *     The number of bytes written.
-     *
-     * @throws IOException
-     *     When unable to write to the given data stream or the record
-     *     provided is {@null null}.
-     */
-    public static  long writeStoreRecord(
-            DataOutputStream dos, StoreRecord record) throws IOException {
-
-        if (dos == null || record == null)
-            throw new IOException("Data stream or index record null.");
-
-        long bytesWritten = dos.size();
-
-        // Write stored field(s) to the store file.
-        // TODO Currently we have only one stored field. If we ever
-        // have multiple, then we can do similarly to the segment file
-        // 1. store 4 bytes (int) in the beginning as an indicator to
-        // the reader of how many fields are next for her to retrieve,
-        // 2. iteratively store the fields
-        dos.writeUTF(record.getStored());
-
-        return dos.size() - bytesWritten;
-    }
-
 }
@@ -0,0 +1,419 @@
+package yocto.storage;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import yocto.indexing.RamUsage;
+
+/**
+ * A compact, on-heap term dictionary.
+ *
+ * The terms are kept sorted in blocks of {@value #BLOCK_SIZE}, all packed in a
+ * single byte array. The first term of a block is written in full and every
+ * other term only as the length of the prefix it shares with the previous
+ * term followed by the rest of its bytes; the postings offsets, which grow
+ * with the terms, are written alongside as deltas. A term is found by a
+ * binary search over the first terms of the blocks and a scan of at most one
+ * block, and a range of terms by scanning on from there.
+ *
+ * Thread-safe: the dictionary is never modified once built.
+ *
+ * @author billy
+ */
+public class FrontCodedTermDictionary extends TermDictionary {
+
+    /** The number of terms per block. */
+    public static final int BLOCK_SIZE = 16;
+
+    /* The encoding of the terms. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* The encoded blocks. */
+    private final byte[] data;
+
+    /* The position of every block in the data. */
+    private final int[] blocks;
+
+    /* The number of blocks. */
+    private final int numBlocks;
+
+    /* The number of terms. */
+    private final int size;
+
+
+    /*
+     * Constructor.
+     *
+     * Use a {@link Builder}.
+     */
+    private FrontCodedTermDictionary(byte[] data, int[] blocks, int numBlocks, int size) {
+        this.data = data;
+        this.blocks = blocks;
+        this.numBlocks = numBlocks;
+        this.size = size;
+    }
+
+
+    /*
+     * Finds the last block whose first term is not greater than the given
+     * one.
+     *
+     * @return
+     *     The block or -1 if the term comes before all terms.
+     */
+    private int findBlock(String term) {
+        int lo = 0;
+        int hi = numBlocks - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (firstTerm(mid).compareTo(term) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+
+        return hi;
+    }
+
+
+    /*
+     * Decodes the first term of a block.
+     */
+    private String firstTerm(int block) {
+        int pos = blocks[block];
+        int length = 0;
+        byte b;
+        int shift = 0;
+        do {
+            b = data[pos++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return new String(data, pos, length, UTF_8);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#get(java.lang.String)
+     */
+    @Override
+    public long get(String term) {
+        int block = findBlock(term);
+        if (block < 0)
+            return -1;
+
+        byte[] target = term.getBytes(UTF_8);
+        BlockTermIterator it = new BlockTermIterator(block);
+        for (int i = 0; i < BLOCK_SIZE && it.next(); i++) {
+            if (it.termEquals(target))
+                return it.offset();
+        }
+
+        return -1;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#iterator(java.lang.String)
+     */
+    @Override
+    public TermIterator iterator(String from) {
+        BlockTermIterator it = new BlockTermIterator(Math.max(0, findBlock(from)));
+        it.skipTo(from);
+
+        return it;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#ramBytesUsed()
+     */
+    @Override
+    public long ramBytesUsed() {
+        return RamUsage.NUM_BYTES_OBJECT_HEADER + 2 * RamUsage.NUM_BYTES_OBJECT_REF + 8
+                + RamUsage.NUM_BYTES_ARRAY_HEADER + data.length
+                + RamUsage.NUM_BYTES_ARRAY_HEADER + 4L * blocks.length;
+    }
+
+
+    /**
+     * Builds a {@link FrontCodedTermDictionary} out of terms added in order.
+     *
+     * Not thread-safe.
+     */
+    public static class Builder {
+
+        /* The encoded blocks so far. */
+        private byte[] data = new byte[1024];
+
+        /* The length of the encoded blocks so far. */
+        private int length = 0;
+
+        /* The position of every block so far. */
+        private int[] blocks = new int[64];
+
+        /* The number of blocks so far. */
+        private int numBlocks = 0;
+
+        /* The number of terms so far. */
+        private int size = 0;
+
+        /* The last term added. */
+        private String lastTerm = null;
+
+        /* The bytes of the last term added. */
+        private byte[] lastBytes = new byte[0];
+
+        /* The offset of the last term added. */
+        private long lastOffset = 0;
+
+
+        /**
+         * Adds a term.
+         *
+         * @param term
+         *     The term; greater than all terms added so far.
+         * @param offset
+         *     The offset of its postings record.
+         *
+         * @throws IllegalArgumentException
+         *     If the term is out of order.
+         */
+        public void add(String term, long offset) {
+            if (lastTerm != null && term.compareTo(lastTerm) <= 0)
+                throw new IllegalArgumentException("Term '" + term + "' added out of order after '" + lastTerm + "'.");
+
+            byte[] bytes = term.getBytes(UTF_8);
+            if (size % BLOCK_SIZE == 0) {
+                if (numBlocks == blocks.length)
+                    blocks = Arrays.copyOf(blocks, 2 * numBlocks);
+                blocks[numBlocks++] = length;
+
+                writeVLong(bytes.length);
+                writeBytes(bytes, 0, bytes.length);
+                writeVLong(offset);
+            }
+            else {
+                int prefix = 0;
+                int max = Math.min(bytes.length, lastBytes.length);
+                while (prefix < max && bytes[prefix] == lastBytes[prefix])
+                    prefix++;
+
+                writeVLong(prefix);
+                writeVLong(bytes.length - prefix);
+                writeBytes(bytes, prefix, bytes.length - prefix);
+                // Offsets grow with the terms in an index, but zig-zag the
+                // delta so that any order can be encoded.
+                long delta = offset - lastOffset;
+                writeVLong((delta << 1) ^ (delta >> 63));
+            }
+
+            size++;
+            lastTerm = term;
+            lastBytes = bytes;
+            lastOffset = offset;
+        }
+
+
+        /**
+         * Builds the dictionary of the terms added.
+         *
+         * @return
+         *     The dictionary.
+         */
+        public FrontCodedTermDictionary build() {
+            return new FrontCodedTermDictionary(
+                    Arrays.copyOf(data, length),
+                    Arrays.copyOf(blocks, numBlocks),
+                    numBlocks,
+                    size);
+        }
+
+
+        /*
+         * Appends a variable-length long.
+         */
+        private void writeVLong(long v) {
+            ensureCapacity(10);
+            while ((v & ~0x7fL) != 0) {
+                data[length++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            data[length++] = (byte) v;
+        }
+
+
+        /*
+         * Appends bytes.
+         */
+        private void writeBytes(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+        }
+
+
+        /*
+         * Grows the data to take the given number of bytes more.
+         */
+        private void ensureCapacity(int more) {
+            if (length + more > data.length)
+                data = Arrays.copyOf(data, Math.max(length + more, 2 * data.length));
+        }
+
+    }
+
+
+    /*
+     * Decodes the terms in order, starting at a block.
+     */
+    private class BlockTermIterator extends TermIterator {
+
+        /* The position of the next term in the data. */
+        private int pos;
+
+        /* The index of the current term. */
+        private int ord;
+
+        /* The bytes of the current term. */
+        private byte[] term = new byte[32];
+
+        /* The length of the current term. */
+        private int termLength = 0;
+
+        /* The current term, decoded on demand. */
+        private String decoded = null;
+
+        /* The offset of the current term. */
+        private long offset = 0;
+
+        /* Whether the current term is yet to be returned by next(). */
+        private boolean pending = false;
+
+
+        /*
+         * Constructor.
+         */
+        BlockTermIterator(int block) {
+            this.pos = numBlocks == 0 ? 0 : blocks[block];
+            this.ord = block * BLOCK_SIZE - 1;
+        }
+
+
+        /*
+         * Moves to the first term not less than the given one and leaves it
+         * to be returned by the next call to next().
+         */
+        void skipTo(String from) {
+            while (next()) {
+                if (term().compareTo(from) >= 0) {
+                    pending = true;
+                    return;
+                }
+            }
+        }
+
+
+        /*
+         * Checks whether the current term has the given bytes.
+         */
+        boolean termEquals(byte[] bytes) {
+            if (bytes.length != termLength)
+                return false;
+            for (int i = 0; i < termLength; i++) {
+                if (bytes[i] != term[i])
+                    return false;
+            }
+
+            return true;
+        }
+
+
+        /*
+         * Reads a variable-length long.
+         */
+        private long readVLong() {
+            byte b = data[pos++];
+            long v = b & 0x7fL;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = data[pos++];
+                v |= (b & 0x7fL) << shift;
+            }
+
+            return v;
+        }
+
+
+        // -- Override
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#next()
+         */
+        @Override
+        public boolean next() {
+            if (pending) {
+                pending = false;
+                return true;
+            }
+            if (ord + 1 >= size)
+                return false;
+
+            ord++;
+            int prefix = 0;
+            if (ord % BLOCK_SIZE != 0)
+                prefix = (int) readVLong();
+            int suffix = (int) readVLong();
+            if (prefix + suffix > term.length)
+                term = Arrays.copyOf(term, Math.max(prefix + suffix, 2 * term.length));
+            System.arraycopy(data, pos, term, prefix, suffix);
+            pos += suffix;
+            termLength = prefix + suffix;
+            decoded = null;
+
+            long v = readVLong();
+            if (ord % BLOCK_SIZE == 0)
+                offset = v;
+            else
+                offset += (v >>> 1) ^ -(v & 1);
+
+            return true;
+        }
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#term()
+         */
+        @Override
+        public String term() {
+            if (decoded == null)
+                decoded = new String(term, 0, termLength, UTF_8);
+
+            return decoded;
+        }
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#offset()
+         */
+        @Override
+        public long offset() {
+            return offset;
+        }
+
+    }
+
+}
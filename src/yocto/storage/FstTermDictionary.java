@@ -0,0 +1,790 @@
+package yocto.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A term dictionary read straight off a memory-mapped finite state
+ * transducer file.
+ *
+ * The transducer is the minimal acyclic automaton of the terms, with the
+ * characters of the terms on its arcs, so that both the prefixes and the
+ * suffixes of the terms are shared. Every term maps to the offset of its
+ * postings record: the sum of the outputs on the arcs along its path plus
+ * the final output of the node it ends in. Nodes are written before the
+ * nodes pointing at them, the root last, as:
+ *
+ * <pre>
+ * [byte flags][VLong final output]?[VInt arcs][VInt bytes per arc]?
+ *     ([VInt label][VLong output][VLong target])*
+ * </pre>
+ *
+ * The arcs of a node with {@value #FIXED_ARCS_THRESHOLD} or more arcs are
+ * padded to the same width, so that they can be binary searched. Nothing is
+ * decoded up front, so opening the dictionary takes neither time nor heap.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class FstTermDictionary extends TermDictionary {
+
+    /** The file format magic number, "YFST". */
+    public static final int MAGIC = 0x59465354;
+
+    /** The file format version. */
+    public static final int VERSION = 1;
+
+    /** The length of the file header. */
+    public static final int HEADER_LENGTH = 24;
+
+    /** The number of arcs from which the arcs of a node are of fixed width. */
+    public static final int FIXED_ARCS_THRESHOLD = 8;
+
+    /* Node flags. */
+    private static final int FLAG_FINAL = 1;
+    private static final int FLAG_FINAL_OUTPUT = 2;
+    private static final int FLAG_FIXED_ARCS = 4;
+
+    /* The transducer file. */
+    private final MappedFile file;
+
+    /* The number of terms. */
+    private final int size;
+
+    /* The address of the root node. */
+    private final long root;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The transducer file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a transducer file of a
+     *     supported format.
+     */
+    public FstTermDictionary(File file) throws IOException {
+        this.file = new MappedFile(file);
+
+        if (this.file.length() < HEADER_LENGTH || this.file.readInt(0) != MAGIC) {
+            this.file.close();
+            throw new IOException("Not a term index file: " + file);
+        }
+        int version = this.file.readInt(4);
+        if (version != VERSION) {
+            this.file.close();
+            throw new IOException("Unsupported term index version " + version + ": " + file);
+        }
+        this.size = (int) this.file.readLong(8);
+        this.root = this.file.readLong(16);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#get(java.lang.String)
+     */
+    @Override
+    public long get(String term) {
+        Cursor in = new Cursor();
+        Node node = new Node();
+        Arc arc = new Arc();
+
+        long output = 0;
+        in.readNode(root, node);
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (in.findArc(node, c, arc) == node.numArcs || arc.label != c)
+                return -1;
+            output += arc.output;
+            in.readNode(arc.target, node);
+        }
+
+        return node.isFinal ? output + node.finalOutput : -1;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#iterator(java.lang.String)
+     */
+    @Override
+    public TermIterator iterator(String from) {
+        FstTermIterator it = new FstTermIterator(null);
+        it.seek(from);
+
+        return it;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#intersect(yocto.storage.TermAutomaton)
+     */
+    @Override
+    public TermIterator intersect(TermAutomaton automaton) {
+        // Walks the transducer and the automaton side by side, skipping
+        // the arcs that lead the automaton nowhere.
+        return new FstTermIterator(automaton);
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#ramBytesUsed()
+     */
+    @Override
+    public long ramBytesUsed() {
+        // The transducer lives in the page cache, not the heap.
+        return 0;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.TermDictionary#close()
+     */
+    @Override
+    public void close() {
+        file.close();
+    }
+
+
+    /**
+     * Builds a transducer file out of terms added in order.
+     *
+     * Nodes are compiled as soon as no more terms can go through them and
+     * looked up among the nodes compiled so far, so that equal suffixes are
+     * only written once. The outputs are pushed as close to the root as
+     * possible, which, with offsets growing along with the terms, leaves
+     * most arcs with no output at all.
+     *
+     * The transducer is built in memory. Not thread-safe.
+     */
+    public static class Builder {
+
+        /* The compiled nodes. */
+        private byte[] data = new byte[1024];
+
+        /* The length of the compiled nodes. */
+        private int length = 0;
+
+        /* The addresses of the compiled nodes, by their encoding. */
+        private final HashMap<ByteBuffer, Long> registry = new HashMap<ByteBuffer, Long>();
+
+        /* The nodes along the path of the last term, yet to be compiled. */
+        private UncompiledNode[] frontier = new UncompiledNode[] { new UncompiledNode() };
+
+        /* The last term added. */
+        private String lastTerm = null;
+
+        /* The number of terms. */
+        private int size = 0;
+
+        /* A buffer to encode a node into. */
+        private final Encoder node = new Encoder();
+
+        /* A buffer to encode an arc into. */
+        private final Encoder arc = new Encoder();
+
+
+        /**
+         * Adds a term.
+         *
+         * @param term
+         *     The term; greater than all terms added so far.
+         * @param offset
+         *     The offset of its postings record.
+         *
+         * @throws IllegalArgumentException
+         *     If the term is out of order or the offset negative.
+         */
+        public void add(String term, long offset) {
+            if (lastTerm != null && term.compareTo(lastTerm) <= 0)
+                throw new IllegalArgumentException("Term '" + term + "' added out of order after '" + lastTerm + "'.");
+            if (offset < 0)
+                throw new IllegalArgumentException("Negative offset " + offset + " for term '" + term + "'.");
+
+            String last = lastTerm == null ? "" : lastTerm;
+            int prefix = 0;
+            int max = Math.min(term.length(), last.length());
+            while (prefix < max && term.charAt(prefix) == last.charAt(prefix))
+                prefix++;
+
+            // Whatever of the last term's path is not shared is done with.
+            freezeTail(prefix);
+
+            if (frontier.length <= term.length()) {
+                int n = frontier.length;
+                frontier = Arrays.copyOf(frontier, Math.max(term.length() + 1, 2 * n));
+                for (int i = n; i < frontier.length; i++) {
+                    frontier[i] = new UncompiledNode();
+                }
+            }
+            for (int i = prefix; i < term.length(); i++) {
+                frontier[i].addArc(term.charAt(i));
+            }
+            frontier[term.length()].isFinal = true;
+
+            // Keep on the shared arcs only what both terms have in common.
+            long output = offset;
+            for (int i = 0; i < prefix; i++) {
+                UncompiledNode parent = frontier[i];
+                long lastOutput = parent.outputs[parent.numArcs - 1];
+                long common = Math.min(lastOutput, output);
+                parent.outputs[parent.numArcs - 1] = common;
+                frontier[i + 1].prependOutput(lastOutput - common);
+                output -= common;
+            }
+            if (prefix < term.length())
+                frontier[prefix].outputs[frontier[prefix].numArcs - 1] = output;
+            else
+                frontier[prefix].finalOutput = output;
+
+            lastTerm = term;
+            size++;
+        }
+
+
+        /**
+         * Compiles the transducer of the terms added and writes it to a file.
+         *
+         * @param file
+         *     The file.
+         *
+         * @throws IOException
+         *     When unable to write the file.
+         */
+        public void save(File file) throws IOException {
+            freezeTail(0);
+            long root = compile(frontier[0]);
+
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeLong(size);
+                dos.writeLong(root);
+                dos.write(data, 0, length);
+            }
+        }
+
+
+        /*
+         * Compiles the nodes of the last term's path deeper than the given
+         * depth.
+         */
+        private void freezeTail(int depth) {
+            int lastLength = lastTerm == null ? 0 : lastTerm.length();
+            for (int i = lastLength; i > depth; i--) {
+                UncompiledNode parent = frontier[i - 1];
+                parent.targets[parent.numArcs - 1] = compile(frontier[i]);
+                frontier[i].clear();
+            }
+        }
+
+
+        /*
+         * Compiles a node, unless an equal one has already been.
+         *
+         * @return
+         *     The address of the node.
+         */
+        private long compile(UncompiledNode n) {
+            boolean fixed = n.numArcs >= FIXED_ARCS_THRESHOLD;
+            int bytesPerArc = 0;
+            if (fixed) {
+                for (int i = 0; i < n.numArcs; i++) {
+                    arc.length = 0;
+                    n.encodeArc(i, arc);
+                    bytesPerArc = Math.max(bytesPerArc, arc.length);
+                }
+            }
+
+            node.length = 0;
+            node.writeByte((n.isFinal ? FLAG_FINAL : 0)
+                    | (n.finalOutput != 0 ? FLAG_FINAL_OUTPUT : 0)
+                    | (fixed ? FLAG_FIXED_ARCS : 0));
+            if (n.finalOutput != 0)
+                node.writeVLong(n.finalOutput);
+            node.writeVLong(n.numArcs);
+            if (fixed)
+                node.writeVLong(bytesPerArc);
+            for (int i = 0; i < n.numArcs; i++) {
+                arc.length = 0;
+                n.encodeArc(i, arc);
+                node.writeBytes(arc.bytes, arc.length);
+                for (int pad = arc.length; pad < bytesPerArc; pad++) {
+                    node.writeByte(0);
+                }
+            }
+
+            ByteBuffer key = ByteBuffer.wrap(Arrays.copyOf(node.bytes, node.length));
+            Long address = registry.get(key);
+            if (address == null) {
+                if (length + node.length > data.length)
+                    data = Arrays.copyOf(data, Math.max(length + node.length, 2 * data.length));
+                System.arraycopy(node.bytes, 0, data, length, node.length);
+                address = Long.valueOf(length);
+                length += node.length;
+                registry.put(key, address);
+            }
+
+            return address.longValue();
+        }
+
+    }
+
+
+    /*
+     * A node of the builder's frontier.
+     */
+    private static class UncompiledNode {
+
+        /* The number of arcs. */
+        int numArcs = 0;
+
+        /* The labels of the arcs. */
+        char[] labels = new char[4];
+
+        /* The outputs of the arcs. */
+        long[] outputs = new long[4];
+
+        /* The addresses of the compiled targets of the arcs. */
+        long[] targets = new long[4];
+
+        /* Whether a term ends here. */
+        boolean isFinal = false;
+
+        /* The output of a term ending here. */
+        long finalOutput = 0;
+
+
+        /*
+         * Adds an arc, with no output and its target yet to be compiled.
+         */
+        void addArc(char label) {
+            if (numArcs == labels.length) {
+                labels = Arrays.copyOf(labels, 2 * numArcs);
+                outputs = Arrays.copyOf(outputs, 2 * numArcs);
+                targets = Arrays.copyOf(targets, 2 * numArcs);
+            }
+            labels[numArcs] = label;
+            outputs[numArcs] = 0;
+            targets[numArcs] = -1;
+            numArcs++;
+        }
+
+
+        /*
+         * Adds an output to all the ways out of the node.
+         */
+        void prependOutput(long output) {
+            if (output == 0)
+                return;
+            for (int i = 0; i < numArcs; i++) {
+                outputs[i] += output;
+            }
+            if (isFinal)
+                finalOutput += output;
+        }
+
+
+        /*
+         * Encodes an arc.
+         */
+        void encodeArc(int i, Encoder out) {
+            out.writeVLong(labels[i]);
+            out.writeVLong(outputs[i]);
+            out.writeVLong(targets[i]);
+        }
+
+
+        /*
+         * Clears the node for reuse.
+         */
+        void clear() {
+            numArcs = 0;
+            isFinal = false;
+            finalOutput = 0;
+        }
+
+    }
+
+
+    /*
+     * A growable buffer to encode into.
+     */
+    private static class Encoder {
+
+        /* The bytes. */
+        byte[] bytes = new byte[64];
+
+        /* The number of bytes. */
+        int length = 0;
+
+
+        /*
+         * Appends a byte.
+         */
+        void writeByte(int b) {
+            if (length == bytes.length)
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            bytes[length++] = (byte) b;
+        }
+
+
+        /*
+         * Appends bytes.
+         */
+        void writeBytes(byte[] b, int len) {
+            for (int i = 0; i < len; i++) {
+                writeByte(b[i]);
+            }
+        }
+
+
+        /*
+         * Appends a variable-length long.
+         */
+        void writeVLong(long v) {
+            while ((v & ~0x7fL) != 0) {
+                writeByte((int) ((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+
+    }
+
+
+    /*
+     * The header of a compiled node.
+     */
+    private static class Node {
+
+        /* Whether a term ends here. */
+        boolean isFinal;
+
+        /* The output of a term ending here. */
+        long finalOutput;
+
+        /* The number of arcs. */
+        int numArcs;
+
+        /* The width of the arcs, or 0 if they are of variable width. */
+        int bytesPerArc;
+
+        /* The position of the first arc. */
+        long arcs;
+
+    }
+
+
+    /*
+     * A compiled arc.
+     */
+    private static class Arc {
+
+        /* The position of the arc. */
+        long pos;
+
+        /* The label. */
+        char label;
+
+        /* The output. */
+        long output;
+
+        /* The address of the target node. */
+        long target;
+
+        /* The position of the next arc of the node. */
+        long next;
+
+    }
+
+
+    /*
+     * Reads nodes and arcs off the file. Every reading thread has its own.
+     */
+    private class Cursor {
+
+        /* The position to read from next. */
+        private long pos;
+
+
+        /*
+         * Reads the header of a node.
+         */
+        void readNode(long address, Node node) {
+            pos = HEADER_LENGTH + address;
+            int flags = file.readByte(pos++);
+
+            node.isFinal = (flags & FLAG_FINAL) != 0;
+            node.finalOutput = (flags & FLAG_FINAL_OUTPUT) != 0 ? readVLong() : 0;
+            node.numArcs = (int) readVLong();
+            node.bytesPerArc = (flags & FLAG_FIXED_ARCS) != 0 ? (int) readVLong() : 0;
+            node.arcs = pos;
+        }
+
+
+        /*
+         * Reads the arc of a node at the given position.
+         */
+        void readArc(Node node, long at, Arc arc) {
+            pos = at;
+            arc.pos = at;
+            arc.label = (char) readVLong();
+            arc.output = readVLong();
+            arc.target = readVLong();
+            arc.next = node.bytesPerArc > 0 ? at + node.bytesPerArc : pos;
+        }
+
+
+        /*
+         * Finds the first arc of a node whose label is not less than the
+         * given one and reads it.
+         *
+         * @return
+         *     The index of the arc or the number of arcs if there is none.
+         */
+        int findArc(Node node, char label, Arc arc) {
+            if (node.bytesPerArc > 0) {
+                int lo = 0;
+                int hi = node.numArcs - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    pos = node.arcs + (long) mid * node.bytesPerArc;
+                    if ((char) readVLong() < label)
+                        lo = mid + 1;
+                    else
+                        hi = mid - 1;
+                }
+                if (lo < node.numArcs)
+                    readArc(node, node.arcs + (long) lo * node.bytesPerArc, arc);
+
+                return lo;
+            }
+
+            long at = node.arcs;
+            for (int i = 0; i < node.numArcs; i++) {
+                readArc(node, at, arc);
+                if (arc.label >= label)
+                    return i;
+                at = arc.next;
+            }
+
+            return node.numArcs;
+        }
+
+
+        /*
+         * Reads a variable-length long.
+         */
+        private long readVLong() {
+            byte b = file.readByte(pos++);
+            long v = b & 0x7fL;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = file.readByte(pos++);
+                v |= (b & 0x7fL) << shift;
+            }
+
+            return v;
+        }
+
+    }
+
+
+    /*
+     * Walks the transducer depth first, arcs in label order, reporting the
+     * terms on the way down, optionally along with an automaton.
+     */
+    private class FstTermIterator extends TermIterator {
+
+        /* The automaton the terms must be accepted by, if any. */
+        private final TermAutomaton automaton;
+
+        /* The reader. */
+        private final Cursor in = new Cursor();
+
+        /* A scratch arc. */
+        private final Arc arc = new Arc();
+
+        /* The nodes along the current path. */
+        private Node[] nodes = new Node[0];
+
+        /*
+         * The index of the next arc to follow out of every node along the
+         * path; -1 if the node itself is yet to be reported.
+         */
+        private int[] arcIndexes = new int[0];
+
+        /* The position of the next arc to follow out of every node. */
+        private long[] arcPositions = new long[0];
+
+        /* The output accumulated up to every node along the path. */
+        private long[] outputs = new long[0];
+
+        /* The automaton state at every node along the path. */
+        private int[] states = new int[0];
+
+        /* The labels along the path. */
+        private char[] labels = new char[0];
+
+        /* The depth of the current node; -1 once done. */
+        private int depth = -1;
+
+        /* The current term, decoded on demand. */
+        private String term = null;
+
+        /* The length of the current term. */
+        private int termLength = 0;
+
+        /* The offset of the current term. */
+        private long offset = -1;
+
+
+        /*
+         * Constructor.
+         */
+        FstTermIterator(TermAutomaton automaton) {
+            this.automaton = automaton;
+
+            int state = automaton == null ? 0 : automaton.getInitialState();
+            if (state >= 0)
+                push(root, 0, state, (char) 0);
+        }
+
+
+        /*
+         * Moves to just before the first term not less than the given one.
+         */
+        void seek(String from) {
+            for (int i = 0; i < from.length() && depth >= 0; i++) {
+                // Shorter than the target, so the node itself comes before.
+                Node node = nodes[depth];
+                char c = from.charAt(i);
+                int index = in.findArc(node, c, arc);
+                arcIndexes[depth] = index;
+                if (index == node.numArcs)
+                    return;
+                arcPositions[depth] = arc.pos;
+                if (arc.label != c)
+                    return;
+
+                arcIndexes[depth] = index + 1;
+                arcPositions[depth] = arc.next;
+                push(arc.target, outputs[depth] + arc.output, 0, c);
+            }
+        }
+
+
+        /*
+         * Goes down an arc, to a node yet to be reported.
+         */
+        private void push(long address, long output, int state, char label) {
+            depth++;
+            if (depth == nodes.length) {
+                int n = Math.max(8, 2 * depth);
+                nodes = Arrays.copyOf(nodes, n);
+                for (int i = depth; i < n; i++) {
+                    nodes[i] = new Node();
+                }
+                arcIndexes = Arrays.copyOf(arcIndexes, n);
+                arcPositions = Arrays.copyOf(arcPositions, n);
+                outputs = Arrays.copyOf(outputs, n);
+                states = Arrays.copyOf(states, n);
+                labels = Arrays.copyOf(labels, n);
+            }
+
+            in.readNode(address, nodes[depth]);
+            arcIndexes[depth] = -1;
+            arcPositions[depth] = nodes[depth].arcs;
+            outputs[depth] = output;
+            states[depth] = state;
+            if (depth > 0)
+                labels[depth - 1] = label;
+        }
+
+
+        // -- Override
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#next()
+         */
+        @Override
+        public boolean next() {
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (arcIndexes[depth] < 0) {
+                    arcIndexes[depth] = 0;
+                    if (node.isFinal && (automaton == null || automaton.isAccept(states[depth]))) {
+                        term = null;
+                        termLength = depth;
+                        offset = outputs[depth] + node.finalOutput;
+                        return true;
+                    }
+                }
+
+                if (arcIndexes[depth] < node.numArcs) {
+                    in.readArc(node, arcPositions[depth], arc);
+                    arcIndexes[depth]++;
+                    arcPositions[depth] = arc.next;
+
+                    int state = 0;
+                    if (automaton != null) {
+                        state = automaton.step(states[depth], arc.label);
+                        if (state < 0)
+                            continue;
+                    }
+                    push(arc.target, outputs[depth] + arc.output, state, arc.label);
+                }
+                else {
+                    depth--;
+                }
+            }
+
+            return false;
+        }
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#term()
+         */
+        @Override
+        public String term() {
+            if (term == null)
+                term = new String(labels, 0, termLength);
+
+            return term;
+        }
+
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TermIterator#offset()
+         */
+        @Override
+        public long offset() {
+            return offset;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+package yocto.storage;
+
+/**
+ * A cursor over the impacts of a postings list: for every block of
+ * {@value ImpactsReader#BLOCK_SIZE} postings, the last document id of the
+ * block, the highest term frequency and the lowest norm found in it.
+ *
+ * A document scores the more the more the term occurs in it and the shorter
+ * it is, so scoring the highest frequency along with the lowest norm of a
+ * block gives an upper bound of the scores of all its documents, whatever
+ * the ranking function's parameters. The highest frequency and lowest norm
+ * of the whole list bound the scores of all its documents likewise.
+ *
+ * Moves forward only. Not thread-safe.
+ *
+ * @author billy
+ */
+public final class Impacts {
+
+    /* The impacts file. */
+    private final MappedFile file;
+
+    /* The number of blocks. */
+    private final int numBlocks;
+
+    /* The highest term frequency and lowest norm of the whole list. */
+    private final int listMaxFreq;
+    private final int listMinNorm;
+
+    /* The position of the next block's entry. */
+    private long pos;
+
+    /* The current block. */
+    private int block = -1;
+    private long blockLast = -1;
+    private int maxFreq;
+    private int minNorm;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The impacts file.
+     * @param pos
+     *     The position of the impacts of the postings list.
+     */
+    Impacts(MappedFile file, long pos) {
+        this.file = file;
+        this.pos = pos;
+        this.numBlocks = (int) readVLong();
+        this.listMaxFreq = (int) readVLong();
+        this.listMinNorm = file.readByte(this.pos++) & 0xff;
+    }
+
+
+    /**
+     * Gets the highest term frequency of the whole list.
+     *
+     * @return
+     *     The frequency.
+     */
+    public int listMaxFreq() {
+        return listMaxFreq;
+    }
+
+
+    /**
+     * Gets the lowest norm of the whole list.
+     *
+     * @return
+     *     The norm, in {@code [0, 255]}.
+     */
+    public int listMinNorm() {
+        return listMinNorm;
+    }
+
+
+    /**
+     * Moves to the next block.
+     *
+     * @return
+     *     {@code true} if there was one; otherwise the cursor is past the
+     *     last block, with a highest frequency of {@code 0}.
+     */
+    public boolean nextBlock() {
+        if (block + 1 >= numBlocks) {
+            block = numBlocks;
+            blockLast = PostingsIterator.NO_MORE_DOCS;
+            maxFreq = 0;
+            minNorm = 0;
+            return false;
+        }
+
+        block++;
+        blockLast = Math.max(blockLast, 0) + readVLong();
+        maxFreq = (int) readVLong();
+        minNorm = file.readByte(pos++) & 0xff;
+
+        return true;
+    }
+
+
+    /**
+     * Moves to the block a target document id would fall in.
+     *
+     * @param target
+     *     The target document id.
+     *
+     * @return
+     *     The last document id of the block or
+     *     {@link PostingsIterator#NO_MORE_DOCS} if the target is past the
+     *     last block.
+     */
+    public long advanceShallow(long target) {
+        while (blockLast < target && nextBlock())
+            ;
+
+        return blockLast;
+    }
+
+
+    /**
+     * Gets the last document id of the current block.
+     *
+     * @return
+     *     The document id.
+     */
+    public long blockLast() {
+        return blockLast;
+    }
+
+
+    /**
+     * Gets the highest term frequency of the current block.
+     *
+     * @return
+     *     The frequency.
+     */
+    public int maxFreq() {
+        return maxFreq;
+    }
+
+
+    /**
+     * Gets the lowest norm of the current block.
+     *
+     * @return
+     *     The norm, in {@code [0, 255]}.
+     */
+    public int minNorm() {
+        return minNorm;
+    }
+
+
+    /*
+     * Reads a long written in variable-byte format.
+     */
+    private long readVLong() {
+        byte b = file.readByte(pos++);
+        long l = b & 0x7fL;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = file.readByte(pos++);
+            l |= (b & 0x7fL) << shift;
+        }
+
+        return l;
+    }
+
+}
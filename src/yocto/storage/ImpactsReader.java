@@ -0,0 +1,263 @@
+package yocto.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Looks the impacts of postings lists up straight off a memory-mapped
+ * impacts file.
+ *
+ * The impacts of a list (see {@link Impacts}) bound the scores of its
+ * documents, block by block, so that a ranked query may skip the blocks
+ * that cannot make it to the top hits. Only lists of at least a block are
+ * recorded; shorter ones have nothing to skip. The file is
+ *
+ * {@code [int magic][int version][long numLists][long tableOffset][impacts*][(long postingsOffset, long impactsOffset)*]}
+ *
+ * where the impacts of a list are
+ *
+ * {@code [VLong numBlocks][VLong maxFreq][byte minNorm][(VLong last id gap, VLong maxFreq, byte minNorm)*]}
+ *
+ * the highest frequency and lowest norm of the whole list coming first, to
+ * bound its scores without walking its blocks, and the table maps the offsets of the lists in the postings file to
+ * those of their impacts, in increasing order, to be binary searched in
+ * place.
+ *
+ * Thread-safe; the cursors handed out are not.
+ *
+ * @author billy
+ */
+public class ImpactsReader implements Closeable {
+
+    /** The number of postings per block. */
+    public static final int BLOCK_SIZE = BlockPostingsCodec.BLOCK_SIZE;
+
+    /* The magic number impacts files start with, "YIMP". */
+    private static final int MAGIC = 0x59494d50;
+
+    /* The version of the impacts file format. */
+    private static final int VERSION = 2;
+
+    /* The length of the header. */
+    private static final int HEADER_LENGTH = 24;
+
+    /* The length of a table record. */
+    private static final int RECORD_LENGTH = 16;
+
+    /* The impacts file. */
+    private final MappedFile file;
+
+    /* The number of lists. */
+    private final long size;
+
+    /* The position of the table. */
+    private final long tableOffset;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The impacts file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not an impacts file.
+     */
+    public ImpactsReader(File file) throws IOException {
+        this.file = new MappedFile(file);
+
+        if (this.file.length() < HEADER_LENGTH
+                || this.file.readInt(0) != MAGIC
+                || this.file.readInt(4) != VERSION) {
+            this.file.close();
+            throw new IOException("Not a supported impacts file: " + file);
+        }
+        this.size = this.file.readLong(8);
+        this.tableOffset = this.file.readLong(16);
+    }
+
+
+    /**
+     * Gets a cursor over the impacts of a postings list.
+     *
+     * @param postingsOffset
+     *     The offset of the postings list in the postings file.
+     *
+     * @return
+     *     The impacts or {@code null} if the list is not recorded.
+     */
+    public Impacts impacts(long postingsOffset) {
+        long lo = 0;
+        long hi = size - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long offset = file.readLong(tableOffset + mid * RECORD_LENGTH);
+            if (offset < postingsOffset)
+                lo = mid + 1;
+            else if (offset > postingsOffset)
+                hi = mid - 1;
+            else
+                return new Impacts(file,
+                        file.readLong(tableOffset + mid * RECORD_LENGTH + 8));
+        }
+
+        return null;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        file.close();
+    }
+
+
+    // -- Inner classes
+
+
+    /**
+     * Builds an impacts file out of postings lists, in the order they are
+     * found in the postings file.
+     *
+     * Not thread-safe.
+     */
+    public static final class Builder {
+
+        /* The impacts of the lists added so far. */
+        private final ByteArrayOutputStream bytes;
+        private final DataOutputStream data;
+
+        /* The impacts of the blocks of the list being added. */
+        private final ByteArrayOutputStream blockBytes;
+        private final DataOutputStream blockData;
+
+        /* The offsets of the lists and of their impacts. */
+        private long[] postingsOffsets;
+        private long[] impactsOffsets;
+        private int size;
+
+
+        /**
+         * Constructor.
+         */
+        public Builder() {
+            this.bytes = new ByteArrayOutputStream();
+            this.data = new DataOutputStream(bytes);
+            this.blockBytes = new ByteArrayOutputStream();
+            this.blockData = new DataOutputStream(blockBytes);
+            this.postingsOffsets = new long[16];
+            this.impactsOffsets = new long[16];
+        }
+
+
+        /**
+         * Adds the impacts of a postings list. Lists shorter than a block
+         * are passed over.
+         *
+         * @param postingsOffset
+         *     The offset of the list in the postings file; greater than the
+         *     ones added before.
+         * @param postings
+         *     The postings of the list, not moved yet.
+         * @param norms
+         *     The norms of the documents, or {@code null} if there are none.
+         *
+         * @throws IOException
+         *     Never, as the impacts are kept in memory until saved.
+         */
+        public void add(long postingsOffset, PostingsIterator postings, NormsReader norms)
+                throws IOException {
+            int count = postings.size();
+            if (count < BLOCK_SIZE)
+                return;
+            if (size > 0 && postingsOffset <= postingsOffsets[size - 1])
+                throw new IllegalArgumentException("Postings offsets out of order: "
+                        + postingsOffset + " after " + postingsOffsets[size - 1]);
+
+            if (size == postingsOffsets.length) {
+                postingsOffsets = Arrays.copyOf(postingsOffsets, size << 1);
+                impactsOffsets = Arrays.copyOf(impactsOffsets, size << 1);
+            }
+            postingsOffsets[size] = postingsOffset;
+            impactsOffsets[size] = HEADER_LENGTH + (long) data.size();
+            size++;
+
+            blockBytes.reset();
+            long previous = 0;
+            long docId = 0;
+            int listMaxFreq = 0;
+            int listMinNorm = 255;
+            for (int start = 0; start < count; start += BLOCK_SIZE) {
+                int maxFreq = 0;
+                int minNorm = 255;
+                for (int i = start, end = Math.min(count, start + BLOCK_SIZE); i < end; i++) {
+                    docId = postings.nextDoc();
+                    maxFreq = Math.max(maxFreq, postings.freq());
+                    minNorm = Math.min(minNorm, norms == null ? 0 : norms.norm(docId));
+                }
+                writeVLong(blockData, docId - previous);
+                writeVLong(blockData, maxFreq);
+                blockData.writeByte(minNorm);
+                previous = docId;
+                listMaxFreq = Math.max(listMaxFreq, maxFreq);
+                listMinNorm = Math.min(listMinNorm, minNorm);
+            }
+
+            writeVLong(data, (count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            writeVLong(data, listMaxFreq);
+            data.writeByte(listMinNorm);
+            blockBytes.writeTo(data);
+        }
+
+
+        /**
+         * Writes the impacts file.
+         *
+         * @param file
+         *     The file to write.
+         *
+         * @throws IOException
+         *     When unable to write the file.
+         */
+        public void save(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), 8 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(HEADER_LENGTH + (long) data.size());
+                bytes.writeTo(out);
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(postingsOffsets[i]);
+                    out.writeLong(impactsOffsets[i]);
+                }
+            }
+        }
+
+
+        /*
+         * Writes a non-negative long in variable-byte format.
+         */
+        private static void writeVLong(DataOutput out, long l) throws IOException {
+            while ((l & ~0x7fL) != 0) {
+                out.writeByte((int) ((l & 0x7f) | 0x80));
+                l >>>= 7;
+            }
+            out.writeByte((int) l);
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package yocto.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only file mapped into memory.
+ *
+ * A single {@code MappedByteBuffer} cannot address more than 2 GB, so the
+ * file is mapped in chunks of 1 GB and reads crossing the border of two
+ * chunks are stitched together.
+ *
+ * Reads are positional and never move the buffers' positions, thus a mapped
+ * file can be read by many threads at once.
+ *
+ * @author billy
+ */
+public class MappedFile implements Closeable {
+
+    /* The size of a chunk is 2^CHUNK_BITS bytes. */
+    private static final int CHUNK_BITS = 30;
+
+    /* The mask of the position within a chunk. */
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    /* The mapped chunks. */
+    private final ByteBuffer[] chunks;
+
+    /* The length of the file. */
+    private final long length;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The file to map.
+     *
+     * @throws IOException
+     *     When unable to open or map the file.
+     */
+    public MappedFile(File file) throws IOException {
+        try (   RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel();)
+        {
+            this.length = channel.size();
+
+            int numChunks = (int) ((length + CHUNK_MASK) >>> CHUNK_BITS);
+            this.chunks = new ByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = (long) i << CHUNK_BITS;
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                        start, Math.min(1L << CHUNK_BITS, length - start));
+                chunks[i] = chunk;
+            }
+        }
+        // The mappings stay valid once the channel is closed.
+    }
+
+
+    /**
+     * Gets the length of the file.
+     *
+     * @return
+     *     The length in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+
+    /**
+     * Reads a byte.
+     *
+     * @param pos
+     *     The position in the file.
+     *
+     * @return
+     *     The byte.
+     */
+    public byte readByte(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+
+    /**
+     * Reads an integer written by {@link java.io.DataOutput#writeInt(int)}.
+     *
+     * @param pos
+     *     The position in the file.
+     *
+     * @return
+     *     The integer.
+     */
+    public int readInt(long pos) {
+        int index = (int) (pos & CHUNK_MASK);
+        ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+        if (index + 4 <= chunk.limit())
+            return chunk.getInt(index);
+
+        return ((readByte(pos) & 0xff) << 24) | ((readByte(pos + 1) & 0xff) << 16)
+                | ((readByte(pos + 2) & 0xff) << 8) | (readByte(pos + 3) & 0xff);
+    }
+
+
+    /**
+     * Reads a long written by {@link java.io.DataOutput#writeLong(long)}.
+     *
+     * @param pos
+     *     The position in the file.
+     *
+     * @return
+     *     The long.
+     */
+    public long readLong(long pos) {
+        int index = (int) (pos & CHUNK_MASK);
+        ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+        if (index + 8 <= chunk.limit())
+            return chunk.getLong(index);
+
+        return ((long) readInt(pos) << 32) | (readInt(pos + 4) & 0xffffffffL);
+    }
+
+
+    /**
+     * Reads a sequence of bytes.
+     *
+     * @param pos
+     *     The position in the file.
+     * @param dst
+     *     The array to read into.
+     * @param offset
+     *     The offset in the array.
+     * @param len
+     *     The number of bytes to read.
+     */
+    public void readBytes(long pos, byte[] dst, int offset, int len) {
+        while (len > 0) {
+            int index = (int) (pos & CHUNK_MASK);
+            // A duplicate, so that the shared buffer's position stays put.
+            ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)].duplicate();
+            int n = Math.min(len, chunk.limit() - index);
+            chunk.position(index);
+            chunk.get(dst, offset, n);
+
+            pos += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+
+    /**
+     * Gets a view of a range of the file, to be read in place.
+     *
+     * A range within a chunk, as nearly all are, is not copied; one crossing
+     * the border of two chunks is.
+     *
+     * @param pos
+     *     The position of the range in the file.
+     * @param len
+     *     The length of the range.
+     *
+     * @return
+     *     A buffer holding the range from index 0; read-only unless copied.
+     */
+    public ByteBuffer view(long pos, int len) {
+        int index = (int) (pos & CHUNK_MASK);
+        ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+        if (index + len <= chunk.limit()) {
+            // A duplicate, so that the shared buffer's position stays put.
+            ByteBuffer view = chunk.duplicate();
+            view.position(index);
+            view.limit(index + len);
+            return view.slice();
+        }
+
+        byte[] range = new byte[len];
+        readBytes(pos, range, 0, len);
+
+        return ByteBuffer.wrap(range);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        // There is no portable way to unmap a buffer; the mappings are
+        // released once the buffers are garbage collected.
+    }
+
+}
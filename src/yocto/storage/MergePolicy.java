@@ -0,0 +1,51 @@
+package yocto.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which segments are merged together, and when.
+ *
+ * The {@link DiskManager} consults its policy every time a segment is
+ * written, passing the segments that are not already being merged. Every
+ * set of segments returned is merged by a separate task, possibly in
+ * parallel, so the sets must not overlap.
+ *
+ * @author billy
+ */
+public abstract class MergePolicy {
+
+    /**
+     * Finds the merges to run next.
+     *
+     * @param segments
+     *     The segments not currently being merged.
+     *
+     * @return
+     *     The sets of segments to merge, not overlapping; an empty list if
+     *     nothing should be merged yet.
+     */
+    public abstract List<List<Segment>> findMerges(List<Segment> segments);
+
+
+    /**
+     * Finds the merge that makes the final index out of the segments left
+     * once indexing is over.
+     *
+     * By default all the segments are merged in one pass.
+     *
+     * @param segments
+     *     The segments left.
+     *
+     * @return
+     *     The segments to merge into the final index; an empty list if there
+     *     is nothing to merge.
+     */
+    public List<Segment> findFinalMerge(List<Segment> segments) {
+        if (segments.size() < 2)
+            return new ArrayList<Segment>();
+
+        return new ArrayList<Segment>(segments);
+    }
+
+}
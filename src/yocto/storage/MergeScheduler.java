@@ -0,0 +1,104 @@
+package yocto.storage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs segment merges in the background, on a pool of merging threads.
+ *
+ * Merges of different sets of segments run concurrently, so on machines
+ * with enough disk bandwidth merging keeps up with indexing instead of
+ * piling up at the end.
+ *
+ * @author billy
+ */
+public class MergeScheduler {
+
+    /* The thread manager for segment merges */
+    private final ExecutorService mergers;
+
+    /*
+     * A Queue of futures for the submitted merges. Offered to by both the
+     * inverting threads and the merging threads, since a merge may trigger
+     * another.
+     */
+    private final Queue<Future<?>> futures;
+
+
+    /**
+     * Constructor.
+     *
+     * @param numThreads
+     *     The number of merges that may run at the same time.
+     */
+    public MergeScheduler(int numThreads) {
+        if (numThreads < 1)
+            throw new IllegalArgumentException("Number of merging threads must be positive.");
+
+        this.mergers = Executors.newFixedThreadPool(numThreads);
+        this.futures = new ConcurrentLinkedQueue<Future<?>>();
+    }
+
+
+    /**
+     * Schedules a merge.
+     *
+     * @param task
+     *     The merge task.
+     */
+    public void merge(MergeTask task) {
+        futures.add(mergers.submit(task));
+    }
+
+
+    /**
+     * Waits until all scheduled merges, including the ones scheduled in the
+     * meantime, have concluded.
+     */
+    public void sync() {
+        Future<?> future;
+        while ((future = futures.poll()) != null) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * Waits for the scheduled merges and stops the merging threads.
+     */
+    public void close() {
+        sync();
+
+        mergers.shutdown(); // Disable new tasks from being submitted
+
+        try {
+            // Wait a while for existing tasks to terminate
+            if (!mergers.awaitTermination(60, TimeUnit.SECONDS)) {
+                mergers.shutdownNow(); // Cancel currently executing tasks
+                // Wait a while for tasks to respond to being cancelled
+                if (!mergers.awaitTermination(60, TimeUnit.SECONDS)) {
+                    System.err.println("Pool did not terminate.");
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            ie.printStackTrace();
+
+            // (Re-)Cancel if current thread also interrupted
+            mergers.shutdownNow();
+            // Preserve interrupt status
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -1,17 +1,16 @@
 package yocto.storage;
 
+import java.util.List;
+
 /**
- * A runnable task for merging two segments in a different thread.
+ * A runnable task for merging segments in a different thread.
  *
  * @author billy
  */
 public class MergeTask implements Runnable{
 
-    /* The first segment to merge. */
-    private final Segment one;
-
-    /* The second segment to merge. */
-    private final Segment two;
+    /* The segments to merge. */
+    private final List<Segment> segments;
 
     /* The parent of this task */
     private final DiskManager dm;
@@ -20,16 +19,13 @@ public class MergeTask implements Runnable{
     /**
      * Constructor.
      *
-     * @param one
-     *     The first segment to merge.
-     * @param two
-     *     The second segment to merge.
+     * @param segments
+     *     The segments to merge.
      * @param dm
      *     The parent of this task.
      */
-    public MergeTask(Segment one, Segment two, DiskManager dm) {
-        this.one = one;
-        this.two = two;
+    public MergeTask(List<Segment> segments, DiskManager dm) {
+        this.segments = segments;
         this.dm = dm;
     }
 
@@ -37,22 +33,12 @@ public class MergeTask implements Runnable{
     // -- Getters
 
     /**
-     * Gets the first segment associated with this merge task.
-     *
-     * @return The first segment.
-     */
-    public Segment getOne() {
-        return one;
-    }
-
-
-    /**
-     * Gets the second segment associated with this merge task.
+     * Gets the segments associated with this merge task.
      *
-     * @return The second segment.
+     * @return The segments.
      */
-    public Segment getTwo() {
-        return two;
+    public List<Segment> getSegments() {
+        return segments;
     }
 
 
@@ -64,9 +50,10 @@ public class MergeTask implements Runnable{
      */
     @Override
     public void run() {
-        this.dm.mergeSegmentsOnDisk(one, two);
-        one.deleteFiles();
-        two.deleteFiles();
+        this.dm.mergeSegmentsOnDisk(segments);
+        for (Segment segment : segments) {
+            segment.deleteFiles();
+        }
     }
 
 }
@@ -0,0 +1,200 @@
+package yocto.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Looks document lengths up straight off a memory-mapped norms file.
+ *
+ * The norms file holds a header followed by one byte per document, at the
+ * position of the document's id:
+ *
+ * {@code [int magic][int version][long numDocs][long totalLength][byte norm*]}
+ *
+ * Document ids being dense enough, direct addressing costs less than
+ * storing the ids along. A norm is the length of the document in tokens,
+ * stored lossily: lengths under 16 exactly and longer ones with a 4-bit
+ * significand, that is within 12.5% (see {@link #encodeLength(int)}).
+ * Scoring only needs the length roughly, relative to the average length,
+ * which is kept exactly in the header.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class NormsReader implements Closeable {
+
+    /** The magic number norms files start with, {@code "YNRM"}. */
+    static final int MAGIC = 0x594e524d;
+
+    /** The version of the norms file format. */
+    static final int VERSION = 1;
+
+    /** The length of the header. */
+    static final int HEADER_LENGTH = 24;
+
+    /* The decoded lengths, by norm. */
+    private static final int[] DECODE_TABLE = new int[256];
+    static {
+        for (int i = 0; i < DECODE_TABLE.length; i++) {
+            DECODE_TABLE[i] = decode(i);
+        }
+    }
+
+    /* The norms file. */
+    private final MappedFile file;
+
+    /* The number of documents. */
+    private final long numDocs;
+
+    /* The sum of the lengths of all documents. */
+    private final long totalLength;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The norms file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a norms file.
+     */
+    public NormsReader(File file) throws IOException {
+        this.file = new MappedFile(file);
+
+        if (this.file.length() < HEADER_LENGTH
+                || this.file.readInt(0) != MAGIC
+                || this.file.readInt(4) != VERSION) {
+            this.file.close();
+            throw new IOException("Not a supported norms file: " + file);
+        }
+        this.numDocs = this.file.readLong(8);
+        this.totalLength = this.file.readLong(16);
+    }
+
+
+    /**
+     * Gets the number of documents.
+     *
+     * @return
+     *     The number of documents.
+     */
+    public long numDocs() {
+        return numDocs;
+    }
+
+
+    /**
+     * Gets the average length of the documents.
+     *
+     * @return
+     *     The average length in tokens, or {@code 0} if there are no
+     *     documents.
+     */
+    public float averageLength() {
+        return numDocs == 0 ? 0 : (float) ((double) totalLength / numDocs);
+    }
+
+
+    /**
+     * Gets the norm of a document.
+     *
+     * @param docId
+     *     The document id.
+     *
+     * @return
+     *     The norm, {@code 0} if the document has none.
+     */
+    public int norm(long docId) {
+        if (docId < 0 || docId >= file.length() - HEADER_LENGTH)
+            return 0;
+
+        return file.readByte(HEADER_LENGTH + docId) & 0xff;
+    }
+
+
+    /**
+     * Gets the length of a document, as approximated by its norm.
+     *
+     * @param docId
+     *     The document id.
+     *
+     * @return
+     *     The length in tokens.
+     */
+    public int length(long docId) {
+        return DECODE_TABLE[norm(docId)];
+    }
+
+
+    /**
+     * Encodes a document length into a norm.
+     *
+     * Lengths under 16 are kept as they are. Longer ones keep their four
+     * highest bits, the first of which is always set: the norm is
+     * {@code 16 + 8 * (shift - 1) + mantissa}, where {@code shift} is the
+     * number of bits dropped and {@code mantissa} the three bits following
+     * the highest one. Lengths are rounded down.
+     *
+     * @param length
+     *     The length, non-negative.
+     *
+     * @return
+     *     The norm, in {@code [0, 255]}.
+     */
+    public static byte encodeLength(int length) {
+        if (length < 16)
+            return (byte) length;
+
+        int shift = 32 - Integer.numberOfLeadingZeros(length) - 4;
+        int mantissa = (length >>> shift) & 7;
+
+        return (byte) (16 + ((shift - 1) << 3) + mantissa);
+    }
+
+
+    /**
+     * Decodes a norm into a document length.
+     *
+     * @param norm
+     *     The norm, in {@code [0, 255]}.
+     *
+     * @return
+     *     The length.
+     */
+    public static int decodeLength(int norm) {
+        return DECODE_TABLE[norm & 0xff];
+    }
+
+
+    /*
+     * Computes the length of a norm.
+     */
+    private static int decode(int norm) {
+        if (norm < 16)
+            return norm;
+
+        int shift = ((norm - 16) >>> 3) + 1;
+        int mantissa = (norm - 16) & 7;
+        if (shift > 27)
+            // Beyond the lengths an int holds.
+            return Integer.MAX_VALUE;
+
+        return (8 | mantissa) << shift;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        file.close();
+    }
+
+}
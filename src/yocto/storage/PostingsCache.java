@@ -0,0 +1,429 @@
+package yocto.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of decoded postings lists, shared by the queries over a number of
+ * postings files, evicting the least recently used lists.
+ *
+ * Lists are keyed by the postings file, or segment, they are read from and
+ * their offset in it. Only lists of a minimum number of documents are
+ * cached: they are the ones costly to decode, and the ones frequently
+ * asked for stay; shorter lists keep being decoded straight off the mapped
+ * file. The decoded lists are bounded by a number of bytes, and may be kept
+ * on or off the heap.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class PostingsCache {
+
+    /**
+     * The default maximum number of bytes of the decoded lists.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The default minimum number of documents of the lists cached.
+     */
+    public static final int DEFAULT_MIN_DOCS = 128;
+
+    /* The bytes a decoded posting takes: a document id and a frequency. */
+    private static final int BYTES_PER_POSTING = 8 + 4;
+
+    /* The estimated overhead of an entry, on top of its postings. */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /* The maximum number of bytes of the decoded lists. */
+    private final long maxBytes;
+
+    /* The minimum number of documents of the lists cached. */
+    private final int minDocs;
+
+    /* Whether the decoded lists are kept off the heap. */
+    private final boolean offHeap;
+
+    /* The decoded lists, least recently used first. */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /* The number of bytes of the decoded lists. */
+    private long bytes;
+
+    /* The number of look-ups that found the list. */
+    private long hits;
+
+    /* The number of look-ups that did not. */
+    private long misses;
+
+    /* The number of lists evicted to make room. */
+    private long evictions;
+
+    /* The number of postings decoded for the lists not found. */
+    private long missPostings;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes
+     *     The maximum number of bytes of the decoded lists.
+     * @param minDocs
+     *     The minimum number of documents of the lists cached.
+     * @param offHeap
+     *     Whether to keep the decoded lists in direct buffers, off the heap.
+     */
+    public PostingsCache(long maxBytes, int minDocs, boolean offHeap) {
+        if (maxBytes <= 0 || minDocs < 0)
+            throw new IllegalArgumentException("Invalid cache bounds: " + maxBytes + ", " + minDocs);
+
+        this.maxBytes = maxBytes;
+        this.minDocs = minDocs;
+        this.offHeap = offHeap;
+        // In access order, for the eldest entry to be the least recently used.
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+
+
+    /**
+     * Tells whether a list of the given number of documents is cached.
+     *
+     * @param count
+     *     The number of documents of the list.
+     *
+     * @return
+     *     Whether to look the list up.
+     */
+    boolean caches(int count) {
+        return count >= minDocs
+                && ENTRY_OVERHEAD + (long) BYTES_PER_POSTING * count <= maxBytes;
+    }
+
+
+    /**
+     * Looks a list up.
+     *
+     * @param segment
+     *     The id of the postings file of the list.
+     * @param offset
+     *     The offset of the list in the file.
+     *
+     * @return
+     *     An iterator over the list, or {@code null} if not cached.
+     */
+    PostingsIterator get(long segment, long offset) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new Key(segment, offset));
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+
+        return new DecodedPostingsIterator(entry);
+    }
+
+
+    /**
+     * Caches a list, evicting the least recently used ones to make room.
+     *
+     * @param segment
+     *     The id of the postings file of the list.
+     * @param offset
+     *     The offset of the list in the file.
+     * @param postings
+     *     An iterator over the list, not moved yet.
+     *
+     * @return
+     *     An iterator over the cached list.
+     */
+    PostingsIterator put(long segment, long offset, PostingsIterator postings) {
+        // Decoded outside the lock; two threads may decode the same list.
+        int count = postings.size();
+        long[] docIds = new long[count];
+        int[] freqs = new int[count];
+        for (int i = 0; i < count; i++) {
+            docIds[i] = postings.nextDoc();
+            freqs[i] = postings.freq();
+        }
+        Entry entry = new Entry(docIds, freqs, offHeap);
+
+        synchronized (this) {
+            missPostings += count;
+            Entry previous = entries.put(new Key(segment, offset), entry);
+            if (previous != null)
+                bytes -= previous.bytes;
+            bytes += entry.bytes;
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= eldest.next().bytes;
+                eldest.remove();
+                evictions++;
+            }
+        }
+
+        return new DecodedPostingsIterator(entry);
+    }
+
+
+    /**
+     * Drops the lists of a postings file, as when it is closed.
+     *
+     * @param segment
+     *     The id of the postings file.
+     */
+    synchronized void remove(long segment) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().segment == segment) {
+                bytes -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the lists.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+
+    /**
+     * Gets the number of look-ups that found the list.
+     *
+     * @return
+     *     The number of hits.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of look-ups that did not find the list. Lists too short
+     * to be cached are not looked up.
+     *
+     * @return
+     *     The number of misses.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+
+    /**
+     * Gets the number of lists evicted to make room for others.
+     *
+     * @return
+     *     The number of evictions.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Gets the number of postings decoded to cache the lists not found. Over
+     * the number of misses, it tells the size of the lists sought.
+     *
+     * @return
+     *     The number of postings.
+     */
+    public synchronized long missPostings() {
+        return missPostings;
+    }
+
+
+    /**
+     * Gets the number of lists.
+     *
+     * @return
+     *     The number of lists.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Gets the number of bytes of the decoded lists.
+     *
+     * @return
+     *     The number of bytes.
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "lists: " + entries.size() + " | size(MB): "
+                + String.format("%5.2f", bytes / 1024.0 / 1024.0)
+                + " | hits: " + hits + " | misses: " + misses
+                + " | evictions: " + evictions + " | miss postings: " + missPostings;
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * The key of a list: its postings file and offset.
+     */
+    private static final class Key {
+
+        private final long segment;
+        private final long offset;
+
+        Key(long segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (segment ^ (segment >>> 32));
+            result = prime * result + (int) (offset ^ (offset >>> 32));
+
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+
+            Key other = (Key) obj;
+
+            return this.segment == other.segment && this.offset == other.offset;
+        }
+
+    }
+
+
+    /*
+     * A decoded list. Read with absolute gets only, so it can be shared.
+     */
+    private static final class Entry {
+
+        private final LongBuffer docIds;
+        private final IntBuffer freqs;
+        private final int count;
+        private final long bytes;
+
+        Entry(long[] docIds, int[] freqs, boolean offHeap) {
+            this.count = docIds.length;
+            this.bytes = ENTRY_OVERHEAD + (long) BYTES_PER_POSTING * count;
+            if (offHeap) {
+                this.docIds = ByteBuffer.allocateDirect(count * 8).asLongBuffer().put(docIds);
+                this.freqs = ByteBuffer.allocateDirect(count * 4).asIntBuffer().put(freqs);
+            }
+            else {
+                this.docIds = LongBuffer.wrap(docIds);
+                this.freqs = IntBuffer.wrap(freqs);
+            }
+        }
+
+    }
+
+
+    /*
+     * An iterator over a decoded list.
+     */
+    private static final class DecodedPostingsIterator extends PostingsIterator {
+
+        private final Entry entry;
+
+        /* The index of the current document. */
+        private int index = -1;
+
+        private long doc = -1;
+
+
+        DecodedPostingsIterator(Entry entry) {
+            this.entry = entry;
+        }
+
+
+        @Override
+        public long docId() {
+            return doc;
+        }
+
+
+        @Override
+        public int freq() {
+            return entry.freqs.get(index);
+        }
+
+
+        @Override
+        public long nextDoc() {
+            if (++index >= entry.count) {
+                index = entry.count;
+                return doc = NO_MORE_DOCS;
+            }
+
+            return doc = entry.docIds.get(index);
+        }
+
+
+        @Override
+        public long advance(long target) {
+            // Gallop ahead from the current document, then binary search the
+            // last stride.
+            LongBuffer docIds = entry.docIds;
+            int lo = index + 1;
+            int step = 1;
+            int hi = lo;
+            while (hi < entry.count && docIds.get(hi) < target) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, entry.count - 1);
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docIds.get(mid) < target)
+                    lo = mid + 1;
+                else
+                    hi = mid - 1;
+            }
+            index = lo;
+
+            return doc = index < entry.count ? docIds.get(index) : NO_MORE_DOCS;
+        }
+
+
+        @Override
+        public int size() {
+            return entry.count;
+        }
+
+    }
+
+}
@@ -0,0 +1,474 @@
+package yocto.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * An encoding of the postings lists in the postings (segment and index)
+ * files.
+ *
+ * A postings file starts with a header naming the format version and the
+ * codec it was written with:
+ *
+ * {@code [int magic][int version][int codec id]}
+ *
+ * followed by one record per term:
+ *
+ * {@code [VInt number of postings][VInt payload length][payload]}
+ *
+ * The framing of the records is the same for every codec, so that a record
+ * can be copied or loaded without being decoded. Only the payload is up to
+ * the codec.
+ *
+ * Codecs are stateless and can be shared among threads.
+ *
+ * @author billy
+ */
+public abstract class PostingsCodec {
+
+    /** The first four bytes of a postings file. */
+    public static final int MAGIC = 0x59504f53;
+
+    /**
+     * The version of the postings file format. Version 2 added the term
+     * frequencies.
+     */
+    public static final int VERSION = 2;
+
+    /** The length of the postings file header, in bytes. */
+    public static final int HEADER_LENGTH = 12;
+
+    /** Gap-encoded document ids in variable-byte integers. */
+    public static final PostingsCodec VBYTE = new VBytePostingsCodec();
+
+    /** Bit-packed blocks of document id gaps, with skip data. */
+    public static final PostingsCodec BLOCK = new BlockPostingsCodec();
+
+    /* The buffer each thread encodes payloads into before framing them. */
+    private static final ThreadLocal<PayloadBuffer> payloads =
+            new ThreadLocal<PayloadBuffer>() {
+                @Override
+                protected PayloadBuffer initialValue() {
+                    return new PayloadBuffer();
+                }
+            };
+
+    /* The id of the codec, as written in the header. */
+    private final int id;
+
+    /* The name of the codec. */
+    private final String name;
+
+
+    /**
+     * Constructor.
+     *
+     * @param id
+     *     The id of the codec, as written in the header.
+     * @param name
+     *     The name of the codec.
+     */
+    protected PostingsCodec(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+
+    /**
+     * Gets the id of the codec.
+     *
+     * @return
+     *     The id, as written in the header.
+     */
+    public int getId() {
+        return id;
+    }
+
+
+    /**
+     * Gets the name of the codec.
+     *
+     * @return
+     *     The name.
+     */
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Gets the codec with the given id.
+     *
+     * @param id
+     *     The id of the codec.
+     *
+     * @return
+     *     The codec or {@code null} if there is no such codec.
+     */
+    public static PostingsCodec forId(int id) {
+        if (id == VBYTE.getId())
+            return VBYTE;
+        if (id == BLOCK.getId())
+            return BLOCK;
+
+        return null;
+    }
+
+
+    /**
+     * Gets the codec with the given name.
+     *
+     * @param name
+     *     The name of the codec.
+     *
+     * @return
+     *     The codec or {@code null} if there is no such codec.
+     */
+    public static PostingsCodec forName(String name) {
+        if (VBYTE.getName().equals(name))
+            return VBYTE;
+        if (BLOCK.getName().equals(name))
+            return BLOCK;
+
+        return null;
+    }
+
+
+    /**
+     * Encodes the document ids and term frequencies of a postings list.
+     *
+     * @param postings
+     *     The postings list; not empty.
+     * @param out
+     *     The output to write the payload to.
+     *
+     * @throws IOException
+     *     When unable to write to the given output.
+     */
+    protected abstract void encode(PostingsList postings, DataOutput out)
+            throws IOException;
+
+
+    /**
+     * Gets an iterator over the postings of a payload.
+     *
+     * The buffer is read with absolute gets only and the payload is decoded
+     * as the iterator moves, so a buffer over a mapped file is read in place
+     * and only the parts of the payload the iterator visits are touched.
+     *
+     * @param payload
+     *     The buffer holding the payload.
+     * @param offset
+     *     The offset of the payload in the buffer.
+     * @param length
+     *     The length of the payload.
+     * @param count
+     *     The number of document ids in the payload.
+     *
+     * @return
+     *     The iterator.
+     */
+    public abstract PostingsIterator iterator(ByteBuffer payload, int offset, int length,
+            int count);
+
+
+    /**
+     * Gets an iterator over the postings of a payload.
+     *
+     * @param payload
+     *     The array holding the payload.
+     * @param offset
+     *     The offset of the payload in the array.
+     * @param length
+     *     The length of the payload.
+     * @param count
+     *     The number of document ids in the payload.
+     *
+     * @return
+     *     The iterator.
+     */
+    public PostingsIterator iterator(byte[] payload, int offset, int length, int count) {
+        return iterator(ByteBuffer.wrap(payload), offset, length, count);
+    }
+
+
+    /**
+     * Decodes the postings of a payload.
+     *
+     * @param payload
+     *     The buffer holding the payload.
+     * @param offset
+     *     The offset of the payload in the buffer.
+     * @param length
+     *     The length of the payload.
+     * @param count
+     *     The number of document ids in the payload.
+     * @param docIds
+     *     The array to decode the document ids into, in increasing order.
+     * @param freqs
+     *     The array to decode the term frequencies into.
+     */
+    public void decode(byte[] payload, int offset, int length, int count, long[] docIds,
+            int[] freqs) {
+        PostingsIterator iter = iterator(payload, offset, length, count);
+        for (int i = 0; i < count; i++) {
+            docIds[i] = iter.nextDoc();
+            freqs[i] = iter.freq();
+        }
+    }
+
+
+    /**
+     * Writes the header of a postings file.
+     *
+     * @param out
+     *     The output to write to.
+     * @param codec
+     *     The codec the file will be written with.
+     *
+     * @return
+     *     The number of bytes written.
+     *
+     * @throws IOException
+     *     When unable to write to the given output.
+     */
+    public static long writeHeader(DataOutput out, PostingsCodec codec)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(codec.getId());
+
+        return HEADER_LENGTH;
+    }
+
+
+    /**
+     * Reads the header of a postings file.
+     *
+     * @param in
+     *     The input to read from, positioned at the start of the file.
+     *
+     * @return
+     *     The codec the file was written with.
+     *
+     * @throws IOException
+     *     When unable to read from the given input or if it is not a postings
+     *     file of a supported version.
+     */
+    public static PostingsCodec readHeader(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a postings file.");
+
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported postings file version: " + version + ".");
+
+        int id = in.readInt();
+        PostingsCodec codec = forId(id);
+        if (codec == null)
+            throw new IOException("Unknown postings codec: " + id + ".");
+
+        return codec;
+    }
+
+
+    /**
+     * Writes a postings record.
+     *
+     * @param out
+     *     The output to write to.
+     * @param postings
+     *     The postings list; not empty.
+     *
+     * @return
+     *     The number of bytes written.
+     *
+     * @throws IOException
+     *     When unable to write to the given output.
+     */
+    public long writePostings(DataOutput out, PostingsList postings)
+            throws IOException {
+        PayloadBuffer payload = payloads.get();
+        payload.reset();
+        encode(postings, payload.data);
+
+        long bytesWritten = writeVInt(out, postings.size());
+        bytesWritten += writeVInt(out, payload.size());
+        out.write(payload.buffer(), 0, payload.size());
+
+        return bytesWritten + payload.size();
+    }
+
+
+    /**
+     * Reads a postings record.
+     *
+     * @param in
+     *     The input to read from, positioned at the start of a record.
+     *
+     * @return
+     *     The postings list.
+     *
+     * @throws IOException
+     *     When unable to read from the given input.
+     */
+    public PostingsList readPostings(DataInput in) throws IOException {
+        int count = readVInt(in);
+        byte[] payload = new byte[readVInt(in)];
+        in.readFully(payload);
+
+        long[] docIds = new long[count];
+        int[] freqs = new int[count];
+        decode(payload, 0, payload.length, count, docIds, freqs);
+
+        return new PostingsList(docIds, freqs, count);
+    }
+
+
+    /**
+     * Reads a postings record for iterating over it.
+     *
+     * The payload is loaded as is and only decoded as the iterator moves.
+     *
+     * @param in
+     *     The input to read from, positioned at the start of a record.
+     *
+     * @return
+     *     An iterator over the postings list.
+     *
+     * @throws IOException
+     *     When unable to read from the given input.
+     */
+    public PostingsIterator readIterator(DataInput in) throws IOException {
+        int count = readVInt(in);
+        byte[] payload = new byte[readVInt(in)];
+        in.readFully(payload);
+
+        return iterator(payload, 0, payload.length, count);
+    }
+
+
+    /**
+     * Copies a postings record, as is, from one file to another.
+     *
+     * Both files must have been written with the same codec.
+     *
+     * @param in
+     *     The input to read from, positioned at the start of a record.
+     * @param out
+     *     The output to write to.
+     *
+     * @return
+     *     The number of bytes copied.
+     *
+     * @throws IOException
+     *     When unable to read from or write to the given streams.
+     */
+    public static long copyPostings(DataInput in, DataOutput out)
+            throws IOException {
+        int count = readVInt(in);
+        byte[] payload = new byte[readVInt(in)];
+        in.readFully(payload);
+
+        long bytesWritten = writeVInt(out, count);
+        bytesWritten += writeVInt(out, payload.length);
+        out.write(payload);
+
+        return bytesWritten + payload.length;
+    }
+
+
+    /**
+     * Writes a non-negative integer in one to five bytes, seven bits at a
+     * time, lowest first. The high bit of each byte tells whether more
+     * follow.
+     *
+     * @param out
+     *     The output to write to.
+     * @param i
+     *     The integer.
+     *
+     * @return
+     *     The number of bytes written.
+     *
+     * @throws IOException
+     *     When unable to write to the given output.
+     */
+    public static int writeVInt(DataOutput out, int i) throws IOException {
+        int bytesWritten = 1;
+        while ((i & ~0x7f) != 0) {
+            out.writeByte((i & 0x7f) | 0x80);
+            i >>>= 7;
+            bytesWritten++;
+        }
+        out.writeByte(i);
+
+        return bytesWritten;
+    }
+
+
+    /**
+     * Reads an integer written by {@link #writeVInt(DataOutput, int)}.
+     *
+     * @param in
+     *     The input to read from.
+     *
+     * @return
+     *     The integer.
+     *
+     * @throws IOException
+     *     When unable to read from the given input.
+     */
+    public static int readVInt(DataInput in) throws IOException {
+        byte b = in.readByte();
+        int i = b & 0x7f;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = in.readByte();
+            i |= (b & 0x7f) << shift;
+        }
+
+        return i;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * A growable buffer exposing its bytes, so that payloads can be framed
+     * without copying them.
+     */
+    private static final class PayloadBuffer extends ByteArrayOutputStream {
+
+        /* A view of the buffer for the codecs. */
+        final DataOutputStream data = new DataOutputStream(this);
+
+        PayloadBuffer() {
+            super(1024);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+    }
+
+}
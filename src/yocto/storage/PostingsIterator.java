@@ -0,0 +1,74 @@
+package yocto.storage;
+
+/**
+ * An iterator over the document ids of a postings list, in increasing order,
+ * along with the frequency of the term in each document.
+ *
+ * Unlike a {@link java.util.Iterator} it can be moved forward to a target
+ * document id, which lets codecs that keep skip data jump over the postings
+ * in between without decoding them.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+public abstract class PostingsIterator {
+
+    /**
+     * The document id returned once the iterator is exhausted. Greater than
+     * any valid document id.
+     */
+    public static final long NO_MORE_DOCS = Long.MAX_VALUE;
+
+
+    /**
+     * Gets the current document id.
+     *
+     * @return
+     *     The current document id, {@code -1} if the iterator has not been
+     *     moved yet or {@link #NO_MORE_DOCS} if it is exhausted.
+     */
+    public abstract long docId();
+
+
+    /**
+     * Gets the frequency of the term in the current document.
+     *
+     * @return
+     *     The number of occurrences of the term in the document. Undefined
+     *     unless positioned on a document.
+     */
+    public abstract int freq();
+
+
+    /**
+     * Moves to the next document id.
+     *
+     * @return
+     *     The next document id or {@link #NO_MORE_DOCS} if there is none.
+     */
+    public abstract long nextDoc();
+
+
+    /**
+     * Moves to the first document id greater than or equal to the target.
+     *
+     * @param target
+     *     The target document id; greater than the current one.
+     *
+     * @return
+     *     The first document id at or after the target or
+     *     {@link #NO_MORE_DOCS} if there is none.
+     */
+    public abstract long advance(long target);
+
+
+    /**
+     * Gets the number of document ids of the postings list.
+     *
+     * @return
+     *     The number of document ids.
+     */
+    public abstract int size();
+
+}
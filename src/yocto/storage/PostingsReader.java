@@ -0,0 +1,169 @@
+package yocto.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads postings records straight off a memory-mapped postings file: the
+ * lists are decoded from the mapped pages, and skipped parts of a list are
+ * never touched.
+ *
+ * Given a {@link PostingsCache}, the lists it caches are decoded once and
+ * served from it afterwards.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class PostingsReader implements Closeable {
+
+    /* The longest a record's framing can be: two VInts. */
+    private static final int MAX_FRAME_LENGTH = 10;
+
+    /* The postings file. */
+    private final MappedFile file;
+
+    /* The source of the ids of the postings files open, for caching. */
+    private static final AtomicLong segments = new AtomicLong();
+
+    /* The codec the postings file was written with. */
+    private final PostingsCodec codec;
+
+    /* The cache of decoded lists, or null for none. */
+    private final PostingsCache cache;
+
+    /* The id of the postings file in the cache. */
+    private final long segment;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The postings file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a postings file of a
+     *     supported format.
+     */
+    public PostingsReader(File file) throws IOException {
+        this(file, null);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The postings file.
+     * @param cache
+     *     The cache of decoded lists to share, or {@code null} to decode the
+     *     lists every time.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a postings file of a
+     *     supported format.
+     */
+    public PostingsReader(File file, PostingsCache cache) throws IOException {
+        this.file = new MappedFile(file);
+        this.cache = cache;
+        this.segment = segments.incrementAndGet();
+
+        byte[] header = new byte[(int) Math.min(PostingsCodec.HEADER_LENGTH, this.file.length())];
+        this.file.readBytes(0, header, 0, header.length);
+        this.codec = PostingsCodec.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+    }
+
+
+    /**
+     * Gets the codec the postings file was written with.
+     *
+     * @return
+     *     The codec.
+     */
+    public PostingsCodec getCodec() {
+        return codec;
+    }
+
+
+    /**
+     * Reads the number of postings of the record at the given offset,
+     * without reading the postings.
+     *
+     * @param offset
+     *     The offset of the record in the postings file.
+     *
+     * @return
+     *     The number of postings.
+     */
+    public int count(long offset) {
+        byte b = file.readByte(offset++);
+        int count = b & 0x7f;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = file.readByte(offset++);
+            count |= (b & 0x7f) << shift;
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Reads the postings record at the given offset.
+     *
+     * @param offset
+     *     The offset of the record in the postings file.
+     *
+     * @return
+     *     An iterator over the postings list.
+     */
+    public PostingsIterator postings(long offset) {
+        byte[] frame = new byte[(int) Math.min(MAX_FRAME_LENGTH, file.length() - offset)];
+        file.readBytes(offset, frame, 0, frame.length);
+
+        int pos = 0;
+        byte b = frame[pos++];
+        int count = b & 0x7f;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = frame[pos++];
+            count |= (b & 0x7f) << shift;
+        }
+        b = frame[pos++];
+        int length = b & 0x7f;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = frame[pos++];
+            length |= (b & 0x7f) << shift;
+        }
+
+        boolean cached = cache != null && cache.caches(count);
+        if (cached) {
+            PostingsIterator it = cache.get(segment, offset);
+            if (it != null)
+                return it;
+        }
+
+        // Decoded in place, only as far as the iterator moves.
+        PostingsIterator it = codec.iterator(file.view(offset + pos, length), 0, length, count);
+
+        return cached ? cache.put(segment, offset, it) : it;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        if (cache != null)
+            cache.remove(segment);
+        file.close();
+    }
+
+}
@@ -1,8 +1,6 @@
 package yocto.storage;
 
-import java.util.TreeSet;
-
-import yocto.indexing.Posting;
+import yocto.indexing.PostingsList;
 
 /**
  * A class abstracting a postings formated record.
@@ -17,7 +15,7 @@ public class PostingsRecord {
     private final int postingsSize;
 
     /* The record's postings, sorted */
-    private final TreeSet<Posting> postings;
+    private final PostingsList postings;
 
 
     /**
@@ -28,10 +26,10 @@ public class PostingsRecord {
      * @param postings
      *     The postings.
      */
-    public PostingsRecord(int postingsSize, TreeSet<Posting> postings) {
+    public PostingsRecord(int postingsSize, PostingsList postings) {
         if (postings == null) {
             this.postingsSize = 0;
-            this.postings = new TreeSet<Posting>();
+            this.postings = new PostingsList();
         }
         else {
             this.postings = postings;
@@ -55,7 +53,7 @@ public class PostingsRecord {
      *
      * @return The postings.
      */
-    public TreeSet<Posting> getPostings() {
+    public PostingsList getPostings() {
         return postings;
     }
 
@@ -0,0 +1,202 @@
+package yocto.storage;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * A cursor walking the terms of a segment in order, along with their
+ * postings records.
+ *
+ * The postings record of the current term is loaded as is, so that it can
+ * either be copied to another file without being decoded or be decoded for
+ * merging with the postings of the same term from other segments.
+ *
+ * Cursors order by their current term, for merging segments through a
+ * priority queue.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+class SegmentCursor implements Comparable<SegmentCursor>, Closeable {
+
+    /* The buffer for reading. */
+    private static final int IN_BUFF_SIZE = 8 * 1024;
+
+    /* The segment walked. */
+    private final Segment segment;
+
+    /* The segment offsets file. */
+    private final DataInputStream offsets;
+
+    /* The segment postings file. */
+    private final DataInputStream postings;
+
+    /* The codec the segment was written with. */
+    private final PostingsCodec codec;
+
+    /* The current term. */
+    private String term;
+
+    /* The number of postings of the current term. */
+    private int count;
+
+    /* The payload of the current postings record. */
+    private byte[] payload = new byte[64];
+    private int payloadLength;
+
+
+    /**
+     * Constructor.
+     *
+     * @param segment
+     *     The segment to walk.
+     *
+     * @throws IOException
+     *     When unable to open the segment files or they are not of a
+     *     supported format.
+     */
+    SegmentCursor(Segment segment) throws IOException {
+        this.segment = segment;
+        this.offsets = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.getOffsets()), IN_BUFF_SIZE));
+        this.postings = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.getPostings()), IN_BUFF_SIZE));
+        try {
+            this.codec = PostingsCodec.readHeader(postings);
+        }
+        catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Moves to the next term.
+     *
+     * @return
+     *     {@code false} if the segment has no more terms.
+     *
+     * @throws IOException
+     *     When unable to read the segment files.
+     */
+    boolean next() throws IOException {
+        PostingsOffsetsRecord por = DiskManager.readPostingsOffsetsRecord(offsets);
+        if (por == null) {
+            term = null;
+            return false;
+        }
+
+        term = por.getTerm();
+        count = PostingsCodec.readVInt(postings);
+        payloadLength = PostingsCodec.readVInt(postings);
+        if (payloadLength > payload.length)
+            payload = new byte[Math.max(payloadLength, payload.length * 2)];
+        postings.readFully(payload, 0, payloadLength);
+
+        return true;
+    }
+
+
+    /**
+     * Gets the current term.
+     *
+     * @return
+     *     The term or {@code null} if the segment has no more terms.
+     */
+    String getTerm() {
+        return term;
+    }
+
+
+    /**
+     * Gets the codec the segment was written with.
+     *
+     * @return
+     *     The codec.
+     */
+    PostingsCodec getCodec() {
+        return codec;
+    }
+
+
+    /**
+     * Gets the segment walked.
+     *
+     * @return
+     *     The segment.
+     */
+    Segment getSegment() {
+        return segment;
+    }
+
+
+    /**
+     * Decodes the postings of the current term.
+     *
+     * @return
+     *     The postings list.
+     */
+    PostingsList readPostings() {
+        long[] docIds = new long[count];
+        int[] freqs = new int[count];
+        codec.decode(payload, 0, payloadLength, count, docIds, freqs);
+
+        return new PostingsList(docIds, freqs, count);
+    }
+
+
+    /**
+     * Copies the postings record of the current term, as is.
+     *
+     * @param dos
+     *     The data stream to write to; of the same codec as the segment.
+     *
+     * @return
+     *     The number of bytes written.
+     *
+     * @throws IOException
+     *     When unable to write to the given stream.
+     */
+    long copyPostings(DataOutputStream dos) throws IOException {
+        long bytesWritten = PostingsCodec.writeVInt(dos, count);
+        bytesWritten += PostingsCodec.writeVInt(dos, payloadLength);
+        dos.write(payload, 0, payloadLength);
+
+        return bytesWritten + payloadLength;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    @Override
+    public int compareTo(SegmentCursor other) {
+        return term.compareTo(other.term);
+    }
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            offsets.close();
+        }
+        finally {
+            postings.close();
+        }
+    }
+
+}
@@ -0,0 +1,379 @@
+package yocto.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A cache of the stored labels of documents, kept off the heap.
+ *
+ * The labels are held in UTF-8 in a direct buffer, a slab cut into slots of
+ * a fixed size, one label per slot, each slot starting with the document id
+ * of its label, the length of the label and whether it was found lately;
+ * labels too long for a slot are not cached. Document ids are mapped to
+ * their slots by an open addressing table of slot numbers, in a second
+ * direct buffer, two thirds full at most. Both buffers are counted in the
+ * byte budget, so however many labels are cached, the cache takes the bytes
+ * it was given off the heap, and is a handful of objects on it.
+ *
+ * Labels are evicted by the clock algorithm: a label found is marked, and
+ * the hand, sweeping the slots for one to reuse, passes over the marked
+ * ones, unmarking them, so that the labels asked for again and again stay.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class StoreCache {
+
+    /**
+     * The default number of bytes of the cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * The default number of bytes of a slot.
+     */
+    public static final int DEFAULT_SLOT_SIZE = 64;
+
+    /**
+     * The number of bytes of a slot before its label: the document id, the
+     * length of the label and its mark.
+     */
+    public static final int SLOT_HEADER = 8 + 2 + 1;
+
+    /**
+     * The number of bytes of the table per slot, on top of the slot.
+     */
+    public static final int TABLE_BYTES_PER_SLOT = 6;
+
+    /* The encoding of the labels. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /* The document id of a free slot. */
+    private static final long FREE = -1;
+
+    /* The slot of a free table entry. */
+    private static final int FREE_ENTRY = -1;
+
+    /* The offsets in a slot of the length and mark of its label. */
+    private static final int LENGTH = 8, REFERENCED = 10;
+
+    /* The bytes of a slot. */
+    private final int slotSize;
+
+    /* The number of slots. */
+    private final int numSlots;
+
+    /* The slab. */
+    private final ByteBuffer slab;
+
+    /* The slots of the document ids, by their hash. */
+    private final ByteBuffer table;
+
+    /* The number of entries of the table. */
+    private final int tableSize;
+
+    /* The slot the hand is on. */
+    private int hand;
+
+    /* The number of labels. */
+    private int size;
+
+    /* The number of look-ups that found the label. */
+    private long hits;
+
+    /* The number of look-ups that did not. */
+    private long misses;
+
+    /* The number of labels evicted to make room. */
+    private long evictions;
+
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes
+     *     The number of bytes of the cache, slab and table, each slot taking
+     *     {@link #TABLE_BYTES_PER_SLOT} bytes of table on top of its own.
+     * @param slotSize
+     *     The number of bytes of a slot; labels of more than
+     *     {@link #SLOT_HEADER} bytes less in UTF-8 are not cached.
+     */
+    public StoreCache(long maxBytes, int slotSize) {
+        if (slotSize <= SLOT_HEADER || slotSize > Short.MAX_VALUE
+                || maxBytes < slotSize + TABLE_BYTES_PER_SLOT)
+            throw new IllegalArgumentException("Invalid cache bounds: " + maxBytes + ", " + slotSize);
+
+        int numSlots = (int) Math.min(maxBytes / (slotSize + TABLE_BYTES_PER_SLOT),
+                (1 << 30) / slotSize);
+        while (numSlots > 1 && (long) numSlots * slotSize + 4L * tableSize(numSlots) > maxBytes) {
+            numSlots--;
+        }
+        this.slotSize = slotSize;
+        this.numSlots = numSlots;
+        this.tableSize = tableSize(numSlots);
+        this.slab = ByteBuffer.allocateDirect(numSlots * slotSize);
+        this.table = ByteBuffer.allocateDirect(4 * tableSize);
+        clear();
+    }
+
+
+    /**
+     * Looks the label of a document up.
+     *
+     * @param docId
+     *     The document id.
+     *
+     * @return
+     *     The label, or {@code null} if not cached.
+     */
+    public synchronized String get(long docId) {
+        int i = find(docId);
+        if (i < 0) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        int base = entry(i) * slotSize;
+        slab.put(base + REFERENCED, (byte) 1);
+        byte[] bytes = new byte[slab.getShort(base + LENGTH)];
+        for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = slab.get(base + SLOT_HEADER + j);
+        }
+
+        return new String(bytes, UTF8);
+    }
+
+
+    /**
+     * Caches the label of a document, evicting a label not found lately to
+     * make room.
+     *
+     * @param docId
+     *     The document id.
+     * @param label
+     *     The label.
+     */
+    public synchronized void put(long docId, String label) {
+        byte[] bytes = label.getBytes(UTF8);
+        if (docId < 0 || bytes.length > slotSize - SLOT_HEADER || find(docId) >= 0)
+            return;
+
+        // -- Sweep for a slot to reuse.
+        while (slab.getLong(hand * slotSize) != FREE && slab.get(hand * slotSize + REFERENCED) != 0) {
+            slab.put(hand * slotSize + REFERENCED, (byte) 0);
+            hand = (hand + 1) % numSlots;
+        }
+        int slot = hand;
+        int base = slot * slotSize;
+        hand = (hand + 1) % numSlots;
+        if (slab.getLong(base) != FREE) {
+            remove(find(slab.getLong(base)));
+            evictions++;
+            size--;
+        }
+
+        // -- Fill it in.
+        slab.putLong(base, docId);
+        slab.putShort(base + LENGTH, (short) bytes.length);
+        slab.put(base + REFERENCED, (byte) 0);
+        for (int j = 0; j < bytes.length; j++) {
+            slab.put(base + SLOT_HEADER + j, bytes[j]);
+        }
+
+        int i = index(docId);
+        while (entry(i) != FREE_ENTRY) {
+            i = next(i);
+        }
+        table.putInt(4 * i, slot);
+        size++;
+    }
+
+
+    /**
+     * Removes all the labels, as when the index they were read from is
+     * changed.
+     */
+    public synchronized void clear() {
+        for (int slot = 0; slot < numSlots; slot++) {
+            slab.putLong(slot * slotSize, FREE);
+        }
+        for (int i = 0; i < tableSize; i++) {
+            table.putInt(4 * i, FREE_ENTRY);
+        }
+        hand = 0;
+        size = 0;
+    }
+
+
+    /**
+     * Gets the share of the look-ups that found the label.
+     *
+     * @return
+     *     The hit ratio, between 0 and 1; 0 before any look-ups.
+     */
+    public synchronized double hitRatio() {
+        long lookups = hits + misses;
+
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+
+    /**
+     * Gets the number of look-ups that found the label.
+     *
+     * @return
+     *     The number of hits.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+
+    /**
+     * Gets the number of look-ups that did not find the label.
+     *
+     * @return
+     *     The number of misses.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+
+    /**
+     * Gets the number of labels evicted to make room for others.
+     *
+     * @return
+     *     The number of evictions.
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+
+    /**
+     * Gets the number of labels.
+     *
+     * @return
+     *     The number of labels.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+
+    /**
+     * Gets the number of bytes of the cache, slab and table, off the heap.
+     *
+     * @return
+     *     The number of bytes.
+     */
+    public long bytes() {
+        return slab.capacity() + table.capacity();
+    }
+
+
+    /*
+     * Gets the number of entries of the table for a number of slots, so that
+     * it is two thirds full at most.
+     */
+    private static int tableSize(int numSlots) {
+        return numSlots + (numSlots + 1) / 2;
+    }
+
+
+    /*
+     * Finds a document id in the table.
+     *
+     * @return
+     *     Its index in the table, or -1 if not there.
+     */
+    private int find(long docId) {
+        int i = index(docId);
+        for (int slot = entry(i); slot != FREE_ENTRY; slot = entry(i)) {
+            if (slab.getLong(slot * slotSize) == docId)
+                return i;
+            i = next(i);
+        }
+
+        return -1;
+    }
+
+
+    /*
+     * Removes an entry of the table, shifting back the entries after it that
+     * would no longer be found.
+     */
+    private void remove(int i) {
+        int j = i;
+        while (true) {
+            j = next(j);
+            int slot = entry(j);
+            if (slot == FREE_ENTRY)
+                break;
+
+            // Move the entry at j in the hole at i unless its home lies
+            // cyclically in (i, j].
+            int home = index(slab.getLong(slot * slotSize));
+            if (distance(home, j) >= distance(i, j)) {
+                table.putInt(4 * i, slot);
+                i = j;
+            }
+        }
+        table.putInt(4 * i, FREE_ENTRY);
+    }
+
+
+    /*
+     * Gets the slot of an entry of the table.
+     */
+    private int entry(int i) {
+        return table.getInt(4 * i);
+    }
+
+
+    /*
+     * Gets the index of the table after another, wrapping around.
+     */
+    private int next(int i) {
+        return i + 1 == tableSize ? 0 : i + 1;
+    }
+
+
+    /*
+     * Gets the number of probes from an index of the table to another,
+     * wrapping around.
+     */
+    private int distance(int from, int to) {
+        return to >= from ? to - from : to + tableSize - from;
+    }
+
+
+    /*
+     * Gets the home index of a document id in the table.
+     */
+    private int index(long docId) {
+        long h = docId * 0x9E3779B97F4A7C15L;
+
+        // The high bits of the hash, scaled to the table.
+        return (int) (((h >>> 32) * tableSize) >>> 32);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return "labels: " + size + " | size(MB): "
+                + String.format("%5.2f", bytes() / 1024.0 / 1024.0)
+                + " | hit ratio: " + String.format("%.3f", hitRatio())
+                + " | evictions: " + evictions;
+    }
+
+}
@@ -0,0 +1,23 @@
+package yocto.storage;
+
+/**
+ * The fields stored for a document, each in a column of its own (see
+ * {@link StoreReader}), in the order of the columns.
+ *
+ * @author billy
+ */
+public enum StoreField {
+
+    /** The title, which documents are labeled with. */
+    TITLE,
+
+    /** The contributor of the revision indexed. */
+    AUTHOR,
+
+    /** The time of the revision indexed, in milliseconds since the epoch. */
+    TIMESTAMP,
+
+    /** The beginning of the content, to make snippets of. */
+    SNIPPET
+
+}
@@ -0,0 +1,137 @@
+package yocto.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Looks up store offsets straight off a memory-mapped store offsets file.
+ *
+ * The file holds a header and a fixed-width record per block of the store
+ * file (see {@link StoreReader}):
+ *
+ * {@code [int magic][int version][long numDocs]([long firstDocId][long offset])*}
+ *
+ * The records are in the ascending document id order the documents are
+ * stored in, so they are binary searched in place for the last block
+ * starting at or before a document.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class StoreOffsetsReader implements Closeable {
+
+    /** The magic number block store offsets files start with, {@code "YSOF"}. */
+    static final int MAGIC = 0x59534f46;
+
+    /** The version of the store offsets file format. */
+    static final int VERSION = 1;
+
+    /** The length of the header. */
+    static final int HEADER_LENGTH = 16;
+
+    /* The length of a record. */
+    private static final int RECORD_LENGTH = 16;
+
+    /* The store offsets file. */
+    private final MappedFile file;
+
+    /* The number of records. */
+    private final long numRecords;
+
+    /* The number of documents. */
+    private final long size;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The store offsets file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a store offsets file of a
+     *     supported format.
+     */
+    public StoreOffsetsReader(File file) throws IOException {
+        this.file = new MappedFile(file);
+
+        if (this.file.length() < HEADER_LENGTH
+                || this.file.readInt(0) != MAGIC
+                || this.file.readInt(4) != VERSION) {
+            this.file.close();
+            throw new IOException("Not a supported store offsets file: " + file);
+        }
+        this.numRecords = (this.file.length() - HEADER_LENGTH) / RECORD_LENGTH;
+        this.size = this.file.readLong(8);
+    }
+
+
+    /**
+     * Gets the number of documents.
+     *
+     * @return
+     *     The number of documents.
+     */
+    public long size() {
+        return size;
+    }
+
+
+    /**
+     * Looks up the store offset of a document.
+     *
+     * @param docId
+     *     The document id.
+     *
+     * @return
+     *     The offset of the block that would hold the document's record in
+     *     the store file; {@code -1} if the document is not stored. A
+     *     document within the range of a block may still not be stored.
+     */
+    public long offset(long docId) {
+        if (numRecords == 0)
+            return -1;
+
+        long lo = 0;
+        long hi = numRecords - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long id = readDocId(mid);
+            if (id < docId)
+                lo = mid + 1;
+            else if (id > docId)
+                hi = mid - 1;
+            else
+                return file.readLong(HEADER_LENGTH + mid * RECORD_LENGTH + 8);
+        }
+
+        // The block starting before the document, if any, may hold it.
+        if (hi < 0)
+            return -1;
+
+        return file.readLong(HEADER_LENGTH + hi * RECORD_LENGTH + 8);
+    }
+
+
+    /*
+     * Reads the document id of a record.
+     */
+    private long readDocId(long record) {
+        return file.readLong(HEADER_LENGTH + record * RECORD_LENGTH);
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        file.close();
+    }
+
+}
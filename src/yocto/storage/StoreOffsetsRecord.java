@@ -12,7 +12,10 @@ public class StoreOffsetsRecord {
     /* The document id */
     private final long docId;
 
-    /* The offset of the document's stored fields in the store file. */
+    /*
+     * The offset of the document's stored fields in the store file, or of
+     * the block starting with the document.
+     */
     private final long offset;
 
 
@@ -0,0 +1,367 @@
+package yocto.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads store records straight off a memory-mapped store file.
+ *
+ * The documents are stored in blocks of about {@link #BLOCK_SIZE} bytes,
+ * after a header, the fields of a block laid out in columns, one per
+ * {@link StoreField}, in their order:
+ *
+ * {@code [int magic][int version]
+ *        ([long firstDocId][VInt numDocs][VInt numColumns][VInt gapsLength]
+ *         ([VInt rawLength][VInt length]){numColumns}
+ *         [VInt docIdGap]{numDocs} [byte*]{numColumns})*}
+ *
+ * The gaps between the document ids, the first one being 0, are left as
+ * they are; each column is compressed on its own with
+ * {@link java.util.zip.Deflater}. Inflated, the text columns are sequences
+ * of {@code [UTF field]}, empty for documents without the field, and the
+ * timestamp column a sequence of longs. The store offsets file holds the
+ * offset of each block rather than of each document (see
+ * {@link StoreOffsetsReader}); documents are found by walking the gaps of
+ * their block and only the columns of the fields asked for are inflated,
+ * so that listing titles does not pay for the snippets, and documents of
+ * the same block, as neighboring hits are, are read together.
+ *
+ * Thread-safe.
+ *
+ * @author billy
+ */
+public class StoreReader implements Closeable {
+
+    /** The magic number block store files start with, {@code "YSTR"}. */
+    static final int MAGIC = 0x59535452;
+
+    /** The version of the store file format. */
+    static final int VERSION = 2;
+
+    /** The length of the header. */
+    static final int HEADER_LENGTH = 8;
+
+    /** The number of bytes of records a block is filled with, inflated. */
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    /* The longest the framing of a block can be: a long, three VInts and two per column. */
+    private static final int MAX_FRAME_LENGTH = 8 + 3 * 5 + StoreField.values().length * 2 * 5;
+
+    /* All the fields. */
+    private static final Set<StoreField> ALL_FIELDS = EnumSet.allOf(StoreField.class);
+
+    /* The store file. */
+    private final MappedFile file;
+
+
+    /**
+     * Constructor.
+     *
+     * @param file
+     *     The store file.
+     *
+     * @throws IOException
+     *     When unable to map the file or it is not a store file of a
+     *     supported format.
+     */
+    public StoreReader(File file) throws IOException {
+        this.file = new MappedFile(file);
+
+        if (this.file.length() < HEADER_LENGTH
+                || this.file.readInt(0) != MAGIC
+                || this.file.readInt(4) != VERSION) {
+            this.file.close();
+            throw new IOException("Not a supported store file: " + file);
+        }
+    }
+
+
+    /**
+     * Reads the store record of a document, with all its fields.
+     *
+     * @param docId
+     *     The document id.
+     * @param offset
+     *     The offset of the block holding the record in the store file, as
+     *     looked up in the store offsets file.
+     *
+     * @return
+     *     The record, or {@code null} if the document is not stored.
+     *
+     * @throws IOException
+     *     When the record is malformed.
+     */
+    public StoreRecord readStoreRecord(long docId, long offset) throws IOException {
+
+        return readStoreRecords(new long[] { docId }, new long[] { offset })[0];
+    }
+
+
+    /**
+     * Reads the store records of a number of documents, with all their
+     * fields.
+     *
+     * @param docIds
+     *     The document ids.
+     * @param offsets
+     *     The offsets of the blocks holding the records in the store file, as
+     *     looked up in the store offsets file; negative ones stand for no
+     *     record.
+     *
+     * @return
+     *     The records, in the order of the documents; {@code null} for the
+     *     documents not stored.
+     *
+     * @throws IOException
+     *     When a record is malformed.
+     */
+    public StoreRecord[] readStoreRecords(long[] docIds, long[] offsets) throws IOException {
+
+        return readStoreRecords(docIds, offsets, ALL_FIELDS);
+    }
+
+
+    /**
+     * Reads some of the fields of the store records of a number of
+     * documents; the columns of the other fields are not inflated.
+     *
+     * The records are read in the order they are found in the store file,
+     * rather than the given one, so that the pages of the file are walked
+     * through once, forward, and every block is inflated once.
+     *
+     * @param docIds
+     *     The document ids.
+     * @param offsets
+     *     The offsets of the blocks holding the records in the store file, as
+     *     looked up in the store offsets file; negative ones stand for no
+     *     record.
+     * @param fields
+     *     The fields to read.
+     *
+     * @return
+     *     The records, in the order of the documents, holding the fields
+     *     asked for only; {@code null} for the documents not stored.
+     *
+     * @throws IOException
+     *     When a record is malformed.
+     */
+    public StoreRecord[] readStoreRecords(final long[] docIds, final long[] offsets,
+            Set<StoreField> fields) throws IOException {
+        Integer[] order = new Integer[offsets.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(offsets[a], offsets[b]);
+
+                return c != 0 ? c : Long.compare(docIds[a], docIds[b]);
+            }
+        });
+
+        StoreRecord[] records = new StoreRecord[offsets.length];
+
+        Inflater inflater = new Inflater();
+        try {
+            int from = 0;
+            while (from < order.length) {
+                // The documents of the same block, in document id order.
+                int to = from + 1;
+                while (to < order.length && offsets[order[to]] == offsets[order[from]])
+                    to++;
+                long offset = offsets[order[from]];
+                if (offset >= 0)
+                    readColumns(offset, docIds, order, from, to, fields, records, inflater);
+                from = to;
+            }
+        } finally {
+            inflater.end();
+        }
+
+        return records;
+    }
+
+
+    /*
+     * Walks the gaps of a block to find some of its documents and inflates
+     * the columns of the fields asked for to read theirs.
+     *
+     * @param offset
+     *     The offset of the block.
+     * @param docIds
+     *     The document ids.
+     * @param order
+     *     The indexes of the documents, those of the block in document id
+     *     order from {@code from} to {@code to}.
+     * @param fields
+     *     The fields to read.
+     * @param records
+     *     The array to put the records in, at the indexes of the documents.
+     * @param inflater
+     *     The inflater to reuse.
+     */
+    private void readColumns(long offset, long[] docIds, Integer[] order, int from, int to,
+            Set<StoreField> fields, StoreRecord[] records, Inflater inflater) throws IOException {
+        byte[] frame = new byte[(int) Math.min(MAX_FRAME_LENGTH, file.length() - offset)];
+        file.readBytes(offset, frame, 0, frame.length);
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(frame));
+        long docId = header.readLong();
+        int numDocs = PostingsCodec.readVInt(header);
+        int numColumns = PostingsCodec.readVInt(header);
+        if (numColumns > StoreField.values().length)
+            throw new IOException("Unknown store fields in block at: " + offset);
+        int gapsLength = PostingsCodec.readVInt(header);
+        int[] rawLengths = new int[numColumns];
+        int[] lengths = new int[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            rawLengths[c] = PostingsCodec.readVInt(header);
+            lengths[c] = PostingsCodec.readVInt(header);
+        }
+        long position = offset + frame.length - header.available();
+
+        // -- Find the documents asked for in the block.
+        byte[] gaps = new byte[gapsLength];
+        file.readBytes(position, gaps, 0, gapsLength);
+        position += gapsLength;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(gaps));
+        int[] indexes = new int[to - from];
+        Arrays.fill(indexes, -1);
+        int next = from;
+        for (int i = 0; i < numDocs && next < to; i++) {
+            docId += PostingsCodec.readVInt(in);
+            while (next < to && docIds[order[next]] < docId) {
+                next++;
+            }
+            // The same document may be asked for more than once.
+            while (next < to && docIds[order[next]] == docId) {
+                indexes[next++ - from] = i;
+            }
+        }
+
+        // -- Read their fields off the columns asked for.
+        String[][] texts = new String[numColumns][];
+        long[] timestamps = null;
+        for (int c = 0; c < numColumns; c++) {
+            StoreField field = StoreField.values()[c];
+            if (fields.contains(field)) {
+                byte[] raw = inflate(position, rawLengths[c], lengths[c], inflater, offset);
+                if (field == StoreField.TIMESTAMP)
+                    timestamps = readLongs(raw, indexes);
+                else
+                    texts[c] = readTexts(raw, indexes);
+            }
+            position += lengths[c];
+        }
+
+        for (int k = 0; k < indexes.length; k++) {
+            if (indexes[k] < 0)
+                continue;
+            records[order[from + k]] = new StoreRecord(
+                    text(texts, StoreField.TITLE, k),
+                    text(texts, StoreField.AUTHOR, k),
+                    timestamps == null ? StoreRecord.NO_TIMESTAMP : timestamps[k],
+                    text(texts, StoreField.SNIPPET, k));
+        }
+    }
+
+
+    /*
+     * Reads the values of a text column at the given indexes, in ascending
+     * order but for the -1s, skipping over the others.
+     */
+    private static String[] readTexts(byte[] raw, int[] indexes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        String[] texts = new String[indexes.length];
+        String text = null;
+        int at = -1;
+        for (int k = 0; k < indexes.length; k++) {
+            if (indexes[k] < 0)
+                continue;
+            if (indexes[k] != at) {
+                while (at + 1 < indexes[k]) {
+                    in.skipBytes(in.readUnsignedShort());
+                    at++;
+                }
+                text = in.readUTF();
+                at = indexes[k];
+            }
+            texts[k] = text;
+        }
+
+        return texts;
+    }
+
+
+    /*
+     * Reads the values of a column of longs at the given indexes.
+     */
+    private static long[] readLongs(byte[] raw, int[] indexes) {
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        long[] longs = new long[indexes.length];
+        for (int k = 0; k < indexes.length; k++) {
+            if (indexes[k] >= 0)
+                longs[k] = buffer.getLong(indexes[k] * 8);
+        }
+
+        return longs;
+    }
+
+
+    /*
+     * Gets the value of a document of a text column, {@code null} if the
+     * column was not read.
+     */
+    private static String text(String[][] texts, StoreField field, int k) {
+        int c = field.ordinal();
+
+        return c < texts.length && texts[c] != null ? texts[c][k] : null;
+    }
+
+
+    /*
+     * Reads and inflates a compressed run of the store file.
+     *
+     * @param block
+     *     The offset of the block of the run, to report it malformed.
+     */
+    private byte[] inflate(long position, int rawLength, int length, Inflater inflater,
+            long block) throws IOException {
+        byte[] compressed = new byte[length];
+        file.readBytes(position, compressed, 0, length);
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(raw) != rawLength)
+                throw new IOException("Truncated store block at: " + block);
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed store block at: " + block, e);
+        }
+
+        return raw;
+    }
+
+
+    // -- Override
+
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        file.close();
+    }
+
+}
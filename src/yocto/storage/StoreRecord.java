@@ -3,38 +3,106 @@ package yocto.storage;
 /**
  * A class abstracting a store formated record.
  *
+ * A record read off the store only holds the fields asked for; the others
+ * are {@code null}, or {@link #NO_TIMESTAMP} for the timestamp.
+ *
  * Currently immutable.
  *
  * @author billy
  */
 public class StoreRecord {
 
-    /*
-     * The stored information. This should be a list of objects in the future.
-     * Currently we only store a single string.
+    /**
+     * The timestamp of a record without one.
      */
-    private final String stored;
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /* The title. */
+    private final String title;
+
+    /* The contributor. */
+    private final String author;
+
+    /* The time of the revision, in milliseconds since the epoch. */
+    private final long timestamp;
+
+    /* The beginning of the content. */
+    private final String snippet;
+
+
+    /**
+     * Constructor, for a record of a title only.
+     *
+     * @param title
+     *     The title.
+     */
+    public StoreRecord(String title) {
+        this(title, null, NO_TIMESTAMP, null);
+    }
 
 
     /**
      * Constructor.
      *
-     * @param stored
-     *     The stored information.
+     * @param title
+     *     The title.
+     * @param author
+     *     The contributor, or {@code null} if there is none.
+     * @param timestamp
+     *     The time of the revision, in milliseconds since the epoch, or
+     *     {@link #NO_TIMESTAMP} if there is none.
+     * @param snippet
+     *     The beginning of the content, or {@code null} if there is none.
+     */
+    public StoreRecord(String title, String author, long timestamp, String snippet) {
+        this.title = title;
+        this.author = author;
+        this.timestamp = timestamp;
+        this.snippet = snippet;
+    }
+
+
+    /**
+     * Gets the title.
+     *
+     * @return
+     *     The title.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+
+    /**
+     * Gets the contributor.
+     *
+     * @return
+     *     The contributor.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+
+    /**
+     * Gets the time of the revision.
+     *
+     * @return
+     *     The time, in milliseconds since the epoch, or {@link #NO_TIMESTAMP}.
      */
-    public StoreRecord(String stored) {
-        this.stored = stored;
+    public long getTimestamp() {
+        return timestamp;
     }
 
 
     /**
-     * Gets the stored information.
+     * Gets the beginning of the content.
      *
      * @return
-     *     The stored information.
+     *     The beginning of the content.
      */
-    public String getStored() {
-        return stored;
+    public String getSnippet() {
+        return snippet;
     }
 
 }
@@ -0,0 +1,103 @@
+package yocto.storage;
+
+/**
+ * A deterministic automaton over the characters of a term, for picking out
+ * the terms of a {@link TermDictionary} that it accepts.
+ *
+ * States are non-negative integers; stepping into a negative state means no
+ * term with the characters read so far can be accepted.
+ *
+ * Implementations must be safe to share among threads.
+ *
+ * @author billy
+ */
+public abstract class TermAutomaton {
+
+    /**
+     * Gets the state the automaton starts in.
+     *
+     * @return
+     *     The initial state.
+     */
+    public abstract int getInitialState();
+
+
+    /**
+     * Steps the automaton.
+     *
+     * @param state
+     *     The current state.
+     * @param c
+     *     The next character of the term.
+     *
+     * @return
+     *     The next state or -1 if no term going on this way is accepted.
+     */
+    public abstract int step(int state, char c);
+
+
+    /**
+     * Checks whether a state accepts the term read so far.
+     *
+     * @param state
+     *     The state.
+     *
+     * @return
+     *     {@code true} if the state is accepting.
+     */
+    public abstract boolean isAccept(int state);
+
+
+    /**
+     * Runs the automaton over a whole term.
+     *
+     * @param term
+     *     The term.
+     *
+     * @return
+     *     {@code true} if the automaton accepts the term.
+     */
+    public boolean run(String term) {
+        int state = getInitialState();
+        for (int i = 0; i < term.length() && state >= 0; i++) {
+            state = step(state, term.charAt(i));
+        }
+
+        return state >= 0 && isAccept(state);
+    }
+
+
+    /**
+     * Creates an automaton accepting the terms that start with a prefix.
+     *
+     * @param prefix
+     *     The prefix.
+     *
+     * @return
+     *     The automaton.
+     */
+    public static TermAutomaton prefix(final String prefix) {
+        return new TermAutomaton() {
+
+            @Override
+            public int getInitialState() {
+                return 0;
+            }
+
+            @Override
+            public int step(int state, char c) {
+                if (state == prefix.length())
+                    return state;
+
+                return prefix.charAt(state) == c ? state + 1 : -1;
+            }
+
+            @Override
+            public boolean isAccept(int state) {
+                return state == prefix.length();
+            }
+
+        };
+    }
+
+}
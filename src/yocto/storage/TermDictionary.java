@@ -0,0 +1,112 @@
+package yocto.storage;
+
+import java.io.Closeable;
+
+/**
+ * A read-only, sorted dictionary of the index terms, mapping every term to
+ * the offset of its postings record in the postings file.
+ *
+ * Terms are ordered as by {@link String#compareTo(String)}, the order they
+ * are written to the index in.
+ *
+ * Implementations must be safe to share among threads.
+ *
+ * @author billy
+ */
+public abstract class TermDictionary implements Closeable {
+
+    /**
+     * Looks up a term.
+     *
+     * @param term
+     *     The term.
+     *
+     * @return
+     *     The offset of the postings record of the term or {@code -1} if the
+     *     term is not in the dictionary.
+     */
+    public abstract long get(String term);
+
+
+    /**
+     * Gets an iterator over the terms, in order, starting from the first term
+     * greater than or equal to the given one.
+     *
+     * @param from
+     *     The term to start from; the empty string for all terms.
+     *
+     * @return
+     *     The iterator, positioned before its first term.
+     */
+    public abstract TermIterator iterator(String from);
+
+
+    /**
+     * Gets an iterator over the terms accepted by an automaton, in order.
+     *
+     * This implementation runs the automaton over every term; dictionaries
+     * able to prune the terms an automaton cannot accept should override it.
+     *
+     * @param automaton
+     *     The automaton.
+     *
+     * @return
+     *     The iterator, positioned before its first term.
+     */
+    public TermIterator intersect(final TermAutomaton automaton) {
+        final TermIterator all = iterator("");
+
+        return new TermIterator() {
+
+            @Override
+            public boolean next() {
+                while (all.next()) {
+                    if (automaton.run(all.term()))
+                        return true;
+                }
+
+                return false;
+            }
+
+            @Override
+            public String term() {
+                return all.term();
+            }
+
+            @Override
+            public long offset() {
+                return all.offset();
+            }
+
+        };
+    }
+
+
+    /**
+     * Gets the number of terms.
+     *
+     * @return
+     *     The number of terms.
+     */
+    public abstract int size();
+
+
+    /**
+     * Estimates the heap footprint of the dictionary.
+     *
+     * @return
+     *     The estimated size in bytes.
+     */
+    public abstract long ramBytesUsed();
+
+
+    /**
+     * Releases any resources of the dictionary.
+     *
+     * This implementation does nothing.
+     */
+    @Override
+    public void close() {
+    }
+
+}
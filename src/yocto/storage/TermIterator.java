@@ -0,0 +1,38 @@
+package yocto.storage;
+
+/**
+ * An iterator over the terms of a {@link TermDictionary}, in order.
+ *
+ * Not thread-safe.
+ *
+ * @author billy
+ */
+public abstract class TermIterator {
+
+    /**
+     * Moves to the next term.
+     *
+     * @return
+     *     {@code false} if there are no more terms.
+     */
+    public abstract boolean next();
+
+
+    /**
+     * Gets the current term.
+     *
+     * @return
+     *     The term.
+     */
+    public abstract String term();
+
+
+    /**
+     * Gets the offset of the postings record of the current term.
+     *
+     * @return
+     *     The offset in the postings file.
+     */
+    public abstract long offset();
+
+}
@@ -0,0 +1,127 @@
+package yocto.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A merge policy grouping segments in tiers of logarithmic size.
+ *
+ * Segments up to a floor size make up the lowest tier; each tier above
+ * holds segments up to {@code mergeFactor} times larger than the one below.
+ * Once a tier holds {@code mergeFactor} segments, its smallest ones are
+ * merged into a segment of the next tier. Every posting is thus rewritten
+ * about once per tier, i.e. a logarithmic number of times, and segments of
+ * similar size are merged together so no merge rewrites a large segment to
+ * add a few small ones to it.
+ *
+ * Merges of different tiers do not overlap and can run in parallel.
+ *
+ * @author billy
+ */
+public class TieredMergePolicy extends MergePolicy {
+
+    /** The default size of the segments of the lowest tier. */
+    public static final long DEFAULT_FLOOR_BYTES = 2 * 1024 * 1024;
+
+    /* Orders segments from the smallest to the largest. */
+    private static final Comparator<Segment> BY_SIZE = new Comparator<Segment>() {
+        @Override
+        public int compare(Segment one, Segment two) {
+            return Float.compare(one.getSegmentSize(), two.getSegmentSize());
+        }
+    };
+
+    /* The number of segments merged at once. */
+    private final int mergeFactor;
+
+    /* The size of the segments of the lowest tier, in bytes. */
+    private final long floorBytes;
+
+
+    /**
+     * Constructor.
+     *
+     * @param mergeFactor
+     *     The number of segments merged at once; also the ratio between the
+     *     sizes of consecutive tiers.
+     */
+    public TieredMergePolicy(int mergeFactor) {
+        this(mergeFactor, DEFAULT_FLOOR_BYTES);
+    }
+
+
+    /**
+     * Constructor.
+     *
+     * @param mergeFactor
+     *     The number of segments merged at once; also the ratio between the
+     *     sizes of consecutive tiers.
+     * @param floorBytes
+     *     The size of the segments of the lowest tier, in bytes.
+     */
+    public TieredMergePolicy(int mergeFactor, long floorBytes) {
+        if (mergeFactor < 2)
+            throw new IllegalArgumentException("Merge factor must be at least 2.");
+
+        this.mergeFactor = mergeFactor;
+        this.floorBytes = Math.max(1, floorBytes);
+    }
+
+
+    /**
+     * Gets the number of segments merged at once.
+     *
+     * @return
+     *     The merge factor.
+     */
+    public int getMergeFactor() {
+        return mergeFactor;
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.MergePolicy#findMerges(java.util.List)
+     */
+    @Override
+    public List<List<Segment>> findMerges(List<Segment> segments) {
+        List<List<Segment>> merges = new ArrayList<List<Segment>>();
+
+        List<Segment> sorted = new ArrayList<Segment>(segments);
+        Collections.sort(sorted, BY_SIZE);
+
+        List<Segment> tier = new ArrayList<Segment>();
+        int tierNum = -1;
+        for (Segment segment : sorted) {
+            int segmentTier = tierOf(segment);
+            if (segmentTier != tierNum) {
+                tier.clear();
+                tierNum = segmentTier;
+            }
+
+            tier.add(segment);
+            if (tier.size() == mergeFactor) {
+                merges.add(new ArrayList<Segment>(tier));
+                tier.clear();
+            }
+        }
+
+        return merges;
+    }
+
+
+    /*
+     * Gets the tier of a segment.
+     */
+    private int tierOf(Segment segment) {
+        int tier = 0;
+        double size = segment.getSegmentSize();
+        for (double bound = floorBytes; size > bound; bound *= mergeFactor) {
+            tier++;
+        }
+
+        return tier;
+    }
+
+}
@@ -0,0 +1,135 @@
+package yocto.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * A postings codec writing the gaps between consecutive document ids as
+ * variable-byte integers.
+ *
+ * Each gap is written seven bits at a time, lowest first, with the high bit
+ * of a byte telling whether more follow. The first document id is written
+ * as is. Since most terms appear in documents close to each other, most
+ * gaps take one or two bytes instead of eight.
+ *
+ * The gap is shifted left by one bit, the lowest bit telling whether the
+ * term occurs once in the document; if not, the term frequency follows as a
+ * variable-byte integer. Most terms occur once in most documents, so most
+ * frequencies take no room at all.
+ *
+ * @author billy
+ */
+final class VBytePostingsCodec extends PostingsCodec {
+
+    /** The id of the codec. */
+    static final int ID = 1;
+
+
+    /**
+     * Constructor.
+     */
+    VBytePostingsCodec() {
+        super(ID, "vbyte");
+    }
+
+
+    /*
+     * Writes a posting: the gap, flagged when the frequency is one, and the
+     * frequency otherwise. The shifted gap is written as an unsigned long.
+     */
+    static void writePosting(DataOutput out, long gap, int freq) throws IOException {
+        long code = (gap << 1) | (freq == 1 ? 1 : 0);
+        while ((code & ~0x7fL) != 0) {
+            out.writeByte((int) ((code & 0x7f) | 0x80));
+            code >>>= 7;
+        }
+        out.writeByte((int) code);
+
+        if (freq != 1)
+            writeVInt(out, freq);
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsCodec#encode(yocto.indexing.PostingsList, java.io.DataOutput)
+     */
+    @Override
+    protected void encode(PostingsList postings, DataOutput out) throws IOException {
+        long previous = 0;
+        for (int i = 0, size = postings.size(); i < size; i++) {
+            long docId = postings.getDocId(i);
+            writePosting(out, docId - previous, postings.getFreq(i));
+            previous = docId;
+        }
+    }
+
+
+    /* (non-Javadoc)
+     * @see yocto.storage.PostingsCodec#iterator(java.nio.ByteBuffer, int, int, int)
+     */
+    @Override
+    public PostingsIterator iterator(final ByteBuffer payload, final int offset, int length,
+            final int count) {
+        return new PostingsIterator() {
+            private int pos = offset;
+            private int index = 0;
+            private long doc = -1;
+            private int freq = 0;
+
+            @Override
+            public long docId() {
+                return doc;
+            }
+
+            @Override
+            public int freq() {
+                return freq;
+            }
+
+            @Override
+            public long nextDoc() {
+                if (index == count)
+                    return doc = NO_MORE_DOCS;
+
+                byte b = payload.get(pos++);
+                long code = b & 0x7f;
+                for (int shift = 7; b < 0; shift += 7) {
+                    b = payload.get(pos++);
+                    code |= (b & 0x7fL) << shift;
+                }
+                if ((code & 1) != 0) {
+                    freq = 1;
+                }
+                else {
+                    b = payload.get(pos++);
+                    freq = b & 0x7f;
+                    for (int shift = 7; b < 0; shift += 7) {
+                        b = payload.get(pos++);
+                        freq |= (b & 0x7f) << shift;
+                    }
+                }
+                index++;
+
+                return doc = (doc < 0 ? 0 : doc) + (code >>> 1);
+            }
+
+            @Override
+            public long advance(long target) {
+                // No skip data; walk the gaps.
+                while (nextDoc() < target)
+                    ;
+
+                return doc;
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,231 @@
+package yocto.indexing;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import yocto.indexing.parsing.wikipedia.WikiPageAnalyzer;
+import yocto.storage.DiskManager;
+import yocto.storage.FstTermDictionary;
+import yocto.storage.MergePolicy;
+import yocto.storage.NormsReader;
+import yocto.storage.PostingsCodec;
+import yocto.storage.PostingsIterator;
+import yocto.storage.PostingsReader;
+import yocto.storage.Segment;
+import yocto.storage.StoreOffsetsReader;
+import yocto.storage.StoreReader;
+import yocto.storage.StoreRecord;
+import yocto.storage.TermIterator;
+
+/**
+ * Unit test for the {@link Indexer}, indexing a small document set with
+ * several workers and a RAM buffer small enough for many segments to be
+ * flushed.
+ *
+ * @author billy
+ */
+public class IndexerTest {
+
+    /* The number of documents indexed. */
+    private static final int NUM_DOCS = 2000;
+
+    /* The number of characters of the content stored as a snippet. */
+    private static final int SNIPPET_LENGTH = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Tests that the postings, norms and stored records of the final index
+     * are those of the documents added, whichever worker inverted them and
+     * whichever segment they were flushed in.
+     */
+    @Test
+    public void testWorkers() throws IOException {
+        String dir = folder.getRoot().getPath();
+        Random random = new Random(42);
+        HashSet<String> stopwords = WikiPageAnalyzer.getStopwords();
+
+        // Words of letters only, as digits are normalized away.
+        List<String> words = new ArrayList<String>();
+        for (int i = 0; words.size() < 300; i++) {
+            StringBuilder word = new StringBuilder("q");
+            for (int n = i; n > 0; n /= 26)
+                word.append((char) ('a' + n % 26));
+            if (!stopwords.contains(word.toString()))
+                words.add(word.toString());
+        }
+        assertTrue(stopwords.contains("the"));
+
+        // Every occurrence of a term in a document, and the length of every
+        // document: its words but the stopwords, not its author.
+        TreeMap<String, TreeMap<Long, Integer>> expected = new TreeMap<String, TreeMap<Long, Integer>>();
+        TreeMap<Long, StoreRecord> records = new TreeMap<Long, StoreRecord>();
+        int[] lengths = new int[NUM_DOCS];
+        long totalLength = 0;
+
+        final AtomicInteger numSegments = new AtomicInteger();
+        MergePolicy policy = new MergePolicy() {
+            @Override
+            public List<List<Segment>> findMerges(List<Segment> segments) {
+                numSegments.incrementAndGet();
+                return new ArrayList<List<Segment>>();
+            }
+        };
+        Indexer indexer = new Indexer(new DiskManager(dir, PostingsCodec.BLOCK, policy, 1), 0.5, 3);
+        for (int docId = 0; docId < NUM_DOCS; docId++) {
+            StringBuilder content = new StringBuilder();
+            int numWords = 1 + random.nextInt(docId % 10 == 0 ? 200 : 40);
+            for (int w = 0; w < numWords; w++) {
+                // Skewed, so some terms are in most documents.
+                String word = random.nextInt(8) == 0 ? "the"
+                        : words.get(random.nextInt(1 + random.nextInt(words.size())));
+                content.append(w == 0 ? "" : " ").append(word);
+                if (!word.equals("the")) {
+                    add(expected, word, docId);
+                    lengths[docId]++;
+                }
+            }
+
+            String author = docId % 13 == 0 ? "" : "User" + (docId % 7);
+            add(expected, "author:" + author.toLowerCase(), docId);
+            totalLength += lengths[docId];
+
+            String text = content.toString();
+            String label = "Page " + docId;
+            records.put((long) docId, new StoreRecord(label, author, 1000L * docId,
+                    text.length() <= SNIPPET_LENGTH ? text : text.substring(0, SNIPPET_LENGTH)));
+            indexer.addDocument(new Document(docId, " " + label + " ", text, " " + author, 1000L * docId));
+
+            if (docId == NUM_DOCS / 2)
+                indexer.forceCommit();
+        }
+        indexer.close();
+
+        // Several segments per worker were flushed, merged at close.
+        assertTrue(numSegments.get() > 3 * 3);
+
+        try (   FstTermDictionary terms = new FstTermDictionary(new File(dir, DiskManager.INDEX_TERMS_FILENAME));
+                PostingsReader postings = new PostingsReader(new File(dir, DiskManager.INDEX_FILENAME));)
+        {
+            assertEquals(expected.size(), terms.size());
+            TermIterator iter = terms.iterator("");
+            for (Map.Entry<String, TreeMap<Long, Integer>> entry : expected.entrySet()) {
+                assertTrue(iter.next());
+                assertEquals(entry.getKey(), iter.term());
+
+                PostingsIterator it = postings.postings(iter.offset());
+                assertEquals(entry.getKey(), entry.getValue().size(), it.size());
+                for (Map.Entry<Long, Integer> posting : entry.getValue().entrySet()) {
+                    assertEquals(posting.getKey().longValue(), it.nextDoc());
+                    assertEquals(posting.getValue().intValue(), it.freq());
+                }
+                assertEquals(PostingsIterator.NO_MORE_DOCS, it.nextDoc());
+            }
+            assertFalse(iter.next());
+        }
+
+        try (NormsReader norms = new NormsReader(new File(dir, DiskManager.NORMS_FILENAME))) {
+            assertEquals(NUM_DOCS, norms.numDocs());
+            assertEquals((float) ((double) totalLength / NUM_DOCS), norms.averageLength(), 0);
+            for (int docId = 0; docId < NUM_DOCS; docId++) {
+                assertEquals(NormsReader.decodeLength(NormsReader.encodeLength(lengths[docId])),
+                        norms.length(docId));
+            }
+        }
+
+        try (   StoreOffsetsReader offsets = new StoreOffsetsReader(new File(dir, DiskManager.STORE_OFFSETS_FILENAME));
+                StoreReader store = new StoreReader(new File(dir, DiskManager.STORE_FILENAME));)
+        {
+            assertEquals(NUM_DOCS, offsets.size());
+            for (Map.Entry<Long, StoreRecord> entry : records.entrySet()) {
+                long docId = entry.getKey();
+                StoreRecord record = store.readStoreRecord(docId, offsets.offset(docId));
+                assertNotNull(record);
+                assertEquals(entry.getValue().getTitle(), record.getTitle());
+                assertEquals(entry.getValue().getAuthor(), record.getAuthor());
+                assertEquals(entry.getValue().getTimestamp(), record.getTimestamp());
+                assertEquals(entry.getValue().getSnippet(), record.getSnippet());
+            }
+        }
+    }
+
+
+    /**
+     * Tests that a document a worker fails on fails the caller, whether
+     * adding documents, committing or closing, rather than leaving it
+     * waiting for the dead worker.
+     */
+    @Test(timeout = 60000)
+    public void testWorkerFailure() throws IOException {
+        for (int numWorkers = 1; numWorkers <= 3; numWorkers += 2) {
+            String dir = folder.newFolder().getPath();
+            Indexer indexer = new Indexer(new DiskManager(dir), 0.5, numWorkers) {
+                @Override
+                protected long invertSPIMI(Document doc, InMemoryIndex index) {
+                    if (doc.getId() == 1000)
+                        throw new IllegalArgumentException("Bad document.");
+                    return super.invertSPIMI(doc, index);
+                }
+            };
+
+            try {
+                for (long docId = 0; docId < 1000000; docId++) {
+                    indexer.addDocument(new Document(docId, "Page", "word", "user"));
+                    if (docId % 500 == 0)
+                        indexer.forceCommit();
+                }
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals("Bad document.", e.getMessage());
+            }
+
+            try {
+                indexer.forceCommit();
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals("Bad document.", e.getMessage());
+            }
+
+            try {
+                indexer.close();
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+                assertEquals("Bad document.", e.getMessage());
+            }
+        }
+    }
+
+
+    /*
+     * Adds an occurrence of a term in a document.
+     */
+    private static void add(TreeMap<String, TreeMap<Long, Integer>> index,
+            String term, long docId) {
+        TreeMap<Long, Integer> postings = index.get(term);
+        if (postings == null) {
+            postings = new TreeMap<Long, Integer>();
+            index.put(term, postings);
+        }
+        Integer freq = postings.get(docId);
+        postings.put(docId, freq == null ? 1 : freq + 1);
+    }
+
+}
@@ -2,10 +2,15 @@ package yocto.indexing.parsing;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import yocto.indexing.TokenSink;
+import yocto.indexing.parsing.wikipedia.WikiMarkupNormalizer;
 import yocto.indexing.parsing.wikipedia.WikiPageAnalyzer;
 
 /**
@@ -45,4 +50,84 @@ public class WikiPageAnalyzerTest {
         assertEquals(2, tokens.length);
     }
 
+
+    /**
+     * Tests the tokenization of buffer slices.
+     * <ul>
+     * Issues:
+     *     <li>
+     *     Must split exactly where {@link WikiPageAnalyzer#TOKENIZR} does,
+     *     including on supplementary characters.
+     *     </li>
+     *     <li>
+     *     Stopwords must be dropped without materializing the tokens.
+     *     </li>
+     * </ul>
+     */
+    @Test
+    public void testSliceTokenizer() {
+        String text = "  pokémon animēshon, the\u200Dx ü_1 \uD835\uDC00bc--a's ";
+        final List<String> tokens = new ArrayList<String>();
+        TokenSink sink = new TokenSink() {
+            @Override
+            public void token(char[] buffer, int offset, int length) {
+                tokens.add(new String(buffer, offset, length));
+            }
+        };
+
+        char[] buffer = ("##" + text).toCharArray();
+        int n = WikiPageAnalyzer.tokenizePageRevisionText(buffer, 2, text.length(), null, sink);
+
+        List<String> expected = new ArrayList<String>();
+        for (String token : WikiPageAnalyzer.TOKENIZR.split(text)) {
+            if (!token.equals(""))
+                expected.add(token);
+        }
+        assertEquals(expected, tokens);
+        assertEquals(expected.size(), n);
+
+        tokens.clear();
+        WikiPageAnalyzer.tokenizePageRevisionText(buffer, 2, text.length(),
+                WikiPageAnalyzer.getStopwordTerms(), sink);
+        expected.remove("s");
+        expected.remove("a");
+        assertEquals(expected, tokens);
+    }
+
+    /**
+     * Tests the markup normalization process.
+     * <ul>
+     * Issues:
+     *     <li>
+     *     The output must be identical to the one of the regular expression
+     *     chain the hand-written normalizer replaced, quirks included.
+     *     </li>
+     *     <li>
+     *     The reusable buffers must not leak text between calls.
+     *     </li>
+     * </ul>
+     */
+    @Test
+    public void testNormalizer() {
+        WikiMarkupNormalizer normalizer = new WikiMarkupNormalizer();
+
+        assertEquals(" anarchism  is a political philosophy  of the  th century.",
+                normalizer.normalizeToString("'''Anarchism''' is a [[political philosophy]]"
+                        + "<ref name=\"x\">{{cite book|title=A}}</ref> of the 19th century."));
+        assertEquals("a b   c",
+                normalizer.normalizeToString("a<!-- hidden [[link]] -->b &lt;!-- escaped --&gt; c"));
+        assertEquals("  and   and <references/> kept",
+                normalizer.normalizeToString("<math>x^2</math> and <ref name=a/> and <references/> kept"));
+        assertEquals("quoted   text",
+                normalizer.normalizeToString("<blockquote>quoted <sup>1</sup> text</blockquote>"));
+        assertEquals("  heading  \nanarchism anarchist|other uses     }}",
+                normalizer.normalizeToString("== Heading ==\n[[Category:Anarchism]] "
+                        + "{{Redirect|Anarchist|other uses}} {| table |} {{Infobox {{nested}} }}"));
+        assertEquals("a b c   > < x y   {open",
+                normalizer.normalizeToString("a_b__c 1984 &gt; &lt; x&nbsp;y [http://example.org label] {open"));
+
+        assertEquals("plain", normalizer.normalizeToString("Plain"));
+        assertEquals("plain", WikiPageAnalyzer.normalizePlainPageRevisionText("Plain"));
+    }
+
 }
@@ -0,0 +1,565 @@
+package yocto.searching;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import yocto.indexing.PostingsList;
+import yocto.storage.DiskManager;
+import yocto.storage.PostingsCache;
+import yocto.storage.StoreCache;
+import yocto.storage.StoreField;
+import yocto.storage.StoreRecord;
+
+/**
+ * Unit test for the {@link Searcher}, over a small index written to a
+ * temporary directory.
+ *
+ * @author billy
+ */
+public class SearcherTest {
+
+    /* The number of documents of the test index. */
+    private static final int NUM_DOCS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Searcher searcher;
+
+    @Before
+    public void setUp() throws IOException {
+        String dir = folder.getRoot().getPath();
+
+        // Document i holds "alldocs", "evens" or "odds", and "sevens" if
+        // divisible by 7, twice if by 49, across two segments. Every fifth
+        // document is not stored, and holds "alfives", left out of its length;
+        // the others are by "user" i mod 3, at i seconds.
+        DiskManager dm = new DiskManager(dir);
+        LinkedHashMap<Long, StoreRecord> store = new LinkedHashMap<Long, StoreRecord>();
+        for (int segment = 0; segment < 2; segment++) {
+            TreeMap<String, PostingsList> index = new TreeMap<String, PostingsList>();
+            long[] docIds = new long[NUM_DOCS / 2];
+            int[] lengths = new int[NUM_DOCS / 2];
+            int numDocs = 0;
+            for (long i = segment; i < NUM_DOCS; i += 2) {
+                add(index, "alldocs", i);
+                add(index, i % 2 == 0 ? "evens" : "odds", i);
+                if (i % 5 == 0)
+                    add(index, "alfives", i);
+                int length = 2;
+                for (int j = 0; j < (i % 49 == 0 ? 2 : i % 7 == 0 ? 1 : 0); j++) {
+                    add(index, "sevens", i);
+                    length++;
+                }
+                docIds[numDocs] = i;
+                lengths[numDocs++] = length;
+            }
+            dm.writeIndexSegment(index);
+            dm.writeNorms(docIds, lengths, numDocs);
+        }
+        for (long i = 0; i < NUM_DOCS; i++) {
+            if (i % 5 != 0)
+                store.put(i, new StoreRecord("doc" + i, "user" + i % 3, 1000 * i, "text of doc" + i));
+        }
+        dm.appendStore(store);
+        dm.close();
+
+        searcher = new Searcher(dir);
+    }
+
+    @After
+    public void tearDown() {
+        searcher.close();
+    }
+
+
+    /**
+     * Tests single term and prefix queries.
+     */
+    @Test
+    public void testSearch() {
+        assertEquals(NUM_DOCS, searcher.searchQuery("alldocs").size());
+        assertEquals(NUM_DOCS / 2, searcher.searchQuery("evens").size());
+        assertEquals(72, searcher.searchQuery("sevens").size());
+        assertEquals("doc7", searcher.searchQuery("sevens").get(1).getResource());
+        assertEquals("doc497", searcher.searchQuery("sevens").get(71).getResource());
+        // Documents not stored are labelled by their id.
+        assertEquals("35", searcher.searchQuery("sevens").get(5).getResource());
+        assertEquals(0, searcher.searchQuery("missing").size());
+        assertEquals(NUM_DOCS / 2, searcher.searchQuery("o*").size());
+        // Documents of more than one of the terms are found once.
+        assertEquals(NUM_DOCS, searcher.searchQuery("al*").size());
+        assertEquals(NUM_DOCS, searcher.searchQuery("a*").size());
+
+        // Only single terms are counted without being searched.
+        assertEquals(72, searcher.count("sevens"));
+        assertEquals(72, searcher.count("Sevens42"));
+        assertEquals(0, searcher.count("missing"));
+        assertEquals(0, searcher.count("the"));
+        assertEquals(-1, searcher.count("evens sevens"));
+        assertEquals(-1, searcher.count("s*"));
+    }
+
+
+    /**
+     * Tests conjunctive, disjunctive and negated queries.
+     */
+    @Test
+    public void testBooleanQuery() {
+        assertEquals(36, searcher.searchQuery("evens sevens").size());
+        assertEquals(36, searcher.searchQuery("sevens AND evens").size());
+        assertEquals(0, searcher.searchQuery("evens odds").size());
+        assertEquals(0, searcher.searchQuery("alldocs missing").size());
+        assertEquals(NUM_DOCS / 2 + 36, searcher.searchQuery("odds OR sevens").size());
+        assertEquals(NUM_DOCS - 72, searcher.searchQuery("alldocs -sevens").size());
+        assertEquals(36, searcher.searchQuery("sevens NOT evens").size());
+        assertEquals(36, searcher.searchQuery("e* s*").size());
+        assertEquals(NUM_DOCS / 2 + 36, searcher.searchQuery("evens OR sevens -evens").size());
+        assertEquals(0, searcher.searchQuery("NOT alldocs").size());
+        assertEquals(0, searcher.searchQuery("OR").size());
+
+        // Stopwords are never indexed, so they are dropped rather than
+        // matching nothing; terms are split the way the content is.
+        assertEquals(36, searcher.searchQuery("evens the sevens").size());
+        assertEquals(36, searcher.searchQuery("The evens AND sevens OR of").size());
+        assertEquals(72, searcher.searchQuery("sevens -the").size());
+        assertEquals(0, searcher.searchQuery("the").size());
+        assertEquals(36, searcher.searchQuery("Evens,sevens").size());
+
+        // Digits and underscores separate words, as they do in the content.
+        assertEquals(QueryParser.parse("evens sevens"), QueryParser.parse("evens_sevens"));
+        assertEquals(36, searcher.searchQuery("evens__sevens").size());
+        assertEquals(36, searcher.searchQuery("evens1984sevens").size());
+        assertEquals(72, searcher.searchQuery("sevens42").size());
+        assertEquals(72, searcher.searchQuery("sevens 1984").size());
+        assertEquals(NUM_DOCS / 2, searcher.searchQuery("odds -1984").size());
+        assertEquals(0, searcher.searchQuery("1984").size());
+        assertEquals(36, searcher.searchQuery("evens_s*").size());
+
+        // In document id order, each document once.
+        List<String> union = resources(searcher.searchQuery("sevens OR evens"));
+        assertEquals(NUM_DOCS / 2 + 36, union.size());
+        assertEquals("doc2", union.get(1));
+        assertEquals("doc7", union.get(4));
+    }
+
+
+    /**
+     * Tests ranked queries: more occurrences in a document of the same
+     * length rank it higher, ties come in document id order and matching
+     * more terms of a disjunction ranks higher.
+     */
+    @Test
+    public void testRankedSearch() {
+        List<Hit> hits = searcher.searchQuery("sevens", 10);
+        assertEquals(10, hits.size());
+        assertEquals("0", hits.get(0).getResource());
+        assertEquals("doc49", hits.get(1).getResource());
+        assertEquals("doc441", hits.get(9).getResource());
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getScore() >= hits.get(i).getScore());
+        }
+        assertEquals(hits.get(0).getScore(), hits.get(9).getScore(), 0);
+        assertTrue(hits.get(0).getScore() > searcher.searchQuery("sevens", 12).get(11).getScore());
+
+        assertEquals(72, searcher.searchQuery("sevens", 1000).size());
+        assertEquals(0, searcher.searchQuery("missing", 10).size());
+        assertEquals(0, searcher.searchQuery("sevens", 0).size());
+
+        // Both terms first, then the rarer one alone.
+        hits = searcher.searchQuery("evens OR sevens", 80);
+        assertEquals("0", hits.get(0).getResource());
+        assertEquals("doc98", hits.get(1).getResource());
+        assertEquals("doc14", hits.get(6).getResource());
+        assertEquals("doc49", hits.get(36).getResource());
+        assertTrue(hits.get(35).getScore() > hits.get(36).getScore());
+        assertEquals("doc7", hits.get(41).getResource());
+        assertEquals("doc2", hits.get(72).getResource());
+    }
+
+
+    /**
+     * Tests that ranked disjunctions, which skip the documents that cannot
+     * make it, find the same hits as scoring every document does.
+     */
+    @Test
+    public void testRankedDisjunction() {
+        String[] queries = { "alldocs", "sevens", "evens OR sevens", "alldocs OR sevens OR odds",
+                "e* OR sevens OR alldocs", "alldocs OR missing", "sevens OR sevens", "missing" };
+        for (String query : queries) {
+            List<Hit> all = new ArrayList<Hit>(searcher.searchQuery(query));
+            Collections.sort(all, new Comparator<Hit>() {
+                @Override
+                public int compare(Hit a, Hit b) {
+                    return Float.compare(b.getScore(), a.getScore());
+                }
+            });
+
+            for (int k : new int[] { 1, 3, 10, 100, 1000 }) {
+                List<Hit> hits = searcher.searchQuery(query, k);
+                assertEquals(query, Math.min(k, all.size()), hits.size());
+                for (int i = 0; i < hits.size(); i++) {
+                    assertEquals(query + " " + k, all.get(i).getResource(), hits.get(i).getResource());
+                    assertEquals(all.get(i).getScore(), hits.get(i).getScore(), 0);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tests that search results are paged through lazily, with the same hits
+     * as gathered all at once.
+     */
+    @Test
+    public void testSearchResults() {
+        SearchResults results = searcher.search("sevens");
+        assertEquals(72, results.size());
+        assertEquals(7, results.getDocId(1));
+        assertEquals(497, results.getDocId(71));
+
+        List<Hit> paged = new ArrayList<Hit>();
+        // Only the labels of the pages asked for are kept.
+        assertEquals(0, results.labelBlocks());
+        paged.addAll(results.page(0, 10));
+        assertEquals(1, results.labelBlocks());
+        for (int from = 10; from < results.size(); from += 10) {
+            paged.addAll(results.page(from, 10));
+        }
+        assertEquals(2, results.labelBlocks());
+        SearchResults all = searcher.search("alldocs");
+        assertEquals("doc499", all.page(499, 10).get(0).getResource());
+        assertEquals(1, all.labelBlocks());
+
+        List<Hit> hits = searcher.searchQuery("sevens");
+        assertEquals(resources(hits), resources(paged));
+        assertEquals(hits.get(3).getScore(), results.getScore(3), 0);
+        // Not stored, labeled with its id.
+        assertEquals("35", results.page(5, 1).get(0).getResource());
+        assertEquals(0, results.page(72, 10).size());
+        assertEquals(2, results.page(70, 10).size());
+
+        results = searcher.search("evens OR sevens", 5);
+        assertEquals(5, results.size());
+        assertEquals(resources(searcher.searchQuery("evens OR sevens", 5)),
+                resources(results.page(0, 5)));
+        assertEquals(0, searcher.search("missing", 10).size());
+
+        // Only the fields asked for are read.
+        results = searcher.search("sevens");
+        List<StoreRecord> records = results.records(1, 5, EnumSet.of(StoreField.AUTHOR,
+                StoreField.TIMESTAMP));
+        assertEquals(5, records.size());
+        assertEquals("user1", records.get(0).getAuthor());
+        assertEquals(7000, records.get(0).getTimestamp());
+        assertNull(records.get(0).getTitle());
+        assertNull(records.get(0).getSnippet());
+        // Not stored.
+        assertNull(records.get(4));
+        records = results.records(69, 10, EnumSet.allOf(StoreField.class));
+        assertEquals(3, records.size());
+        assertEquals("doc483", records.get(0).getTitle());
+        assertNull(records.get(1));
+        assertEquals("text of doc497", records.get(2).getSnippet());
+    }
+
+
+    /**
+     * Tests that prefixes are expanded to at most the given number of terms,
+     * and that results stop at the given limit.
+     */
+    @Test
+    public void testPrefixLimits() throws IOException {
+        SearchResults results = searcher.searchFirst("al*", 10);
+        assertEquals(10, results.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, results.getDocId(i));
+        }
+        assertEquals(NUM_DOCS, searcher.searchFirst("al*", 1000).size());
+        assertEquals(0, searcher.searchFirst("al*", 0).size());
+
+        Searcher capped = new Searcher(folder.getRoot().getPath(), 1);
+        try {
+            // Only "alfives", first in term order.
+            assertEquals(NUM_DOCS / 5, capped.searchQuery("al*").size());
+            assertEquals(NUM_DOCS / 5, capped.searchQuery("al*", 1000).size());
+            assertEquals(NUM_DOCS / 2, capped.searchQuery("o*").size());
+        } finally {
+            capped.close();
+        }
+
+        // "alfives", then "alldocs", of 100 and 500 postings.
+        for (long budget : new long[] { 0, 100, 599, 600 }) {
+            Searcher bounded = new Searcher(folder.getRoot().getPath(),
+                    QueryExecutor.DEFAULT_MAX_EXPANSIONS, budget, null, null, null);
+            try {
+                assertEquals(budget < 600 ? NUM_DOCS / 5 : NUM_DOCS,
+                        bounded.searchQuery("al*").size());
+                assertEquals(budget < 600 ? NUM_DOCS / 5 : NUM_DOCS,
+                        bounded.searchQuery("al*", 1000).size());
+            } finally {
+                bounded.close();
+            }
+        }
+    }
+
+
+    /**
+     * Tests that the results of repeated queries are looked up in the cache,
+     * bounded as asked, and dropped on reopening.
+     */
+    @Test
+    public void testQueryCache() throws IOException {
+        QueryCache cache = searcher.getQueryCache();
+        assertEquals(QueryParser.parse("evens sevens OR -odds"), QueryParser.parse("evens  sevens OR -odds"));
+        assertFalse(QueryParser.parse("evens sevens").equals(QueryParser.parse("evens OR sevens")));
+        assertFalse(QueryParser.parse("sevens").equals(QueryParser.parse("sevens*")));
+
+        SearchResults results = searcher.search("sevens", 10);
+        assertSameResults(results, searcher.search(" sevens", 10));
+        assertNotSame(results, searcher.search("sevens", 5));
+        assertNotSame(results, searcher.search("sevens"));
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(3, cache.size());
+        assertTrue(cache.bytes() > 0);
+
+        // Hits get results of their own, the labels paged in not kept.
+        long bytes = cache.bytes();
+        results.getHits();
+        SearchResults hit = searcher.search("sevens", 10);
+        assertNotSame(results, hit);
+        assertEquals(0, hit.labelBlocks());
+        assertEquals(bytes, cache.bytes());
+
+        searcher.reopen();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+        assertNotSame(results, searcher.search("sevens", 10));
+        assertEquals(resources(results.getHits()), resources(searcher.searchQuery("sevens", 10)));
+
+        // The least recently used query goes first.
+        Searcher bounded = new Searcher(folder.getRoot().getPath(),
+                QueryExecutor.DEFAULT_MAX_EXPANSIONS, new QueryCache(2, 4096));
+        try {
+            QueryCache small = bounded.getQueryCache();
+            results = bounded.search("sevens", 10);
+            bounded.search("evens", 10);
+            bounded.search("sevens", 10);
+            bounded.search("odds", 10);
+            assertEquals(1, small.evictions());
+            assertSameResults(results, bounded.search("sevens", 10));
+            assertEquals(2, small.hits());
+
+            // Too large to cache at all.
+            results = bounded.search("alldocs");
+            assertSameResults(results, bounded.search("alldocs"));
+            assertEquals(2, small.hits());
+            assertEquals(2, small.size());
+            assertTrue(small.bytes() <= 4096);
+        } finally {
+            bounded.close();
+        }
+
+        Searcher uncached = new Searcher(folder.getRoot().getPath(),
+                QueryExecutor.DEFAULT_MAX_EXPANSIONS, null);
+        try {
+            assertNull(uncached.getQueryCache());
+            assertEquals(72, uncached.searchQuery("sevens").size());
+        } finally {
+            uncached.close();
+        }
+    }
+
+
+    /**
+     * Tests that long postings lists are served decoded from the cache, on
+     * or off the heap, with the same hits as decoded off the file.
+     */
+    @Test
+    public void testPostingsCache() throws IOException {
+        String[] queries = { "alldocs", "evens", "sevens", "alldocs sevens", "evens OR sevens", "odds -sevens" };
+        for (boolean offHeap : new boolean[] { false, true }) {
+            // Room for "alldocs" and "odds", or "evens", but not the three.
+            PostingsCache cache = new PostingsCache(10000, 100, offHeap);
+            Searcher cached = new Searcher(folder.getRoot().getPath(),
+                    QueryExecutor.DEFAULT_MAX_EXPANSIONS, null, cache);
+            try {
+                for (int round = 0; round < 2; round++) {
+                    for (String query : queries) {
+                        assertEquals(query, resources(searcher.searchQuery(query)),
+                                resources(cached.searchQuery(query)));
+                        assertEquals(query, resources(searcher.searchQuery(query, 10)),
+                                resources(cached.searchQuery(query, 10)));
+                    }
+                }
+                // "sevens" is too short to be cached, thus never looked up.
+                assertTrue(cache.hits() > 0);
+                assertTrue(cache.misses() >= 3);
+                assertTrue(cache.evictions() > 0);
+                assertTrue(cache.bytes() <= 10000);
+                assertTrue(cache.missPostings() >= 1000);
+            } finally {
+                cached.close();
+            }
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.bytes());
+        }
+    }
+
+
+    /**
+     * Tests that labels are served from the cache off the heap, that the ones
+     * found lately are kept, and that the others are evicted.
+     */
+    @Test
+    public void testStoreCache() throws IOException {
+        // Four slots, each with its share of the table.
+        StoreCache cache = new StoreCache(4 * (64 + StoreCache.TABLE_BYTES_PER_SLOT), 64);
+        assertEquals(4 * (64 + StoreCache.TABLE_BYTES_PER_SLOT), cache.bytes());
+        for (long i = 1; i <= 4; i++) {
+            cache.put(i, "doc" + i);
+        }
+        assertEquals("doc1", cache.get(1));
+        cache.put(5, "doc5");
+        // The hand passes over "doc1", found lately, and evicts "doc2".
+        assertNull(cache.get(2));
+        assertEquals("doc1", cache.get(1));
+        assertEquals("doc5", cache.get(5));
+        assertEquals(1, cache.evictions());
+        assertEquals(4, cache.size());
+        cache.put(6, new String(new char[100]).replace('\0', 'x'));
+        assertNull(cache.get(6));
+        cache.put(7, "\u03b1\u03b2\u03b3");
+        assertEquals("\u03b1\u03b2\u03b3", cache.get(7));
+        assertEquals(4.0 / 6, cache.hitRatio(), 1e-9);
+
+        // Labels found are always the right ones, however they are evicted.
+        Random random = new Random(42);
+        cache = new StoreCache(64 * (16 + StoreCache.TABLE_BYTES_PER_SLOT), 16);
+        for (int i = 0; i < 10000; i++) {
+            long docId = random.nextInt(200);
+            String label = cache.get(docId);
+            if (label == null)
+                cache.put(docId, "d" + docId);
+            else
+                assertEquals("d" + docId, label);
+        }
+        assertEquals(64, cache.size());
+
+        // Stored labels read once are then found in the cache.
+        cache = new StoreCache(16 * (64 + StoreCache.TABLE_BYTES_PER_SLOT), 64);
+        Searcher cached = new Searcher(folder.getRoot().getPath(),
+                QueryExecutor.DEFAULT_MAX_EXPANSIONS, null, null, cache);
+        try {
+            List<Hit> hits = cached.search("sevens").page(0, 10);
+            assertEquals(0, cache.hits());
+            assertEquals(8, cache.size());
+            assertEquals(resources(hits), resources(cached.search("sevens").page(0, 10)));
+            // Documents 0 and 35 are not stored, thus not cached.
+            assertEquals(8, cache.hits());
+            assertEquals(resources(searcher.searchQuery("sevens")), resources(cached.searchQuery("sevens")));
+            assertEquals(16, cache.size());
+        } finally {
+            cached.close();
+        }
+    }
+
+
+    /**
+     * Tests that queries running concurrently on a shared searcher get the
+     * same results as when run alone.
+     */
+    @Test
+    public void testConcurrentSearch() throws Exception {
+        final String[] queries = { "alldocs", "evens", "odds", "sevens", "e*", "missing", "odds sevens", "evens OR sevens" };
+        final List<List<String>> expected = new ArrayList<List<String>>();
+        for (String query : queries) {
+            expected.add(resources(searcher.searchQuery(query)));
+        }
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(threads.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int i = 0; i < 200; i++) {
+                            int q = (seed + i) % queries.length;
+                            if (!expected.get(q).equals(resources(searcher.searchQuery(queries[q]))))
+                                return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        }
+        finally {
+            threads.shutdown();
+        }
+    }
+
+
+    /*
+     * Adds a posting to an in-memory index.
+     */
+    private static void add(TreeMap<String, PostingsList> index, String term, long docId) {
+        PostingsList postings = index.get(term);
+        if (postings == null) {
+            postings = new PostingsList();
+            index.put(term, postings);
+        }
+        postings.add(docId);
+    }
+
+
+    /*
+     * Gets the resources of a list of hits.
+     */
+    private static List<String> resources(List<Hit> hits) {
+        List<String> resources = new ArrayList<String>();
+        for (Hit hit : hits) {
+            resources.add(hit.getResource());
+        }
+
+        return resources;
+    }
+
+
+    /*
+     * Asserts that two results hold the same documents and scores.
+     */
+    private static void assertSameResults(SearchResults expected, SearchResults actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDocId(i), actual.getDocId(i));
+            assertEquals(expected.getScore(i), actual.getScore(i), 0);
+        }
+    }
+
+}
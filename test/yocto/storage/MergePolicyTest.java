@@ -0,0 +1,220 @@
+package yocto.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * Unit test for the {@link TieredMergePolicy} and the {@link MergeScheduler},
+ * through the {@link DiskManager}: an index merged through several tiers
+ * must equal one written in a single flush.
+ *
+ * @author billy
+ */
+public class MergePolicyTest {
+
+    /* The number of documents indexed. */
+    private static final int NUM_DOCS = 3000;
+
+    /* The number of segments the documents are flushed in. */
+    private static final int NUM_SEGMENTS = 40;
+
+    /* The size of the segments of the lowest tier, in bytes. */
+    private static final long FLOOR_BYTES = 512;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Tests merging pairs of segments, of variable-byte postings.
+     */
+    @Test
+    public void testMergeFactor2() throws IOException {
+        check(PostingsCodec.VBYTE, 2);
+    }
+
+
+    /**
+     * Tests merging triples of segments, of block postings.
+     */
+    @Test
+    public void testMergeFactor3() throws IOException {
+        check(PostingsCodec.BLOCK, 3);
+    }
+
+
+    /*
+     * Flushes random documents in many segments, out of document order,
+     * merged on two threads, and checks the final index against one
+     * flushed at once.
+     */
+    private void check(PostingsCodec codec, int mergeFactor) throws IOException {
+        Random random = new Random(42);
+        List<TreeMap<String, PostingsList>> segments = new ArrayList<TreeMap<String, PostingsList>>();
+        List<long[]> segmentDocIds = new ArrayList<long[]>();
+        List<int[]> segmentLengths = new ArrayList<int[]>();
+        TreeMap<String, PostingsList> all = new TreeMap<String, PostingsList>();
+        long[] docIds = new long[NUM_DOCS];
+        int[] lengths = new int[NUM_DOCS];
+
+        int perSegment = NUM_DOCS / NUM_SEGMENTS;
+        for (int s = 0; s < NUM_SEGMENTS; s++) {
+            TreeMap<String, PostingsList> segment = new TreeMap<String, PostingsList>();
+            for (int docId = s * perSegment; docId < (s + 1) * perSegment; docId++) {
+                // Skewed, so some terms are in most documents.
+                TreeSet<String> terms = new TreeSet<String>();
+                int numTerms = 1 + random.nextInt(20);
+                for (int t = 0; t < numTerms; t++)
+                    terms.add("t" + random.nextInt(1 + random.nextInt(900)));
+
+                int length = 0;
+                for (String term : terms) {
+                    int freq = 1 + random.nextInt(3);
+                    add(segment, term, docId, freq);
+                    add(all, term, docId, freq);
+                    length += freq;
+                }
+                docIds[docId] = docId;
+                lengths[docId] = length;
+            }
+            segments.add(segment);
+            segmentDocIds.add(Arrays.copyOfRange(docIds, s * perSegment, (s + 1) * perSegment));
+            segmentLengths.add(Arrays.copyOfRange(lengths, s * perSegment, (s + 1) * perSegment));
+        }
+
+        File single = folder.newFolder("single");
+        DiskManager dm = new DiskManager(single.getPath(), codec);
+        dm.writeIndexSegment(all);
+        dm.writeNorms(docIds, lengths, NUM_DOCS);
+        dm.close();
+
+        // Segments are flushed out of order, as concurrent workers do.
+        List<Integer> order = new ArrayList<Integer>();
+        for (int s = 0; s < NUM_SEGMENTS; s++)
+            order.add(s);
+        Collections.shuffle(order, random);
+
+        RecordingMergePolicy policy = new RecordingMergePolicy(mergeFactor);
+        File tiered = folder.newFolder("tiered");
+        dm = new DiskManager(tiered.getPath(), codec, policy, 2);
+        for (int s : order) {
+            dm.writeIndexSegment(segments.get(s));
+            dm.writeNorms(segmentDocIds.get(s), segmentLengths.get(s), perSegment);
+        }
+        dm.close();
+
+        // More merges than the flushed segments make up, so merged segments
+        // were merged again, in the tiers above.
+        assertTrue(policy.merges > NUM_SEGMENTS / mergeFactor);
+        for (File file : tiered.listFiles())
+            assertFalse(file.getName(), file.getName().startsWith(DiskManager.SEGMENT_FILENAME));
+
+        checkIndex(all, tiered);
+        checkIndex(all, single);
+        for (String name : new String[] { DiskManager.INDEX_FILENAME,
+                DiskManager.INDEX_OFFSETS_FILENAME, DiskManager.INDEX_TERMS_FILENAME,
+                DiskManager.INDEX_IMPACTS_FILENAME, DiskManager.NORMS_FILENAME }) {
+            assertArrayEquals(name, Files.readAllBytes(new File(single, name).toPath()),
+                    Files.readAllBytes(new File(tiered, name).toPath()));
+        }
+
+        try (   NormsReader singleNorms = new NormsReader(new File(single, DiskManager.NORMS_FILENAME));
+                NormsReader tieredNorms = new NormsReader(new File(tiered, DiskManager.NORMS_FILENAME));)
+        {
+            assertEquals(NUM_DOCS, tieredNorms.numDocs());
+            assertEquals(singleNorms.averageLength(), tieredNorms.averageLength(), 0);
+            for (int docId = 0; docId < NUM_DOCS; docId++)
+                assertEquals(singleNorms.norm(docId), tieredNorms.norm(docId));
+        }
+    }
+
+
+    /*
+     * Checks the terms and postings of a final index.
+     */
+    private static void checkIndex(TreeMap<String, PostingsList> expected, File dir)
+            throws IOException {
+        try (   FstTermDictionary terms = new FstTermDictionary(new File(dir, DiskManager.INDEX_TERMS_FILENAME));
+                PostingsReader postings = new PostingsReader(new File(dir, DiskManager.INDEX_FILENAME));)
+        {
+            assertEquals(expected.size(), terms.size());
+            TermIterator iter = terms.iterator("");
+            for (Map.Entry<String, PostingsList> entry : expected.entrySet()) {
+                assertTrue(iter.next());
+                assertEquals(entry.getKey(), iter.term());
+
+                PostingsList list = entry.getValue();
+                PostingsIterator it = postings.postings(iter.offset());
+                assertEquals(list.size(), it.size());
+                for (int i = 0; i < list.size(); i++) {
+                    assertEquals(list.getDocId(i), it.nextDoc());
+                    assertEquals(list.getFreq(i), it.freq());
+                }
+                assertEquals(PostingsIterator.NO_MORE_DOCS, it.nextDoc());
+            }
+            assertFalse(iter.next());
+        }
+    }
+
+
+    /*
+     * Adds an occurrence of a term to an in-memory index.
+     */
+    private static void add(TreeMap<String, PostingsList> index, String term,
+            long docId, int freq) {
+        PostingsList list = index.get(term);
+        if (list == null) {
+            list = new PostingsList();
+            index.put(term, list);
+        }
+        list.add(docId, freq);
+    }
+
+
+    // -- Inner classes
+
+
+    /*
+     * A tiered merge policy over tiny segments, counting the merges it
+     * finds.
+     */
+    private static class RecordingMergePolicy extends TieredMergePolicy {
+
+        /* The number of merges found. */
+        private int merges = 0;
+
+        RecordingMergePolicy(int mergeFactor) {
+            super(mergeFactor, FLOOR_BYTES);
+        }
+
+        /* (non-Javadoc)
+         * @see yocto.storage.TieredMergePolicy#findMerges(java.util.List)
+         */
+        @Override
+        public List<List<Segment>> findMerges(List<Segment> segments) {
+            List<List<Segment>> found = super.findMerges(segments);
+            merges += found.size();
+
+            return found;
+        }
+
+    }
+
+}
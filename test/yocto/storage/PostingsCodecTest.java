@@ -0,0 +1,214 @@
+package yocto.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import yocto.indexing.PostingsList;
+
+/**
+ * Unit test for the {@link PostingsCodec}s.
+ *
+ * @author billy
+ */
+public class PostingsCodecTest {
+
+    /**
+     * Tests that postings read back the same as written, including small and
+     * huge gaps, and that the header names the codec.
+     */
+    @Test
+    public void testVByteRoundTrip() throws IOException {
+        assertRoundTrip(PostingsCodec.VBYTE);
+    }
+
+
+    /**
+     * Tests that postings read back the same as written, with full, partial,
+     * narrow and wide blocks.
+     */
+    @Test
+    public void testBlockRoundTrip() throws IOException {
+        assertRoundTrip(PostingsCodec.BLOCK);
+    }
+
+
+    /**
+     * Tests moving to target document ids against a linear scan, so that
+     * skipping over whole blocks lands on the right posting.
+     */
+    @Test
+    public void testAdvance() throws IOException {
+        Random random = new Random(42);
+        PostingsList postings = new PostingsList();
+        long docId = 0;
+        for (int i = 0; i < 1000; i++) {
+            docId += 1 + random.nextInt(i % 300 == 0 ? 100000 : 50);
+            postings.add(docId);
+            if (i % 4 == 0)
+                for (int j = random.nextInt(20); j > 0; j--)
+                    postings.add(docId);
+        }
+
+        for (PostingsCodec codec : new PostingsCodec[] { PostingsCodec.VBYTE, PostingsCodec.BLOCK }) {
+            for (int step : new int[] { 1, 40, 300, 5000, 100000 }) {
+                PostingsIterator iter = iterator(codec, postings);
+                assertEquals(-1, iter.docId());
+                long target = 0;
+                int i = 0;
+                while (true) {
+                    target += step;
+                    while (i < postings.size() && postings.getDocId(i) < target)
+                        i++;
+                    long expected = i < postings.size()
+                            ? postings.getDocId(i) : PostingsIterator.NO_MORE_DOCS;
+                    assertEquals(codec + " step " + step, expected, iter.advance(target));
+                    if (expected == PostingsIterator.NO_MORE_DOCS)
+                        break;
+                    assertEquals(postings.getFreq(i), iter.freq());
+                    // Mix in plain iteration.
+                    target = iter.nextDoc();
+                    i++;
+                    expected = i < postings.size()
+                            ? postings.getDocId(i) : PostingsIterator.NO_MORE_DOCS;
+                    assertEquals(expected, target);
+                    if (expected == PostingsIterator.NO_MORE_DOCS)
+                        break;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tests that records are copied as is.
+     */
+    @Test
+    public void testCopy() throws IOException {
+        PostingsList postings = postings(12, 13, 200, 70000, 1L << 40);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long written = PostingsCodec.VBYTE.writePostings(new DataOutputStream(bytes), postings);
+        assertEquals(bytes.size(), written);
+
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        long copied = PostingsCodec.copyPostings(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                new DataOutputStream(copy));
+        assertEquals(written, copied);
+        assertArrayEquals(bytes.toByteArray(), copy.toByteArray());
+    }
+
+
+    /*
+     * Writes a file of a few postings lists and reads it back.
+     */
+    private static void assertRoundTrip(PostingsCodec codec) throws IOException {
+        PostingsList[] lists = {
+                postings(0),
+                postings(1, 2, 3, 127, 128, 16383, 16384),
+                postings(5, Integer.MAX_VALUE, 1L << 40, Long.MAX_VALUE - 1),
+                range(3, 1000, 7),
+                range(0, 256, 1),
+                range(1L << 20, 300, 1 << 30),
+                range(1, 130, Integer.MAX_VALUE),
+                range(1, 127, 1)
+        };
+        // A full block of 64-bit wide gaps.
+        lists[lists.length - 1].add(1L << 60);
+        // Term frequencies, from none repeated to some huge.
+        for (int i = 0; i < 1000; i += 3) {
+            for (int j = 0; j < i % 11; j++) {
+                lists[3].add(3 + i * 7);
+            }
+        }
+        for (int j = 0; j < 100000; j++) {
+            lists[1].add(16383);
+        }
+        for (int j = 0; j < 4; j++) {
+            lists[2].add(Long.MAX_VALUE - 1);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bytes);
+        long written = PostingsCodec.writeHeader(dos, codec);
+        for (PostingsList list : lists) {
+            written += codec.writePostings(dos, list);
+        }
+        assertEquals(bytes.size(), written);
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertSame(codec, PostingsCodec.readHeader(dis));
+        for (PostingsList list : lists) {
+            PostingsList read = codec.readPostings(dis);
+            assertEquals(list.size(), read.size());
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(list.getDocId(i), read.getDocId(i));
+                assertEquals(list.getFreq(i), read.getFreq(i));
+            }
+
+            PostingsIterator iter = iterator(codec, list);
+            for (int i = 0; i < list.size(); i++) {
+                assertEquals(list.getDocId(i), iter.nextDoc());
+                assertEquals(list.getFreq(i), iter.freq());
+            }
+        }
+        assertEquals(-1, dis.read());
+    }
+
+
+    /*
+     * Writes a postings record and iterates over it in place, in a direct
+     * buffer and off its start, as over a mapped postings file.
+     */
+    private static PostingsIterator iterator(PostingsCodec codec, PostingsList postings)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writePostings(new DataOutputStream(bytes), postings);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        int count = PostingsCodec.readVInt(in);
+        byte[] payload = new byte[PostingsCodec.readVInt(in)];
+        in.readFully(payload);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3 + payload.length);
+        buffer.position(3);
+        buffer.put(payload);
+
+        return codec.iterator(buffer, 3, payload.length, count);
+    }
+
+
+    /*
+     * Builds a postings list out of the given document ids.
+     */
+    private static PostingsList postings(long... docIds) {
+        PostingsList postings = new PostingsList();
+        for (long docId : docIds) {
+            postings.add(docId);
+        }
+
+        return postings;
+    }
+
+
+    /*
+     * Builds a postings list of evenly spaced document ids.
+     */
+    private static PostingsList range(long from, int count, int step) {
+        PostingsList postings = new PostingsList();
+        for (int i = 0; i < count; i++) {
+            postings.add(from + (long) i * step);
+        }
+
+        return postings;
+    }
+
+}
@@ -0,0 +1,168 @@
+package yocto.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for the {@link StoreReader} and {@link StoreOffsetsReader}, over
+ * stores written by the {@link DiskManager}.
+ *
+ * @author billy
+ */
+public class StoreReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Tests that documents stored across many blocks and batches, with gaps
+     * in between, read back the same, one at a time and in batches.
+     */
+    @Test
+    public void testBlocks() throws IOException {
+        String dir = folder.getRoot().getPath();
+        Random random = new Random(42);
+        TreeMap<Long, StoreRecord> expected = new TreeMap<Long, StoreRecord>();
+        long rawLength = 0;
+
+        DiskManager dm = new DiskManager(dir);
+        long docId = 0;
+        for (int batch = 0; batch < 3; batch++) {
+            LinkedHashMap<Long, StoreRecord> store = new LinkedHashMap<Long, StoreRecord>();
+            for (int i = 0; i < 3000; i++, docId++) {
+                if (i % 7 == 3)
+                    continue;
+                String label = "Title α " + docId + " " + "abcdefghij".substring(random.nextInt(10));
+                String author = i % 11 == 0 ? "" : "user" + random.nextInt(50);
+                String snippet = "Lorem ipsum " + docId + " dolor sit amet";
+                store.put(docId, new StoreRecord(label, author, 1000000L * docId, snippet));
+                rawLength += 2 + label.length() + 2 + author.length() + 8 + 2 + snippet.length();
+            }
+            if (batch == 2) {
+                // Too far from the previous document to be told by a gap.
+                docId += 1L << 40;
+                store.put(docId, new StoreRecord("Far", "", StoreRecord.NO_TIMESTAMP, ""));
+            }
+            dm.appendStore(store);
+            expected.putAll(store);
+        }
+        dm.close();
+
+        File storeFile = new File(dir, DiskManager.STORE_FILENAME);
+        File offsetsFile = new File(dir, DiskManager.STORE_OFFSETS_FILENAME);
+        assertTrue(storeFile.length() < rawLength / 2);
+        assertTrue(offsetsFile.length() < expected.size());
+
+        try (   StoreOffsetsReader offsets = new StoreOffsetsReader(offsetsFile);
+                StoreReader store = new StoreReader(storeFile);)
+        {
+            assertEquals(expected.size(), offsets.size());
+            assertEquals(-1, offsets.offset(-1));
+            for (long id = 0; id < 9000; id++) {
+                StoreRecord record = store.readStoreRecord(id, offsets.offset(id));
+                if (expected.containsKey(id))
+                    assertRecord(expected.get(id), record);
+                else
+                    assertNull(record);
+            }
+            assertRecord(expected.get(docId), store.readStoreRecord(docId, offsets.offset(docId)));
+            assertNull(store.readStoreRecord(docId + 1, offsets.offset(docId + 1)));
+
+            long[] docIds = new long[500];
+            long[] offs = new long[docIds.length];
+            for (int i = 0; i < docIds.length; i++) {
+                docIds[i] = random.nextInt(9000);
+                offs[i] = offsets.offset(docIds[i]);
+            }
+            StoreRecord[] records = store.readStoreRecords(docIds, offs);
+            for (int i = 0; i < docIds.length; i++) {
+                if (expected.containsKey(docIds[i]))
+                    assertRecord(expected.get(docIds[i]), records[i]);
+                else
+                    assertNull(records[i]);
+            }
+
+            // Only the fields asked for are read.
+            records = store.readStoreRecords(docIds, offs,
+                    EnumSet.of(StoreField.TITLE, StoreField.TIMESTAMP));
+            for (int i = 0; i < docIds.length; i++) {
+                StoreRecord record = expected.get(docIds[i]);
+                if (record == null) {
+                    assertNull(records[i]);
+                    continue;
+                }
+                assertEquals(record.getTitle(), records[i].getTitle());
+                assertEquals(record.getTimestamp(), records[i].getTimestamp());
+                assertNull(records[i].getAuthor());
+                assertNull(records[i].getSnippet());
+            }
+            records = store.readStoreRecords(docIds, offs, EnumSet.noneOf(StoreField.class));
+            for (int i = 0; i < docIds.length; i++) {
+                assertEquals(expected.containsKey(docIds[i]), records[i] != null);
+                if (records[i] != null) {
+                    assertNull(records[i].getTitle());
+                    assertEquals(StoreRecord.NO_TIMESTAMP, records[i].getTimestamp());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Tests that stores of formats not supported, as written before there
+     * were blocks, are rejected rather than misread.
+     */
+    @Test
+    public void testUnsupported() throws IOException {
+        File storeFile = folder.newFile("stor");
+        File offsetsFile = folder.newFile("stor.off");
+        try (   DataOutputStream store = new DataOutputStream(new FileOutputStream(storeFile));
+                DataOutputStream offsets = new DataOutputStream(new FileOutputStream(offsetsFile));)
+        {
+            for (long docId = 5; docId < 200; docId += 3) {
+                offsets.writeLong(docId);
+                offsets.writeLong(store.size());
+                store.writeUTF("doc" + docId);
+            }
+        }
+
+        try {
+            new StoreReader(storeFile).close();
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            new StoreOffsetsReader(offsetsFile).close();
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+
+    /*
+     * Asserts that a record read holds all the fields of the one written.
+     */
+    private static void assertRecord(StoreRecord expected, StoreRecord actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getAuthor(), actual.getAuthor());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getSnippet(), actual.getSnippet());
+    }
+
+}
@@ -0,0 +1,167 @@
+package yocto.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for the {@link TermDictionary} implementations, against a
+ * {@link TreeMap}.
+ *
+ * @author billy
+ */
+public class TermDictionaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    /**
+     * Tests look-ups and iteration of a front-coded dictionary.
+     */
+    @Test
+    public void testFrontCoded() {
+        TreeMap<String, Long> expected = randomTerms(new Random(42), 1000);
+        FrontCodedTermDictionary.Builder builder = new FrontCodedTermDictionary.Builder();
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+
+        check(expected, builder.build());
+    }
+
+
+    /**
+     * Tests an empty front-coded dictionary.
+     */
+    @Test
+    public void testFrontCodedEmpty() {
+        TermDictionary dict = new FrontCodedTermDictionary.Builder().build();
+
+        assertEquals(0, dict.size());
+        assertEquals(-1, dict.get("a"));
+        assertFalse(dict.iterator("").next());
+    }
+
+
+    /**
+     * Tests look-ups, iteration and automaton intersection of a transducer.
+     */
+    @Test
+    public void testFst() throws IOException {
+        TreeMap<String, Long> expected = randomTerms(new Random(7), 1000);
+        expected.put("", 3L);
+
+        try (TermDictionary dict = fst(expected)) {
+            check(expected, dict);
+
+            for (String prefix : new String[] { "", "a", "ab", "é", "中a", "x" }) {
+                List<String> matches = new ArrayList<String>();
+                for (String term : expected.keySet()) {
+                    if (term.startsWith(prefix))
+                        matches.add(term);
+                }
+
+                TermIterator it = dict.intersect(TermAutomaton.prefix(prefix));
+                for (String term : matches) {
+                    assertTrue(it.next());
+                    assertEquals(term, it.term());
+                    assertEquals(expected.get(term).longValue(), it.offset());
+                }
+                assertFalse(it.next());
+            }
+        }
+    }
+
+
+    /**
+     * Tests a transducer with no terms.
+     */
+    @Test
+    public void testFstEmpty() throws IOException {
+        try (TermDictionary dict = fst(new TreeMap<String, Long>())) {
+            assertEquals(0, dict.size());
+            assertEquals(-1, dict.get(""));
+            assertFalse(dict.iterator("").next());
+            assertFalse(dict.intersect(TermAutomaton.prefix("")).next());
+        }
+    }
+
+
+    /*
+     * Writes the terms to a transducer file and opens it.
+     */
+    private TermDictionary fst(TreeMap<String, Long> terms) throws IOException {
+        FstTermDictionary.Builder builder = new FstTermDictionary.Builder();
+        for (Map.Entry<String, Long> entry : terms.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        File file = folder.newFile();
+        builder.save(file);
+
+        return new FstTermDictionary(file);
+    }
+
+
+    /*
+     * Checks a dictionary against the expected terms.
+     */
+    private static void check(TreeMap<String, Long> expected, TermDictionary dict) {
+        assertEquals(expected.size(), dict.size());
+
+        for (Map.Entry<String, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().longValue(), dict.get(entry.getKey()));
+            assertEquals(-1, dict.get(entry.getKey() + "\u0000"));
+        }
+        if (!expected.containsKey(""))
+            assertEquals(-1, dict.get(""));
+        assertEquals(-1, dict.get("￿"));
+
+        for (String from : new String[] { "", "a", "ab", "m", "zz", "é", "￿" }) {
+            TermIterator it = dict.iterator(from);
+            for (Map.Entry<String, Long> entry : expected.tailMap(from, true).entrySet()) {
+                assertTrue(it.next());
+                assertEquals(entry.getKey(), it.term());
+                assertEquals(entry.getValue().longValue(), it.offset());
+            }
+            assertFalse(it.next());
+        }
+    }
+
+
+    /*
+     * Generates random terms sharing plenty of prefixes, with growing
+     * offsets.
+     */
+    private static TreeMap<String, Long> randomTerms(Random random, int count) {
+        String alphabet = "abcdezé中";
+        TreeMap<String, Long> terms = new TreeMap<String, Long>();
+        while (terms.size() < count) {
+            StringBuilder term = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int i = 0; i < length; i++) {
+                term.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            terms.put(term.toString(), 0L);
+        }
+
+        long offset = PostingsCodec.HEADER_LENGTH;
+        for (Map.Entry<String, Long> entry : terms.entrySet()) {
+            entry.setValue(offset);
+            offset += 1 + random.nextInt(5000);
+        }
+
+        return terms;
+    }
+
+}